@@ -60,12 +60,23 @@ CREATE TABLE recetas (
     estado ENUM('confeccionada', 'proceso', 'lista', 'entregada') NOT NULL DEFAULT 'confeccionada',
     paciente_id VARCHAR(20) NOT NULL,
     medico_id VARCHAR(20) NOT NULL,
+    farmaceuta_id VARCHAR(20) NULL,
+    -- Versión del último cambio (ver secuencias); LISTAR_* con sinceVersion
+    version BIGINT NOT NULL DEFAULT 1,
     FOREIGN KEY (paciente_id) REFERENCES pacientes(id),
     FOREIGN KEY (medico_id) REFERENCES usuarios(id),
-    INDEX idx_estado (estado),
-    INDEX idx_fecha_confeccion (fecha_confeccion),
+    FOREIGN KEY (farmaceuta_id) REFERENCES usuarios(id),
+    -- Índices de la paginación por keyset: (fecha_confeccion, id) descendente
+    INDEX idx_fecha_id (fecha_confeccion, id),
+    INDEX idx_estado_fecha_id (estado, fecha_confeccion, id),
+    -- Candidatas a archivar: entregadas hace más de N días
+    INDEX idx_estado_entrega (estado, fecha_entrega),
+    -- Sincronización por deltas: cambios posteriores a una versión
+    INDEX idx_version (version),
+    INDEX idx_estado_version (estado, version),
     INDEX idx_paciente (paciente_id),
-    INDEX idx_medico (medico_id)
+    INDEX idx_medico (medico_id),
+    INDEX idx_farmaceuta (farmaceuta_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 -- ============================================================
@@ -83,6 +94,62 @@ CREATE TABLE detalle_recetas (
     INDEX idx_receta (receta_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+-- ============================================================
+-- TABLAS DE ARCHIVO: recetas_archivo / detalle_recetas_archivo
+-- Recetas entregadas hace más de N días, movidas por el archivador
+-- (service.ArchivadorRecetas) para que recetas y detalle_recetas
+-- contengan solo el trabajo reciente. Mismas columnas que las tablas
+-- vivas; los detalles conservan su id original
+-- ============================================================
+CREATE TABLE recetas_archivo (
+    id VARCHAR(20) PRIMARY KEY,
+    fecha_confeccion TIMESTAMP NOT NULL,
+    fecha_retiro TIMESTAMP NOT NULL,
+    fecha_proceso TIMESTAMP NULL,
+    fecha_lista TIMESTAMP NULL,
+    fecha_entrega TIMESTAMP NULL,
+    estado ENUM('confeccionada', 'proceso', 'lista', 'entregada') NOT NULL DEFAULT 'entregada',
+    paciente_id VARCHAR(20) NOT NULL,
+    medico_id VARCHAR(20) NOT NULL,
+    farmaceuta_id VARCHAR(20) NULL,
+    version BIGINT NOT NULL DEFAULT 1,
+    FOREIGN KEY (paciente_id) REFERENCES pacientes(id),
+    FOREIGN KEY (medico_id) REFERENCES usuarios(id),
+    FOREIGN KEY (farmaceuta_id) REFERENCES usuarios(id),
+    INDEX idx_fecha_id (fecha_confeccion, id),
+    INDEX idx_entrega (fecha_entrega),
+    INDEX idx_version (version),
+    INDEX idx_paciente (paciente_id),
+    INDEX idx_medico (medico_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE detalle_recetas_archivo (
+    id INT PRIMARY KEY,
+    receta_id VARCHAR(20) NOT NULL,
+    medicamento_codigo VARCHAR(20) NOT NULL,
+    cantidad INT NOT NULL,
+    indicaciones TEXT NOT NULL,
+    duracion_dias INT NOT NULL,
+    FOREIGN KEY (receta_id) REFERENCES recetas_archivo(id) ON DELETE CASCADE,
+    FOREIGN KEY (medicamento_codigo) REFERENCES medicamentos(codigo),
+    INDEX idx_receta (receta_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- ============================================================
+-- TABLA: secuencias
+-- Contadores monotónicos. 'recetas' es la versión de cambios de recetas:
+-- cada transacción que crea recetas o cambia su estado toma la siguiente
+-- como último paso antes del commit y la graba en recetas.version. La fila
+-- queda bloqueada solo desde ahí hasta el commit, así las versiones se
+-- confirman en orden sin serializar el resto de la transacción
+-- ============================================================
+CREATE TABLE secuencias (
+    nombre VARCHAR(50) PRIMARY KEY,
+    valor BIGINT NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+INSERT INTO secuencias (nombre, valor) VALUES ('recetas', 1);
+
 -- ============================================================
 -- TABLA: usuarios_activos
 -- ============================================================
@@ -114,6 +181,39 @@ CREATE TABLE mensajes (
     INDEX idx_fecha (fecha_envio)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+-- ============================================================
+-- TABLAS DE HISTÓRICO (agregados diarios)
+-- Se mantienen incrementalmente en cada receta creada o cambio de
+-- estado y se recalculan con el job main.RecalcularHistorico
+-- ============================================================
+
+-- Recetas que entraron a cada estado por día
+CREATE TABLE historico_estado_dia (
+    dia DATE NOT NULL,
+    estado ENUM('confeccionada', 'proceso', 'lista', 'entregada') NOT NULL,
+    recetas INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (dia, estado)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Unidades entregadas de cada medicamento por día
+CREATE TABLE historico_medicamento_dia (
+    dia DATE NOT NULL,
+    medicamento_codigo VARCHAR(20) NOT NULL,
+    unidades INT NOT NULL DEFAULT 0,
+    recetas INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (dia, medicamento_codigo),
+    INDEX idx_medicamento_dia (medicamento_codigo, dia)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Recetas confeccionadas por cada médico por día
+CREATE TABLE historico_medico_dia (
+    dia DATE NOT NULL,
+    medico_id VARCHAR(20) NOT NULL,
+    recetas INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (dia, medico_id),
+    INDEX idx_medico_dia (medico_id, dia)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 -- ============================================================
 -- DATOS DE PRUEBA
 -- ============================================================
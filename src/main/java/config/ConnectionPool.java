@@ -0,0 +1,352 @@
+package config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool acotado de conexiones JDBC
+ * Las conexiones que entrega son proxies: al cerrarlas (try-with-resources)
+ * vuelven al pool en lugar de cerrar la conexión física con MySQL
+ * Los Statement, ResultSet y DatabaseMetaData que salen de ellas también son
+ * proxies, para que getConnection() devuelva el préstamo y no la física
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minimo;
+    private final int maximo;
+    private final long timeoutEsperaMs;
+    private final long validarTrasMs;
+    private final int timeoutValidacionSeg;
+    private final long inactividadMaximaMs;
+
+    // Un permiso por conexión prestada: limita el total de conexiones físicas a "maximo"
+    private final Semaphore permisos;
+
+    // Conexiones libres; la más recientemente devuelta queda al frente (LIFO)
+    private final LinkedBlockingDeque<ConexionFisica> libres = new LinkedBlockingDeque<>();
+    private final AtomicInteger abiertas = new AtomicInteger();
+
+    private final ScheduledExecutorService desalojador;
+    private volatile boolean cerrado;
+
+    public ConnectionPool(String url, String user, String password, int minimo, int maximo,
+                          long timeoutEsperaMs, long validarTrasMs, int timeoutValidacionSeg,
+                          long inactividadMaximaMs, long intervaloDesalojoMs) {
+        if (minimo < 0 || maximo < 1 || minimo > maximo) {
+            throw new IllegalArgumentException("Tamaño de pool inválido: min=" + minimo + ", max=" + maximo);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.timeoutEsperaMs = timeoutEsperaMs;
+        this.validarTrasMs = validarTrasMs;
+        this.timeoutValidacionSeg = timeoutValidacionSeg;
+        this.inactividadMaximaMs = inactividadMaximaMs;
+        this.permisos = new Semaphore(maximo, true);
+
+        this.desalojador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-desalojo");
+            t.setDaemon(true);
+            return t;
+        });
+        this.desalojador.scheduleWithFixedDelay(this::desalojarInactivas,
+                intervaloDesalojoMs, intervaloDesalojoMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Abre las conexiones mínimas por adelantado
+     */
+    public void precargar() throws SQLException {
+        while (abiertas.get() < minimo) {
+            libres.offerLast(crear());
+        }
+    }
+
+    /**
+     * Toma una conexión del pool, esperando como máximo el timeout configurado
+     * @return Connection que vuelve al pool al cerrarse
+     * @throws SQLException si se agota el tiempo de espera o no se puede conectar
+     */
+    public Connection obtener() throws SQLException {
+        if (cerrado) {
+            throw new SQLException("El pool de conexiones está cerrado");
+        }
+
+        long inicio = System.nanoTime();
+        try {
+            if (!permisos.tryAcquire(timeoutEsperaMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Tiempo de espera agotado al obtener conexión del pool (" +
+                        maximo + " conexiones en uso)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido mientras se esperaba una conexión", e);
+        }
+
+        try {
+            ConexionFisica fisica;
+            while ((fisica = libres.pollFirst()) != null) {
+                if (esValida(fisica)) {
+                    return envolver(fisica, inicio);
+                }
+                descartar(fisica);
+            }
+            return envolver(crear(), inicio);
+        } catch (SQLException | RuntimeException e) {
+            permisos.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Cierra todas las conexiones libres y rechaza nuevos préstamos
+     * Las conexiones prestadas se cierran al devolverse
+     */
+    public void cerrar() {
+        cerrado = true;
+        desalojador.shutdownNow();
+
+        ConexionFisica fisica;
+        while ((fisica = libres.pollFirst()) != null) {
+            descartar(fisica);
+        }
+    }
+
+    public int getAbiertas() {
+        return abiertas.get();
+    }
+
+    public int getLibres() {
+        return libres.size();
+    }
+
+    public int getEnUso() {
+        return maximo - permisos.availablePermits();
+    }
+
+    public boolean isCerrado() {
+        return cerrado;
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private ConexionFisica crear() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, user, password);
+        abiertas.incrementAndGet();
+        return new ConexionFisica(conn);
+    }
+
+    /**
+     * Valida la conexión solo si estuvo libre más de validarTrasMs,
+     * para no pagar un ping en cada préstamo bajo carga
+     */
+    private boolean esValida(ConexionFisica fisica) {
+        if (System.currentTimeMillis() - fisica.ultimoUso < validarTrasMs) {
+            return true;
+        }
+        try {
+            return fisica.conexion.isValid(timeoutValidacionSeg);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void descartar(ConexionFisica fisica) {
+        abiertas.decrementAndGet();
+        try {
+            fisica.conexion.close();
+        } catch (SQLException e) {
+            System.err.println("Error al cerrar conexión del pool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Recibe una conexión devuelta por un proxy, restaurando su estado
+     */
+    private void devolver(ConexionFisica fisica) {
+        try {
+            boolean sana = true;
+            try {
+                if (!fisica.conexion.getAutoCommit()) {
+                    fisica.conexion.rollback();
+                    fisica.conexion.setAutoCommit(true);
+                }
+                fisica.conexion.clearWarnings();
+            } catch (SQLException e) {
+                sana = false;
+            }
+
+            if (cerrado || !sana) {
+                descartar(fisica);
+            } else {
+                fisica.ultimoUso = System.currentTimeMillis();
+                libres.offerFirst(fisica);
+            }
+        } finally {
+            permisos.release();
+        }
+    }
+
+    /**
+     * Cierra las conexiones libres que superan el tiempo de inactividad,
+     * conservando al menos el mínimo configurado
+     */
+    private void desalojarInactivas() {
+        long limite = System.currentTimeMillis() - inactividadMaximaMs;
+
+        Iterator<ConexionFisica> it = libres.descendingIterator();
+        while (it.hasNext() && abiertas.get() > minimo) {
+            ConexionFisica fisica = it.next();
+            // Si remove falla, otro thread la tomó prestada en este instante
+            if (fisica.ultimoUso < limite && libres.remove(fisica)) {
+                descartar(fisica);
+            }
+        }
+    }
+
+    private Connection envolver(ConexionFisica fisica, long inicio) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new Prestamo(fisica, inicio));
+    }
+
+    private static class ConexionFisica {
+        final Connection conexion;
+        volatile long ultimoUso;
+
+        ConexionFisica(Connection conexion) {
+            this.conexion = conexion;
+            this.ultimoUso = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Envuelve en un Derivado los objetos JDBC que pueden llevar a la conexión física
+     * @param tipo tipo declarado por el método que devolvió el objeto
+     */
+    private static Object derivar(Object real, Class<?> tipo, Connection conexion, Statement sentencia) {
+        if (real == null || !tipo.isInterface()
+                || !(real instanceof Statement || real instanceof ResultSet || real instanceof DatabaseMetaData)) {
+            return real;
+        }
+        return Proxy.newProxyInstance(tipo.getClassLoader(), new Class<?>[] { tipo },
+                new Derivado(real, conexion, sentencia));
+    }
+
+    /**
+     * Proxy de una conexión prestada: close() la devuelve al pool una sola vez
+     * (aunque lo llamen dos threads a la vez) y suma el tiempo del préstamo
+     * (desde que se pidió) a TiempoBaseDatos
+     */
+    private class Prestamo implements InvocationHandler {
+        private final ConexionFisica fisica;
+        private final long inicio;
+        private final AtomicBoolean devuelta = new AtomicBoolean();
+
+        Prestamo(ConexionFisica fisica, long inicio) {
+            this.fisica = fisica;
+            this.inicio = inicio;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (devuelta.compareAndSet(false, true)) {
+                        devolver(fisica);
+                        TiempoBaseDatos.sumar(System.nanoTime() - inicio);
+                    }
+                    return null;
+                case "isClosed":
+                    return devuelta.get() || fisica.conexion.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Prestamo[" + fisica.conexion + "]";
+                default:
+                    if (devuelta.get()) {
+                        throw new SQLException("La conexión ya fue devuelta al pool");
+                    }
+                    try {
+                        return derivar(method.invoke(fisica.conexion, args), method.getReturnType(),
+                                       (Connection) proxy, null);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    /**
+     * Proxy de un Statement, ResultSet o DatabaseMetaData de una conexión prestada:
+     * getConnection() devuelve el préstamo y getStatement() el Statement envuelto
+     */
+    private static class Derivado implements InvocationHandler {
+        private final Object real;
+        private final Connection conexion;
+        // Statement envuelto del que salió un ResultSet; null si no salió de uno
+        private final Statement sentencia;
+
+        Derivado(Object real, Connection conexion, Statement sentencia) {
+            this.real = real;
+            this.conexion = conexion;
+            this.sentencia = sentencia;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    if (args == null) {
+                        return conexion;
+                    }
+                    break;
+                case "getStatement":
+                    if (args == null && sentencia != null) {
+                        return sentencia;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            Object resultado;
+            try {
+                resultado = method.invoke(real, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            Statement duenia = real instanceof Statement ? (Statement) proxy : sentencia;
+            return derivar(resultado, method.getReturnType(), conexion, duenia);
+        }
+    }
+}
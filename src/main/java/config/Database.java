@@ -1,26 +1,45 @@
 package config;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Clase Singleton para manejar la conexión a la base de datos MySQL
- * Proporciona una única instancia de conexión reutilizable
+ * Clase Singleton para manejar el acceso a la base de datos MySQL
+ * Las conexiones se obtienen de un pool acotado; cerrar la conexión
+ * (try-with-resources en los DAOs) la devuelve al pool
+ *
+ * Los parámetros del pool se pueden ajustar con propiedades del sistema:
+ *   db.pool.min, db.pool.max, db.pool.timeoutMs, db.pool.validarTrasMs,
+ *   db.pool.inactividadMs, db.pool.desalojoMs
  */
 public class Database {
     
     // Instancia única (Singleton)
-    private static Database instance;
+    private static volatile Database instance;
     
     // Parámetros de conexión
-    private static final String URL = "jdbc:mysql://localhost:3306/hospital_db";
-    private static final String USER = "user";
-    private static final String PASSWORD = "V7p!qT9#xL2@eR4"; // Cambiar según tu configuración
+    // rewriteBatchedStatements: los batches de INSERT viajan como una sentencia de varias filas
     private static final String DRIVER = "com.mysql.cj.jdbc.Driver";
+    private String url = System.getProperty("db.url",
+        "jdbc:mysql://localhost:3306/hospital_db?rewriteBatchedStatements=true");
+    private String user = System.getProperty("db.user", "user");
+    private String password = System.getProperty("db.password", "V7p!qT9#xL2@eR4"); // Cambiar según tu configuración
     
-    // Conexión
-    private Connection connection;
+    // Parámetros del pool
+    private static final int POOL_MIN = Integer.getInteger("db.pool.min", 2);
+    private static final int POOL_MAX = Integer.getInteger("db.pool.max", 20);
+    private static final long POOL_TIMEOUT_MS = Long.getLong("db.pool.timeoutMs", 5000);
+    private static final long POOL_VALIDAR_TRAS_MS = Long.getLong("db.pool.validarTrasMs", 500);
+    private static final int POOL_TIMEOUT_VALIDACION_SEG = 2;
+    private static final long POOL_INACTIVIDAD_MS = Long.getLong("db.pool.inactividadMs", 300_000);
+    private static final long POOL_DESALOJO_MS = Long.getLong("db.pool.desalojoMs", 60_000);
+    
+    // Pool de conexiones
+    // Se protege con ReentrantLock y no con synchronized: crear el pool abre
+    // conexiones (I/O) y un monitor fijaría el thread virtual a su carrier
+    private volatile ConnectionPool pool;
+    private final ReentrantLock lockPool = new ReentrantLock();
     
     /**
      * Constructor privado para implementar Singleton
@@ -52,48 +71,70 @@ public class Database {
     }
     
     /**
-     * Obtiene una conexión a la base de datos
-     * Si la conexión está cerrada o es nula, crea una nueva
+     * Obtiene una conexión del pool
+     * Al cerrarla se devuelve al pool en lugar de cerrar la conexión física
      * @return Connection objeto de conexión a MySQL
-     * @throws SQLException si hay error en la conexión
+     * @throws SQLException si hay error en la conexión o se agota la espera
      */
     public Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
+        return getPool().obtener();
+    }
+    
+    /**
+     * Obtiene el pool, creándolo en el primer uso
+     */
+    private ConnectionPool getPool() throws SQLException {
+        ConnectionPool actual = pool;
+        if (actual == null) {
+            lockPool.lock();
             try {
-                connection = DriverManager.getConnection(URL, USER, PASSWORD);
-                System.out.println("Conexión a base de datos establecida");
-            } catch (SQLException e) {
-                System.err.println("Error al conectar con la base de datos: " + e.getMessage());
-                throw e;
+                actual = pool;
+                if (actual == null) {
+                    actual = new ConnectionPool(url, user, password, POOL_MIN, POOL_MAX,
+                            POOL_TIMEOUT_MS, POOL_VALIDAR_TRAS_MS, POOL_TIMEOUT_VALIDACION_SEG,
+                            POOL_INACTIVIDAD_MS, POOL_DESALOJO_MS);
+                    try {
+                        actual.precargar();
+                    } catch (SQLException e) {
+                        actual.cerrar();
+                        System.err.println("Error al conectar con la base de datos: " + e.getMessage());
+                        throw e;
+                    }
+                    pool = actual;
+                    System.out.println("Pool de conexiones iniciado (min=" + POOL_MIN + ", max=" + POOL_MAX + ")");
+                }
+            } finally {
+                lockPool.unlock();
             }
         }
-        return connection;
+        return actual;
     }
     
     /**
-     * Cierra la conexión a la base de datos
+     * Cierra el pool y todas sus conexiones
      */
     public void closeConnection() {
-        if (connection != null) {
-            try {
-                connection.close();
-                System.out.println("Conexión a base de datos cerrada");
-            } catch (SQLException e) {
-                System.err.println("Error al cerrar la conexión: " + e.getMessage());
-            }
+        ConnectionPool actual;
+        lockPool.lock();
+        try {
+            actual = pool;
+            pool = null;
+        } finally {
+            lockPool.unlock();
+        }
+        if (actual != null) {
+            actual.cerrar();
+            System.out.println("Pool de conexiones cerrado");
         }
     }
     
     /**
-     * Verifica si la conexión está activa
-     * @return true si la conexión está activa, false en caso contrario
+     * Verifica si el pool está activo
+     * @return true si el pool está activo, false en caso contrario
      */
     public boolean isConnected() {
-        try {
-            return connection != null && !connection.isClosed();
-        } catch (SQLException e) {
-            return false;
-        }
+        ConnectionPool actual = pool;
+        return actual != null && !actual.isCerrado();
     }
     
     /**
@@ -101,9 +142,8 @@ public class Database {
      * @return true si la conexión es exitosa
      */
     public boolean testConnection() {
-        try {
-            Connection conn = getConnection();
-            return conn != null && !conn.isClosed();
+        try (Connection conn = getConnection()) {
+            return conn.isValid(POOL_TIMEOUT_VALIDACION_SEG);
         } catch (SQLException e) {
             System.err.println("Test de conexión fallido: " + e.getMessage());
             return false;
@@ -112,16 +152,27 @@ public class Database {
     
     /**
      * Configura los parámetros de conexión (útil para configuración dinámica)
+     * Cierra el pool actual; el siguiente getConnection() crea uno nuevo
      * @param url URL de la base de datos
      * @param user usuario de la base de datos
      * @param password contraseña de la base de datos
      */
     public void configure(String url, String user, String password) {
-        // Cerrar conexión existente si hay una
+        lockPool.lock();
+        try {
+            this.url = url;
+            this.user = user;
+            this.password = password;
+        } finally {
+            lockPool.unlock();
+        }
         closeConnection();
-        
-        // Nota: Para implementar esto correctamente, necesitarías hacer
-        // que URL, USER y PASSWORD no sean final y manejarlos de otra forma
-        System.out.println("Para configuración dinámica, modifica las constantes en el código");
     }
-}
\ No newline at end of file
+    
+    /**
+     * Obtiene el pool de conexiones activo (null si aún no se ha creado)
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+}
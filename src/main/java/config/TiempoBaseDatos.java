@@ -0,0 +1,27 @@
+package config;
+
+/**
+ * Tiempo que el thread actual tuvo prestadas conexiones del pool, desde que
+ * pidió cada una hasta que la devolvió (incluye la espera por el pool)
+ * Las métricas por acción lo reinician al empezar una solicitud y lo leen
+ * al terminarla para separar el tiempo de base de datos del resto
+ */
+public final class TiempoBaseDatos {
+
+    private static final ThreadLocal<long[]> ACUMULADO = ThreadLocal.withInitial(() -> new long[1]);
+
+    private TiempoBaseDatos() {
+    }
+
+    public static void reiniciar() {
+        ACUMULADO.get()[0] = 0;
+    }
+
+    public static long getNanos() {
+        return ACUMULADO.get()[0];
+    }
+
+    static void sumar(long nanos) {
+        ACUMULADO.get()[0] += nanos;
+    }
+}
@@ -0,0 +1,80 @@
+package dao;
+
+import config.Database;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mueve recetas entregadas de recetas/detalle_recetas a las tablas de archivo
+ * Cada lote es una transacción: se copian las recetas y sus detalles y se
+ * borran de las tablas vivas (el ON DELETE CASCADE borra los detalles)
+ */
+public class ArchivoRecetasDao {
+
+    private static final String COLUMNAS_RECETA =
+        "id, fecha_confeccion, fecha_retiro, fecha_proceso, fecha_lista, fecha_entrega, " +
+        "estado, paciente_id, medico_id, farmaceuta_id, version";
+
+    private static final String COLUMNAS_DETALLE =
+        "id, receta_id, medicamento_codigo, cantidad, indicaciones, duracion_dias";
+
+    /**
+     * Archiva hasta tamanoLote recetas entregadas antes de la fecha límite
+     * Las filas bloqueadas por otra transacción se saltan y quedan para el
+     * siguiente lote
+     * @return cantidad de recetas archivadas (menor que tamanoLote si no quedan más)
+     */
+    public int archivarLote(Timestamp entregadasAntesDe, int tamanoLote) throws SQLException {
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+
+                List<String> ids = new ArrayList<>(tamanoLote);
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id FROM recetas WHERE estado = 'entregada' AND fecha_entrega < ? " +
+                        "ORDER BY fecha_entrega LIMIT ? FOR UPDATE SKIP LOCKED")) {
+                    stmt.setTimestamp(1, entregadasAntesDe);
+                    stmt.setInt(2, tamanoLote);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getString(1));
+                        }
+                    }
+                }
+
+                if (ids.isEmpty()) {
+                    conn.commit();
+                    return 0;
+                }
+
+                String enIds = "(" + DetalleRecetaDao.marcadores(ids.size()) + ")";
+                ejecutarConIds(conn,
+                    "INSERT INTO recetas_archivo (" + COLUMNAS_RECETA + ") " +
+                    "SELECT " + COLUMNAS_RECETA + " FROM recetas WHERE id IN " + enIds, ids);
+                ejecutarConIds(conn,
+                    "INSERT INTO detalle_recetas_archivo (" + COLUMNAS_DETALLE + ") " +
+                    "SELECT " + COLUMNAS_DETALLE + " FROM detalle_recetas WHERE receta_id IN " + enIds, ids);
+                ejecutarConIds(conn, "DELETE FROM recetas WHERE id IN " + enIds, ids);
+
+                conn.commit();
+                return ids.size();
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void ejecutarConIds(Connection conn, String sql, List<String> ids) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setString(i + 1, ids.get(i));
+            }
+            stmt.executeUpdate();
+        }
+    }
+}
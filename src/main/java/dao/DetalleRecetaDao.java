@@ -3,13 +3,30 @@ package dao;
 import config.Database;
 import model.DetalleReceta;
 import model.Medicamento;
+import model.Receta;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class DetalleRecetaDao {
     
-    private MedicamentoDao medicamentoDao = new MedicamentoDao();
+    // Máximo de ids por consulta IN (...) al cargar detalles de varias recetas
+    private static final int TAMANO_LOTE_IN = 1000;
+    
+    private static final String SELECT_DETALLES = selectDetalles("detalle_recetas");
+    
+    // Detalles de recetas movidas al archivo (ver ArchivoRecetasDao)
+    private static final String SELECT_DETALLES_ARCHIVO = selectDetalles("detalle_recetas_archivo");
+    
+    private static String selectDetalles(String tabla) {
+        return "SELECT d.id, d.receta_id, d.medicamento_codigo, d.cantidad, d.indicaciones, d.duracion_dias, " +
+               "m.nombre, m.presentacion " +
+               "FROM " + tabla + " d " +
+               "JOIN medicamentos m ON m.codigo = d.medicamento_codigo AND m.estado = 'activo' ";
+    }
     
     public boolean insertar(String recetaId, DetalleReceta detalle, Connection conn) throws SQLException {
         String sql = "INSERT INTO detalle_recetas (receta_id, medicamento_codigo, cantidad, indicaciones, duracion_dias) " +
@@ -26,9 +43,37 @@ public class DetalleRecetaDao {
         }
     }
     
+    /**
+     * Inserta los detalles de todas las recetas en un solo batch JDBC
+     * Con rewriteBatchedStatements=true el driver lo envía como INSERT de
+     * varias filas (VALUES (...), (...)), en uno o pocos viajes a MySQL
+     */
+    public void insertarTodos(List<Receta> recetas, Connection conn) throws SQLException {
+        String sql = "INSERT INTO detalle_recetas (receta_id, medicamento_codigo, cantidad, indicaciones, duracion_dias) " +
+                     "VALUES (?, ?, ?, ?, ?)";
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int filas = 0;
+            for (Receta receta : recetas) {
+                for (DetalleReceta detalle : receta.getDetalles()) {
+                    stmt.setString(1, receta.getId());
+                    stmt.setString(2, detalle.getMedicamento().getCodigo());
+                    stmt.setInt(3, detalle.getCantidad());
+                    stmt.setString(4, detalle.getIndicaciones());
+                    stmt.setInt(5, detalle.getDuracionDias());
+                    stmt.addBatch();
+                    filas++;
+                }
+            }
+            if (filas > 0) {
+                stmt.executeBatch();
+            }
+        }
+    }
+    
     public List<DetalleReceta> buscarPorReceta(String recetaId) throws SQLException {
-        List<DetalleInfo> infos = new ArrayList<>();
-        String sql = "SELECT * FROM detalle_recetas WHERE receta_id = ?";
+        List<DetalleReceta> detalles = new ArrayList<>();
+        String sql = SELECT_DETALLES + "WHERE d.receta_id = ? ORDER BY d.id";
         
         try (Connection conn = Database.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -36,35 +81,90 @@ public class DetalleRecetaDao {
             stmt.setString(1, recetaId);
             ResultSet rs = stmt.executeQuery();
             
+            Map<String, Medicamento> medicamentos = new HashMap<>();
             while (rs.next()) {
-                DetalleInfo info = new DetalleInfo();
-                info.id = rs.getInt("id");
-                info.medicamentoCodigo = rs.getString("medicamento_codigo");
-                info.cantidad = rs.getInt("cantidad");
-                info.indicaciones = rs.getString("indicaciones");
-                info.duracionDias = rs.getInt("duracion_dias");
-                infos.add(info);
+                detalles.add(crearDetalleDesdeResultSet(rs, medicamentos));
             }
         }
+        return detalles;
+    }
+    
+    /**
+     * Carga los detalles de todas las recetas indicadas con consultas IN (...)
+     * y los agrega a cada receta, sin una consulta por receta ni por medicamento
+     * Los detalles cuyo medicamento está inactivo se omiten, igual que en buscarPorReceta
+     */
+    public void cargarEnRecetas(Map<String, Receta> recetas, Connection conn) throws SQLException {
+        cargarEnRecetas(recetas, conn, SELECT_DETALLES);
+    }
+    
+    /**
+     * Igual que cargarEnRecetas, para recetas de recetas_archivo
+     */
+    public void cargarEnRecetasArchivadas(Map<String, Receta> recetas, Connection conn) throws SQLException {
+        cargarEnRecetas(recetas, conn, SELECT_DETALLES_ARCHIVO);
+    }
+    
+    private void cargarEnRecetas(Map<String, Receta> recetas, Connection conn, String selectDetalles)
+            throws SQLException {
+        if (recetas.isEmpty()) {
+            return;
+        }
         
-        List<DetalleReceta> detalles = new ArrayList<>();
-        for (DetalleInfo info : infos) {
-            Medicamento medicamento = medicamentoDao.buscarPorCodigo(info.medicamentoCodigo);
-            if (medicamento != null) {
-                DetalleReceta detalle = new DetalleReceta(info.id, medicamento, info.cantidad, 
-                                                         info.indicaciones, info.duracionDias);
-                detalles.add(detalle);
+        Map<String, Medicamento> medicamentos = new HashMap<>();
+        Iterator<String> ids = recetas.keySet().iterator();
+        
+        while (ids.hasNext()) {
+            List<String> lote = new ArrayList<>(Math.min(TAMANO_LOTE_IN, recetas.size()));
+            while (ids.hasNext() && lote.size() < TAMANO_LOTE_IN) {
+                lote.add(ids.next());
+            }
+            
+            String sql = selectDetalles + "WHERE d.receta_id IN (" + marcadores(lote.size()) + ") ORDER BY d.id";
+            
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < lote.size(); i++) {
+                    stmt.setString(i + 1, lote.get(i));
+                }
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Receta receta = recetas.get(rs.getString("receta_id"));
+                        receta.agregarDetalle(crearDetalleDesdeResultSet(rs, medicamentos));
+                    }
+                }
             }
         }
-        
-        return detalles;
     }
     
-    private static class DetalleInfo {
-        int id;
-        String medicamentoCodigo;
-        int cantidad;
-        String indicaciones;
-        int duracionDias;
+    /**
+     * Genera "?, ?, ..., ?" para una lista IN de n elementos
+     */
+    static String marcadores(int n) {
+        StringBuilder sb = new StringBuilder(n * 3);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Crea un DetalleReceta desde una fila de SELECT_DETALLES,
+     * reutilizando una sola instancia de Medicamento por código
+     */
+    private DetalleReceta crearDetalleDesdeResultSet(ResultSet rs, Map<String, Medicamento> medicamentos) 
+            throws SQLException {
+        String codigo = rs.getString("medicamento_codigo");
+        Medicamento medicamento = medicamentos.get(codigo);
+        if (medicamento == null) {
+            medicamento = new Medicamento(codigo, rs.getString("nombre"), rs.getString("presentacion"));
+            medicamentos.put(codigo, medicamento);
+        }
+        
+        return new DetalleReceta(rs.getInt("id"), medicamento, rs.getInt("cantidad"),
+                                 rs.getString("indicaciones"), rs.getInt("duracion_dias"));
     }
-}
\ No newline at end of file
+}
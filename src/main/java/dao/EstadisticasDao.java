@@ -0,0 +1,78 @@
+package dao;
+
+import config.Database;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consultas de agregación para sembrar las estadísticas en memoria
+ * Se usan una sola vez al iniciar: recorren recetas y detalle_recetas completas,
+ * junto con sus tablas de archivo
+ */
+public class EstadisticasDao {
+    
+    /**
+     * Los cuatro agregados, leídos de la misma instantánea de la base
+     */
+    public record Conteos(Map<String, Long> porEstado, Map<String, Long> porMedico,
+                          Map<String, Long> unidadesPorMedicamento, Map<String, Long> porDia) {
+    }
+    
+    // Recetas vivas y archivadas, con las columnas que usan los conteos
+    private static final String TODAS_LAS_RECETAS =
+        "(SELECT estado, medico_id, fecha_confeccion FROM recetas UNION ALL " +
+        "SELECT estado, medico_id, fecha_confeccion FROM recetas_archivo) r";
+    
+    /**
+     * Calcula los conteos en una sola transacción de lectura REPEATABLE READ:
+     * las cuatro consultas ven la misma instantánea (recetas por estado, por
+     * médico, unidades por medicamento y recetas por día "yyyy-MM-dd")
+     */
+    public Conteos contarTodo() throws SQLException {
+        try (Connection conn = Database.getInstance().getConnection()) {
+            int aislamiento = conn.getTransactionIsolation();
+            try {
+                conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                conn.setReadOnly(true);
+                conn.setAutoCommit(false);
+                
+                Conteos conteos = new Conteos(
+                    agrupar(conn, "SELECT estado, COUNT(*) FROM " + TODAS_LAS_RECETAS + " GROUP BY estado"),
+                    agrupar(conn, "SELECT medico_id, COUNT(*) FROM " + TODAS_LAS_RECETAS + " GROUP BY medico_id"),
+                    agrupar(conn, "SELECT medicamento_codigo, SUM(cantidad) FROM (" +
+                                  "SELECT medicamento_codigo, cantidad FROM detalle_recetas UNION ALL " +
+                                  "SELECT medicamento_codigo, cantidad FROM detalle_recetas_archivo) d " +
+                                  "GROUP BY medicamento_codigo"),
+                    agrupar(conn, "SELECT DATE_FORMAT(fecha_confeccion, '%Y-%m-%d') AS dia, COUNT(*) " +
+                                  "FROM " + TODAS_LAS_RECETAS + " GROUP BY dia"));
+                conn.commit();
+                return conteos;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                conn.setReadOnly(false);
+                conn.setTransactionIsolation(aislamiento);
+            }
+        }
+    }
+    
+    /**
+     * Ejecuta una consulta de dos columnas (clave, valor) y la devuelve como mapa
+     */
+    private Map<String, Long> agrupar(Connection conn, String sql) throws SQLException {
+        Map<String, Long> resultado = new HashMap<>();
+        
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            
+            while (rs.next()) {
+                resultado.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,337 @@
+package dao;
+
+import config.Database;
+import model.CambioEstado;
+import model.Receta;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Acceso a las tablas de histórico (agregados diarios)
+ *   - historico_estado_dia: recetas que entraron a cada estado por día
+ *   - historico_medicamento_dia: unidades entregadas por medicamento por día
+ *   - historico_medico_dia: recetas confeccionadas por médico por día
+ *
+ * Las consultas por rango leen una fila por día (y clave), nunca recetas
+ */
+public class HistoricoDao {
+
+    /**
+     * Granularidad de los períodos de una consulta por rango
+     */
+    public enum Agrupacion {
+        DIA("DATE_FORMAT(dia, '%Y-%m-%d')"),
+        MES("DATE_FORMAT(dia, '%Y-%m')"),
+        TRIMESTRE("CONCAT(YEAR(dia), '-T', QUARTER(dia))"),
+        ANIO("CAST(YEAR(dia) AS CHAR)");
+
+        private final String expresion;
+
+        Agrupacion(String expresion) {
+            this.expresion = expresion;
+        }
+
+        public static Agrupacion desde(String nombre) {
+            switch (nombre.toLowerCase()) {
+                case "dia":
+                    return DIA;
+                case "mes":
+                    return MES;
+                case "trimestre":
+                    return TRIMESTRE;
+                case "anio":
+                case "año":
+                    return ANIO;
+                default:
+                    throw new IllegalArgumentException("Agrupación desconocida: " + nombre);
+            }
+        }
+    }
+
+    private static final String SUMAR_ESTADO =
+        "INSERT INTO historico_estado_dia (dia, estado, recetas) VALUES (?, ?, 1) " +
+        "ON DUPLICATE KEY UPDATE recetas = recetas + 1";
+
+    private static final String SUMAR_MEDICO =
+        "INSERT INTO historico_medico_dia (dia, medico_id, recetas) VALUES (?, ?, 1) " +
+        "ON DUPLICATE KEY UPDATE recetas = recetas + 1";
+
+    private static final String SUMAR_ENTREGA =
+        "INSERT INTO historico_medicamento_dia (dia, medicamento_codigo, unidades, recetas) " +
+        "SELECT ?, medicamento_codigo, SUM(cantidad), COUNT(DISTINCT receta_id) " +
+        "FROM detalle_recetas WHERE receta_id = ? GROUP BY medicamento_codigo " +
+        "ON DUPLICATE KEY UPDATE unidades = historico_medicamento_dia.unidades + VALUES(unidades), " +
+        "recetas = historico_medicamento_dia.recetas + VALUES(recetas)";
+
+    // ==================== MANTENIMIENTO INCREMENTAL ====================
+
+    /**
+     * Suma una receta recién creada a los agregados de su día de confección
+     */
+    public void registrarCreacion(Receta receta, LocalDate dia) throws SQLException {
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+
+                try (PreparedStatement stmt = conn.prepareStatement(SUMAR_ESTADO)) {
+                    stmt.setDate(1, Date.valueOf(dia));
+                    stmt.setString(2, receta.getEstado());
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(SUMAR_MEDICO)) {
+                    stmt.setDate(1, Date.valueOf(dia));
+                    stmt.setString(2, receta.getMedicoId());
+                    stmt.executeUpdate();
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Suma las transiciones a los agregados del día en que ocurrieron;
+     * las entregas suman además las unidades de cada medicamento
+     * @param dias día de cada cambio, en el mismo orden
+     */
+    public void registrarCambios(List<CambioEstado> cambios, List<LocalDate> dias) throws SQLException {
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+
+                try (PreparedStatement estado = conn.prepareStatement(SUMAR_ESTADO);
+                     PreparedStatement entrega = conn.prepareStatement(SUMAR_ENTREGA)) {
+
+                    for (int i = 0; i < cambios.size(); i++) {
+                        CambioEstado cambio = cambios.get(i);
+                        Date dia = Date.valueOf(dias.get(i));
+
+                        estado.setDate(1, dia);
+                        estado.setString(2, cambio.getEstadoNuevo());
+                        estado.addBatch();
+
+                        if ("entregada".equals(cambio.getEstadoNuevo())) {
+                            entrega.setDate(1, dia);
+                            entrega.setString(2, cambio.getRecetaId());
+                            entrega.addBatch();
+                        }
+                    }
+                    estado.executeBatch();
+                    entrega.executeBatch();
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // ==================== RECÁLCULO (BACKFILL) ====================
+
+    /**
+     * Indica si las tablas de histórico no tienen ninguna fila
+     */
+    public boolean estaVacio() throws SQLException {
+        String sql = "SELECT EXISTS (SELECT 1 FROM historico_estado_dia) " +
+                     "OR EXISTS (SELECT 1 FROM historico_medico_dia)";
+
+        try (Connection conn = Database.getInstance().getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return !rs.next() || !rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Primer y último día con recetas, o null si no hay recetas
+     */
+    public LocalDate[] rangoRecetas() throws SQLException {
+        String sql = "SELECT MIN(DATE(fecha_confeccion)), " +
+                     "GREATEST(MAX(DATE(fecha_confeccion)), COALESCE(MAX(DATE(fecha_entrega)), '1000-01-01')) " +
+                     "FROM " + vivasYArchivo("SELECT fecha_confeccion, fecha_entrega FROM {r}");
+
+        try (Connection conn = Database.getInstance().getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            if (rs.next() && rs.getDate(1) != null) {
+                return new LocalDate[] { rs.getDate(1).toLocalDate(), rs.getDate(2).toLocalDate() };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recalcula desde recetas y detalle_recetas (y sus tablas de archivo) los
+     * agregados de los días [desde, hasta], reemplazando lo que hubiera, en una
+     * sola transacción
+     * Las transiciones que ocurran en esos días mientras corre pueden contarse
+     * dos veces: conviene recalcular días ya cerrados
+     */
+    public void recalcular(LocalDate desde, LocalDate hasta) throws SQLException {
+        Date inicio = Date.valueOf(desde);
+        Date fin = Date.valueOf(hasta);
+        // Límite exclusivo para comparar timestamps sin aplicar DATE() sobre la columna
+        Timestamp tsInicio = Timestamp.valueOf(desde.atStartOfDay());
+        Timestamp tsFin = Timestamp.valueOf(hasta.plusDays(1).atStartOfDay());
+
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+
+                for (String tabla : new String[] {
+                        "historico_estado_dia", "historico_medicamento_dia", "historico_medico_dia" }) {
+                    try (PreparedStatement stmt = conn.prepareStatement(
+                            "DELETE FROM " + tabla + " WHERE dia BETWEEN ? AND ?")) {
+                        stmt.setDate(1, inicio);
+                        stmt.setDate(2, fin);
+                        stmt.executeUpdate();
+                    }
+                }
+
+                // Un estado por columna de fecha: cuenta la entrada a cada estado en su día
+                String[][] estados = {
+                    { "confeccionada", "fecha_confeccion" },
+                    { "proceso", "fecha_proceso" },
+                    { "lista", "fecha_lista" },
+                    { "entregada", "fecha_entrega" }
+                };
+                for (String[] estado : estados) {
+                    ejecutarRango(conn,
+                        "INSERT INTO historico_estado_dia (dia, estado, recetas) " +
+                        "SELECT DATE(fecha), '" + estado[0] + "', COUNT(*) FROM " +
+                        vivasYArchivo("SELECT " + estado[1] + " AS fecha FROM {r} " +
+                                      "WHERE " + estado[1] + " >= ? AND " + estado[1] + " < ?") + " " +
+                        "GROUP BY DATE(fecha)",
+                        tsInicio, tsFin);
+                }
+
+                ejecutarRango(conn,
+                    "INSERT INTO historico_medico_dia (dia, medico_id, recetas) " +
+                    "SELECT DATE(fecha_confeccion), medico_id, COUNT(*) FROM " +
+                    vivasYArchivo("SELECT fecha_confeccion, medico_id FROM {r} " +
+                                  "WHERE fecha_confeccion >= ? AND fecha_confeccion < ?") + " " +
+                    "GROUP BY DATE(fecha_confeccion), medico_id",
+                    tsInicio, tsFin);
+
+                ejecutarRango(conn,
+                    "INSERT INTO historico_medicamento_dia (dia, medicamento_codigo, unidades, recetas) " +
+                    "SELECT DATE(fecha_entrega), medicamento_codigo, SUM(cantidad), COUNT(DISTINCT id) FROM " +
+                    vivasYArchivo("SELECT r.id, r.fecha_entrega, d.medicamento_codigo, d.cantidad " +
+                                  "FROM {r} r JOIN {d} d ON d.receta_id = r.id " +
+                                  "WHERE r.fecha_entrega >= ? AND r.fecha_entrega < ?") + " " +
+                    "GROUP BY DATE(fecha_entrega), medicamento_codigo",
+                    tsInicio, tsFin);
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // ==================== CONSULTAS POR RANGO ====================
+
+    /**
+     * Recetas que entraron a cada estado, por período
+     */
+    public Map<String, Map<String, Long>> consultarEstados(LocalDate desde, LocalDate hasta,
+                                                           Agrupacion agrupacion) throws SQLException {
+        return consultar("historico_estado_dia", "estado", "recetas", desde, hasta, agrupacion, null);
+    }
+
+    /**
+     * Unidades entregadas de cada medicamento, por período
+     * @param medicamentoCodigo limita a un medicamento, o null para todos
+     */
+    public Map<String, Map<String, Long>> consultarMedicamentos(LocalDate desde, LocalDate hasta,
+                                                                Agrupacion agrupacion,
+                                                                String medicamentoCodigo) throws SQLException {
+        return consultar("historico_medicamento_dia", "medicamento_codigo", "unidades",
+                         desde, hasta, agrupacion, medicamentoCodigo);
+    }
+
+    /**
+     * Recetas confeccionadas por cada médico, por período
+     * @param medicoId limita a un médico, o null para todos
+     */
+    public Map<String, Map<String, Long>> consultarMedicos(LocalDate desde, LocalDate hasta,
+                                                           Agrupacion agrupacion,
+                                                           String medicoId) throws SQLException {
+        return consultar("historico_medico_dia", "medico_id", "recetas",
+                         desde, hasta, agrupacion, medicoId);
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    /**
+     * La misma consulta sobre las tablas vivas y las de archivo, unidas como tabla derivada t
+     * En la consulta, {r} es la tabla de recetas y {d} la de detalles
+     */
+    private static String vivasYArchivo(String sql) {
+        return "(" + sql.replace("{r}", "recetas").replace("{d}", "detalle_recetas") + " UNION ALL " +
+               sql.replace("{r}", "recetas_archivo").replace("{d}", "detalle_recetas_archivo") + ") t";
+    }
+
+    /**
+     * Ejecuta una sentencia cuyos parámetros son pares (inicio, fin), uno por tabla consultada
+     */
+    private void ejecutarRango(Connection conn, String sql, Timestamp inicio, Timestamp fin) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int parametros = (int) sql.chars().filter(c -> c == '?').count();
+            for (int i = 1; i <= parametros; i++) {
+                stmt.setTimestamp(i, i % 2 == 1 ? inicio : fin);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Suma una columna de una tabla de histórico agrupando por período y clave
+     * @return período -> (clave -> total), ordenado por período
+     */
+    private Map<String, Map<String, Long>> consultar(String tabla, String columnaClave, String columnaValor,
+                                                     LocalDate desde, LocalDate hasta,
+                                                     Agrupacion agrupacion, String clave) throws SQLException {
+        String sql = "SELECT " + agrupacion.expresion + " AS periodo, " + columnaClave + ", " +
+                     "SUM(" + columnaValor + ") FROM " + tabla + " " +
+                     "WHERE dia BETWEEN ? AND ? " +
+                     (clave != null ? "AND " + columnaClave + " = ? " : "") +
+                     "GROUP BY periodo, " + columnaClave;
+
+        Map<String, Map<String, Long>> resultado = new TreeMap<>();
+
+        try (Connection conn = Database.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setDate(1, Date.valueOf(desde));
+            stmt.setDate(2, Date.valueOf(hasta));
+            if (clave != null) {
+                stmt.setString(3, clave);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    resultado.computeIfAbsent(rs.getString(1), k -> new HashMap<>())
+                             .put(rs.getString(2), rs.getLong(3));
+                }
+            }
+        }
+        return resultado;
+    }
+}
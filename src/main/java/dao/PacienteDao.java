@@ -90,6 +90,39 @@ public class PacienteDao {
         return pacientes;
     }
 
+    /**
+     * Página de pacientes ACTIVOS ordenados por ID (keyset sobre la clave primaria)
+     * @param despuesId último ID de la página anterior, o null para la primera página
+     */
+    public List<Paciente> listarPagina(String despuesId, int limite) throws SQLException {
+        List<Paciente> pacientes = new ArrayList<>();
+        String sql = "SELECT * FROM pacientes WHERE estado = 'activo' " +
+                     (despuesId != null ? "AND id > ? " : "") +
+                     "ORDER BY id LIMIT ?";
+        
+        try (Connection conn = Database.getInstance().getConnection();
+            PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            int i = 1;
+            if (despuesId != null) {
+                stmt.setString(i++, despuesId);
+            }
+            stmt.setInt(i, limite);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String id = rs.getString("id");
+                    String nombre = rs.getString("nombre");
+                    java.util.Date fechaNacimiento = new java.util.Date(rs.getDate("fecha_nacimiento").getTime());
+                    String telefono = rs.getString("telefono");
+                    
+                    pacientes.add(new Paciente(id, nombre, fechaNacimiento, telefono));
+                }
+            }
+        }
+        return pacientes;
+    }
+
     /**
      * Desactiva un paciente (no lo elimina fisicamente)
      */
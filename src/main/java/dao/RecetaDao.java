@@ -4,39 +4,114 @@ import config.Database;
 import model.*;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class RecetaDao {
     
+    // Recetas junto con su paciente (ACTIVO o INACTIVO, para el histórico)
+    private static final String SELECT_RECETAS = selectRecetas("recetas", false);
+    
+    // Recetas entregadas movidas al archivo (ver ArchivoRecetasDao)
+    private static final String SELECT_RECETAS_ARCHIVO = selectRecetas("recetas_archivo", true);
+    
+    // Orden de los listados sobre las columnas del resultado (vale también tras un UNION)
+    private static final String ORDEN_RECIENTES = "ORDER BY fecha_confeccion DESC, id DESC";
+    
+    // Recetas por transacción en insertarVarias
+    private static final int TAMANO_LOTE_IMPORTACION = 500;
+    
     private DetalleRecetaDao detalleDao = new DetalleRecetaDao();
-    private PacienteDao pacienteDao = new PacienteDao();
+    
+    // Observadores de recetas creadas y cambios de estado (estadísticas, históricos...)
+    private final List<RecetaListener> listeners = new CopyOnWriteArrayList<>();
+    
+    public void agregarListener(RecetaListener listener) {
+        listeners.add(listener);
+    }
     
     public boolean insertar(Receta receta) throws SQLException {
-        String sql = "INSERT INTO recetas (id, fecha_confeccion, fecha_retiro, estado, paciente_id, medico_id) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
+        try (Connection conn = Database.getInstance().getConnection()) {
+            insertarEnTransaccion(List.of(receta), conn);
+        }
+        notificarCreada(receta);
+        return true;
+    }
+    
+    /**
+     * Inserta muchas recetas (importaciones), agrupadas de a TAMANO_LOTE_IMPORTACION
+     * por transacción. Si un grupo falla se revierte solo ese grupo y se
+     * lanza la excepción; los grupos anteriores quedan confirmados
+     * @return cantidad de recetas insertadas
+     */
+    public int insertarVarias(List<Receta> recetas) throws SQLException {
+        int insertadas = 0;
         
-        Connection conn = Database.getInstance().getConnection();
+        try (Connection conn = Database.getInstance().getConnection()) {
+            for (int inicio = 0; inicio < recetas.size(); inicio += TAMANO_LOTE_IMPORTACION) {
+                List<Receta> grupo = recetas.subList(inicio,
+                        Math.min(recetas.size(), inicio + TAMANO_LOTE_IMPORTACION));
+                
+                insertarEnTransaccion(grupo, conn);
+                insertadas += grupo.size();
+                
+                for (Receta receta : grupo) {
+                    notificarCreada(receta);
+                }
+            }
+        }
+        return insertadas;
+    }
+    
+    /**
+     * Inserta recetas y detalles en una transacción, con un batch JDBC para
+     * las recetas y otro para todos sus detalles (dos viajes con
+     * rewriteBatchedStatements=true, sin importar cuántas líneas tengan)
+     * Las recetas entran con versión 0 y al final se les pone la versión de
+     * la transacción (ver siguienteVersion)
+     */
+    private void insertarEnTransaccion(List<Receta> recetas, Connection conn) throws SQLException {
+        String sql = "INSERT INTO recetas (id, fecha_confeccion, fecha_retiro, estado, paciente_id, medico_id, version) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, 0)";
         
         try {
             conn.setAutoCommit(false);
             
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, receta.getId());
-                stmt.setTimestamp(2, new Timestamp(receta.getFechaConfeccion().getTime()));
-                stmt.setTimestamp(3, new Timestamp(receta.getFechaRetiro().getTime()));
-                stmt.setString(4, receta.getEstado());
-                stmt.setString(5, receta.getPaciente().getId());
-                stmt.setString(6, receta.getMedicoId());
-                
-                stmt.executeUpdate();
+                for (Receta receta : recetas) {
+                    stmt.setString(1, receta.getId());
+                    stmt.setTimestamp(2, new Timestamp(receta.getFechaConfeccion().getTime()));
+                    stmt.setTimestamp(3, new Timestamp(receta.getFechaRetiro().getTime()));
+                    stmt.setString(4, receta.getEstado());
+                    stmt.setString(5, receta.getPaciente().getId());
+                    stmt.setString(6, receta.getMedicoId());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
             }
             
-            for (DetalleReceta detalle : receta.getDetalles()) {
-                detalleDao.insertar(receta.getId(), detalle, conn);
+            detalleDao.insertarTodos(recetas, conn);
+            
+            List<String> ids = new ArrayList<>(recetas.size());
+            for (Receta receta : recetas) {
+                ids.add(receta.getId());
+            }
+            long version = siguienteVersion(conn);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "UPDATE recetas SET version = ? WHERE id IN (" + DetalleRecetaDao.marcadores(ids.size()) + ")")) {
+                stmt.setLong(1, version);
+                for (int i = 0; i < ids.size(); i++) {
+                    stmt.setString(i + 2, ids.get(i));
+                }
+                stmt.executeUpdate();
             }
             
             conn.commit();
-            return true;
             
         } catch (SQLException e) {
             conn.rollback();
@@ -46,160 +121,503 @@ public class RecetaDao {
         }
     }
     
+    /**
+     * Busca la receta en la tabla viva y, si no está, en el archivo
+     */
     public Receta buscarPorId(String id) throws SQLException {
-        String sql = "SELECT * FROM recetas WHERE id = ?";
-        
-        String recetaId = null;
-        java.util.Date fechaConfeccion = null;
-        java.util.Date fechaRetiro = null;
-        String pacienteId = null;
-        String medicoId = null;
-        String estado = null;
-        java.util.Date fechaProceso = null;
-        java.util.Date fechaLista = null;
-        java.util.Date fechaEntrega = null;
+        List<Receta> recetas = cargarRecetas("WHERE r.id = ?", id);
+        if (recetas.isEmpty()) {
+            recetas = cargarRecetasSql(SELECT_RECETAS_ARCHIVO + "WHERE r.id = ?", id);
+        }
+        return recetas.isEmpty() ? null : recetas.get(0);
+    }
+    
+    /**
+     * Transición compare-and-set: cada receta pasa al nuevo estado solo si
+     * sigue en el estado esperado. Un único SELECT ... FOR UPDATE sobre todos
+     * los ids bloquea y devuelve las que siguen en el estado esperado (si otra
+     * transacción la está cambiando, espera su commit y la ve ya cambiada) y
+     * un único UPDATE las pasa al nuevo estado con la versión de la transacción
+     * @param ids ids de las recetas (a lo sumo unos miles: van en un IN (...))
+     * @param farmaceutaId farmaceuta que toma las recetas, o null para conservar el actual
+     * @return ids que efectivamente cambiaron de estado; los demás perdieron la carrera o no existen
+     */
+    public List<String> transicionar(List<String> ids, String estadoEsperado, String nuevoEstado,
+                                     String farmaceutaId) throws SQLException {
+        List<String> ganadas = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return ganadas;
+        }
         
-        try (Connection conn = Database.getInstance().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, id);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                recetaId = rs.getString("id");
-                fechaConfeccion = new java.util.Date(rs.getTimestamp("fecha_confeccion").getTime());
-                fechaRetiro = new java.util.Date(rs.getTimestamp("fecha_retiro").getTime());
-                pacienteId = rs.getString("paciente_id");
-                medicoId = rs.getString("medico_id");
-                estado = rs.getString("estado");
-                
-                Timestamp tsProceso = rs.getTimestamp("fecha_proceso");
-                if (tsProceso != null) {
-                    fechaProceso = new java.util.Date(tsProceso.getTime());
+        String columnaFecha = columnaFechaEstado(nuevoEstado);
+        Timestamp ahora = new Timestamp(System.currentTimeMillis());
+        
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+                
+                Set<String> enEstado = new HashSet<>();
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id FROM recetas WHERE id IN (" + DetalleRecetaDao.marcadores(ids.size()) + ") " +
+                        "AND estado = ? FOR UPDATE")) {
+                    int i = 1;
+                    for (String id : ids) {
+                        stmt.setString(i++, id);
+                    }
+                    stmt.setString(i, estadoEsperado);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            enEstado.add(rs.getString(1));
+                        }
+                    }
+                }
+                // En el orden pedido
+                for (String id : ids) {
+                    if (enEstado.remove(id)) {
+                        ganadas.add(id);
+                    }
                 }
                 
-                Timestamp tsLista = rs.getTimestamp("fecha_lista");
-                if (tsLista != null) {
-                    fechaLista = new java.util.Date(tsLista.getTime());
+                if (ganadas.isEmpty()) {
+                    conn.rollback();
+                    return ganadas;
                 }
                 
-                Timestamp tsEntrega = rs.getTimestamp("fecha_entrega");
-                if (tsEntrega != null) {
-                    fechaEntrega = new java.util.Date(tsEntrega.getTime());
+                long version = siguienteVersion(conn);
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE recetas SET estado = ?, version = ?, farmaceuta_id = COALESCE(?, farmaceuta_id)" +
+                        (columnaFecha != null ? ", " + columnaFecha + " = ?" : "") +
+                        " WHERE id IN (" + DetalleRecetaDao.marcadores(ganadas.size()) + ")")) {
+                    int i = 1;
+                    stmt.setString(i++, nuevoEstado);
+                    stmt.setLong(i++, version);
+                    stmt.setString(i++, farmaceutaId);
+                    if (columnaFecha != null) {
+                        stmt.setTimestamp(i++, ahora);
+                    }
+                    for (String id : ganadas) {
+                        stmt.setString(i++, id);
+                    }
+                    stmt.executeUpdate();
                 }
-            } else {
-                return null;
+                
+                conn.commit();
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         }
         
-        Paciente paciente = pacienteDao.buscarPorIdSinFiltro(pacienteId);
-        if (paciente == null) {
-            return null;
+        notificarTransiciones(ganadas, estadoEsperado, nuevoEstado, ahora, farmaceutaId);
+        return ganadas;
+    }
+    
+    /**
+     * Reclama las "cantidad" recetas confeccionadas más antiguas para un
+     * farmaceuta y las pasa a proceso. SKIP LOCKED salta las filas que otro
+     * farmaceuta está reclamando en ese momento, así cada uno recibe un lote
+     * disjunto sin esperar a los demás
+     * @return las recetas reclamadas, completas y ya en estado proceso
+     */
+    public List<Receta> reclamarSiguientes(String farmaceutaId, int cantidad) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        Timestamp ahora = new Timestamp(System.currentTimeMillis());
+        
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+                
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id FROM recetas WHERE estado = 'confeccionada' " +
+                        "ORDER BY fecha_confeccion, id LIMIT ? FOR UPDATE SKIP LOCKED")) {
+                    stmt.setInt(1, cantidad);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getString("id"));
+                        }
+                    }
+                }
+                
+                if (ids.isEmpty()) {
+                    conn.rollback();
+                    return new ArrayList<>();
+                }
+                
+                long version = siguienteVersion(conn);
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE recetas SET estado = 'proceso', fecha_proceso = ?, farmaceuta_id = ?, version = ? " +
+                        "WHERE id IN (" + DetalleRecetaDao.marcadores(ids.size()) + ")")) {
+                    stmt.setTimestamp(1, ahora);
+                    stmt.setString(2, farmaceutaId);
+                    stmt.setLong(3, version);
+                    for (int i = 0; i < ids.size(); i++) {
+                        stmt.setString(i + 4, ids.get(i));
+                    }
+                    stmt.executeUpdate();
+                }
+                
+                conn.commit();
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         }
         
-        Receta receta = new Receta(recetaId, fechaConfeccion, fechaRetiro, paciente);
-        receta.setEstado(estado);
-        receta.setMedicoId(medicoId);
+        notificarTransiciones(ids, "confeccionada", "proceso", ahora, farmaceutaId);
+        return cargarRecetas("WHERE r.id IN (" + DetalleRecetaDao.marcadores(ids.size()) + ") " +
+                             "ORDER BY r.fecha_confeccion, r.id", ids.toArray());
+    }
+    
+    /**
+     * Estado actual de cada receta, sin bloquear (para informar carreras perdidas)
+     * @return id -> estado; las que no existen no aparecen
+     */
+    public Map<String, String> leerEstados(List<String> ids) throws SQLException {
+        Map<String, String> estados = new HashMap<>();
+        if (ids.isEmpty()) {
+            return estados;
+        }
         
-        if (fechaProceso != null) {
-            receta.setFechaProceso(fechaProceso);
+        String sql = "SELECT id, estado FROM recetas WHERE id IN (" + DetalleRecetaDao.marcadores(ids.size()) + ")";
+        try (Connection conn = Database.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setString(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    estados.put(rs.getString("id"), rs.getString("estado"));
+                }
+            }
         }
-        if (fechaLista != null) {
-            receta.setFechaLista(fechaLista);
+        return estados;
+    }
+    
+    private void notificarTransiciones(List<String> ids, String estadoAnterior, String nuevoEstado,
+                                       Timestamp fecha, String farmaceutaId) {
+        if (ids.isEmpty() || estadoAnterior.equals(nuevoEstado)) {
+            return;
         }
-        if (fechaEntrega != null) {
-            receta.setFechaEntrega(fechaEntrega);
+        List<CambioEstado> cambios = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            cambios.add(new CambioEstado(id, estadoAnterior, nuevoEstado, fecha, farmaceutaId));
         }
-        
-        List<DetalleReceta> detalles = detalleDao.buscarPorReceta(recetaId);
-        receta.setDetalles(detalles);
-        
-        return receta;
+        notificarCambios(cambios);
     }
     
-    public boolean actualizarEstado(String id, String nuevoEstado) throws SQLException {
-        String sql = "UPDATE recetas SET estado = ?, ";
-        
-        switch (nuevoEstado) {
+    /**
+     * Columna con la fecha en que la receta entró al estado, o null si no tiene
+     */
+    private static String columnaFechaEstado(String estado) {
+        switch (estado) {
             case "proceso":
-                sql += "fecha_proceso = ? ";
-                break;
+                return "fecha_proceso";
             case "lista":
-                sql += "fecha_lista = ? ";
-                break;
+                return "fecha_lista";
             case "entregada":
-                sql += "fecha_entrega = ? ";
-                break;
+                return "fecha_entrega";
             default:
-                sql += "estado = estado ";
+                return null;
         }
-        
-        sql += "WHERE id = ?";
-        
-        try (Connection conn = Database.getInstance().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, nuevoEstado);
-            
-            if (!nuevoEstado.equals("confeccionada")) {
-                stmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-                stmt.setString(3, id);
-            } else {
-                stmt.setString(2, id);
+    }
+    
+    /**
+     * Toma la siguiente versión de cambios de recetas, dentro de la transacción de conn
+     * El UPDATE bloquea la fila del contador hasta el commit: las transacciones
+     * que cambian recetas se confirman en orden de versión, así quien leyó hasta
+     * la versión V no puede perder después un cambio con versión menor
+     *
+     * Por eso se toma al final, con las filas de recetas ya bloqueadas o
+     * insertadas, y solo la sigue el UPDATE que pone la versión en esas filas:
+     * el contador, que comparten todas las escrituras, queda bloqueado lo que
+     * tarda ese UPDATE y el commit. Quien lo tiene no pide más locks que los
+     * de sus propias filas, así que tampoco hay deadlocks
+     */
+    private static long siguienteVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE secuencias SET valor = LAST_INSERT_ID(valor + 1) WHERE nombre = 'recetas'");
+            try (ResultSet rs = stmt.executeQuery("SELECT LAST_INSERT_ID()")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+    
+    /**
+     * Recetas cambiadas después de una versión, para sincronizar una lista por deltas
+     * @param recetas creadas o cambiadas después de la versión (del estado pedido, si hay)
+     * @param removidas ids que cambiaron a otro estado; solo con estado y desdeVersion &gt; 0
+     * @param version marca de agua: la versión confirmada más alta al leer
+     */
+    public record Cambios(List<Receta> recetas, List<String> removidas, long version) {
+    }
+    
+    /**
+     * Lee en una sola instantánea (REPEATABLE READ) la versión actual y las
+     * recetas con versión mayor a desdeVersion, en orden de versión
+     * Como los listados, incluye las archivadas: archivar conserva la versión,
+     * así que una receta archivada no vuelve a aparecer en los deltas, y una
+     * entregada que se archivó antes de sincronizar igual llega (o se informa
+     * removida de las listas de otros estados)
+     * @param estado estado de la lista a sincronizar, o null para todas
+     * @param desdeVersion marca de la última sincronización; 0 pide la lista completa
+     */
+    public Cambios listarCambios(String estado, long desdeVersion) throws SQLException {
+        try (Connection conn = Database.getInstance().getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+                
+                long version;
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT valor FROM secuencias WHERE nombre = 'recetas'")) {
+                    version = rs.next() ? rs.getLong(1) : 0;
+                }
+                
+                List<Receta> recetas;
+                List<String> removidas = new ArrayList<>();
+                if (estado == null) {
+                    recetas = cargarRecetas(conn, conArchivo("WHERE r.version > ? ", "ORDER BY version, id"),
+                                            desdeVersion, desdeVersion);
+                } else if (incluyeArchivo(estado)) {
+                    recetas = cargarRecetas(conn, conArchivo("WHERE r.estado = ? AND r.version > ? ",
+                                                             "ORDER BY version, id"),
+                                            estado, desdeVersion, estado, desdeVersion);
+                } else {
+                    recetas = cargarRecetas(conn, SELECT_RECETAS +
+                                            "WHERE r.estado = ? AND r.version > ? ORDER BY r.version, r.id",
+                                            estado, desdeVersion);
+                }
+                if (estado != null && desdeVersion > 0) {
+                    try (PreparedStatement stmt = conn.prepareStatement(
+                            "SELECT id, version FROM recetas WHERE version > ? AND estado <> ? " +
+                            "UNION ALL " +
+                            "SELECT id, version FROM recetas_archivo WHERE version > ? AND estado <> ? " +
+                            "ORDER BY version, id")) {
+                        stmt.setLong(1, desdeVersion);
+                        stmt.setString(2, estado);
+                        stmt.setLong(3, desdeVersion);
+                        stmt.setString(4, estado);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                removidas.add(rs.getString(1));
+                            }
+                        }
+                    }
+                }
+                
+                conn.commit();
+                return new Cambios(recetas, removidas, version);
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
-            
-            return stmt.executeUpdate() > 0;
         }
     }
     
+    /**
+     * Todas las recetas, vivas y archivadas
+     */
     public List<Receta> listarTodas() throws SQLException {
-        List<String> ids = new ArrayList<>();
-        String sql = "SELECT id FROM recetas ORDER BY fecha_confeccion DESC";
+        return cargarRecetasSql(conArchivo("", ORDEN_RECIENTES));
+    }
+    
+    /**
+     * Recetas en el estado; las entregadas incluyen las archivadas
+     */
+    public List<Receta> listarPorEstado(String estado) throws SQLException {
+        if (incluyeArchivo(estado)) {
+            return cargarRecetasSql(conArchivo("WHERE r.estado = ? ", ORDEN_RECIENTES), estado, estado);
+        }
+        return cargarRecetas("WHERE r.estado = ? ORDER BY r.fecha_confeccion DESC, r.id DESC", estado);
+    }
+    
+    /**
+     * Página de recetas ordenadas por (fecha_confeccion, id) descendente
+     * Paginación por keyset: busca en el índice a partir de la última receta
+     * de la página anterior, sin OFFSET, así cada página cuesta lo mismo
+     * Sin estado o con entregada incluye las archivadas: cada tabla aporta su
+     * propia página por keyset y el UNION se queda con las primeras
+     * @param estado filtra por estado, o null para todas
+     * @param despuesFecha fecha_confeccion de la última receta ya entregada, o null para la primera página
+     * @param despuesId id de la última receta ya entregada
+     * @param limite cantidad máxima de recetas
+     */
+    public List<Receta> listarPagina(String estado, Timestamp despuesFecha, String despuesId, int limite)
+            throws SQLException {
+        StringBuilder filtro = new StringBuilder("WHERE 1 = 1 ");
+        List<Object> parametros = new ArrayList<>();
         
-        try (Connection conn = Database.getInstance().getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            while (rs.next()) {
-                ids.add(rs.getString("id"));
-            }
+        if (estado != null) {
+            filtro.append("AND r.estado = ? ");
+            parametros.add(estado);
+        }
+        if (despuesFecha != null) {
+            filtro.append("AND (r.fecha_confeccion < ? OR (r.fecha_confeccion = ? AND r.id < ?)) ");
+            parametros.add(despuesFecha);
+            parametros.add(despuesFecha);
+            parametros.add(despuesId);
         }
         
-        List<Receta> recetas = new ArrayList<>();
-        for (String id : ids) {
-            Receta receta = buscarPorId(id);
-            if (receta != null) {
-                recetas.add(receta);
-            }
+        if (!incluyeArchivo(estado)) {
+            filtro.append("ORDER BY r.fecha_confeccion DESC, r.id DESC LIMIT ?");
+            parametros.add(limite);
+            return cargarRecetas(filtro.toString(), parametros.toArray());
         }
         
-        return recetas;
+        // Cada rama con su ORDER BY + LIMIT usa el índice (fecha_confeccion, id) de su tabla
+        filtro.append("ORDER BY r.fecha_confeccion DESC, r.id DESC LIMIT ? ");
+        parametros.add(limite);
+        List<Object> ambas = new ArrayList<>(parametros);
+        ambas.addAll(parametros);
+        ambas.add(limite);
+        return cargarRecetasSql(conArchivo(filtro.toString(), ORDEN_RECIENTES + " LIMIT ?"), ambas.toArray());
     }
     
-    public List<Receta> listarPorEstado(String estado) throws SQLException {
-        List<String> ids = new ArrayList<>();
-        String sql = "SELECT id FROM recetas WHERE estado = ? ORDER BY fecha_confeccion DESC";
+    /**
+     * El archivo solo tiene recetas entregadas: participa de los listados sin
+     * estado y de los de entregadas
+     */
+    private static boolean incluyeArchivo(String estado) {
+        return estado == null || "entregada".equals(estado);
+    }
+    
+    /**
+     * Recetas vivas y archivadas en una sola consulta (una sola instantánea,
+     * así una receta que se archiva en ese momento no aparece dos veces)
+     * @param filtro condiciones sobre el alias r, repetidas en las dos tablas:
+     *               los parámetros del filtro van dos veces
+     * @param orden ORDER BY / LIMIT del total, sobre las columnas del resultado (sin alias)
+     */
+    private static String conArchivo(String filtro, String orden) {
+        return "(" + SELECT_RECETAS + filtro + ") UNION ALL (" + SELECT_RECETAS_ARCHIVO + filtro + ") " + orden;
+    }
+    
+    /**
+     * Carga recetas completas (paciente, detalles y medicamentos) con un número
+     * constante de consultas: una para recetas+pacientes y las IN (...) de detalles
+     * @param filtro cláusulas WHERE / ORDER BY sobre el alias r de recetas
+     * @param parametros valores para los ? del filtro, en orden
+     */
+    private List<Receta> cargarRecetas(String filtro, Object... parametros) throws SQLException {
+        return cargarRecetasSql(SELECT_RECETAS + filtro, parametros);
+    }
+    
+    private List<Receta> cargarRecetasSql(String sql, Object... parametros) throws SQLException {
+        try (Connection conn = Database.getInstance().getConnection()) {
+            return cargarRecetas(conn, sql, parametros);
+        }
+    }
+    
+    /**
+     * @param sql consulta completa sobre SELECT_RECETAS y/o SELECT_RECETAS_ARCHIVO;
+     *            los detalles de cada receta se buscan en la tabla de la que vino
+     */
+    private List<Receta> cargarRecetas(Connection conn, String sql, Object... parametros) throws SQLException {
+        Map<String, Receta> recetas = new LinkedHashMap<>();
+        Map<String, Receta> vivas = new HashMap<>();
+        Map<String, Receta> archivadas = new HashMap<>();
         
-        try (Connection conn = Database.getInstance().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, estado);
-            ResultSet rs = stmt.executeQuery();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < parametros.length; i++) {
+                stmt.setObject(i + 1, parametros[i]);
+            }
             
-            while (rs.next()) {
-                ids.add(rs.getString("id"));
+            try (ResultSet rs = stmt.executeQuery()) {
+                Map<String, Paciente> pacientes = new HashMap<>();
+                while (rs.next()) {
+                    Receta receta = crearRecetaDesdeResultSet(rs, pacientes);
+                    recetas.put(receta.getId(), receta);
+                    (rs.getBoolean("archivada") ? archivadas : vivas).put(receta.getId(), receta);
+                }
             }
         }
         
-        List<Receta> recetas = new ArrayList<>();
-        for (String id : ids) {
-            Receta receta = buscarPorId(id);
-            if (receta != null) {
-                recetas.add(receta);
-            }
+        detalleDao.cargarEnRecetas(vivas, conn);
+        detalleDao.cargarEnRecetasArchivadas(archivadas, conn);
+        
+        return new ArrayList<>(recetas.values());
+    }
+    
+    /**
+     * SELECT de recetas con su paciente sobre la tabla viva o la de archivo
+     */
+    private static String selectRecetas(String tabla, boolean archivada) {
+        return "SELECT r.id, r.fecha_confeccion, r.fecha_retiro, r.fecha_proceso, r.fecha_lista, r.fecha_entrega, " +
+               "r.estado, r.paciente_id, r.medico_id, r.farmaceuta_id, r.version, " +
+               (archivada ? "TRUE" : "FALSE") + " AS archivada, " +
+               "p.nombre AS paciente_nombre, p.fecha_nacimiento, p.telefono " +
+               "FROM " + tabla + " r " +
+               "JOIN pacientes p ON p.id = r.paciente_id ";
+    }
+    
+    /**
+     * Crea una Receta (sin detalles) desde una fila de SELECT_RECETAS,
+     * reutilizando una sola instancia de Paciente por id
+     */
+    private Receta crearRecetaDesdeResultSet(ResultSet rs, Map<String, Paciente> pacientes) throws SQLException {
+        String pacienteId = rs.getString("paciente_id");
+        Paciente paciente = pacientes.get(pacienteId);
+        if (paciente == null) {
+            paciente = new Paciente(pacienteId, rs.getString("paciente_nombre"),
+                                    new java.util.Date(rs.getDate("fecha_nacimiento").getTime()),
+                                    rs.getString("telefono"));
+            pacientes.put(pacienteId, paciente);
         }
         
-        return recetas;
+        Receta receta = new Receta(rs.getString("id"),
+                                   new java.util.Date(rs.getTimestamp("fecha_confeccion").getTime()),
+                                   new java.util.Date(rs.getTimestamp("fecha_retiro").getTime()),
+                                   paciente);
+        receta.setEstado(rs.getString("estado"));
+        receta.setMedicoId(rs.getString("medico_id"));
+        receta.setFarmaceutaId(rs.getString("farmaceuta_id"));
+        
+        Timestamp tsProceso = rs.getTimestamp("fecha_proceso");
+        if (tsProceso != null) {
+            receta.setFechaProceso(new java.util.Date(tsProceso.getTime()));
+        }
+        
+        Timestamp tsLista = rs.getTimestamp("fecha_lista");
+        if (tsLista != null) {
+            receta.setFechaLista(new java.util.Date(tsLista.getTime()));
+        }
+        
+        Timestamp tsEntrega = rs.getTimestamp("fecha_entrega");
+        if (tsEntrega != null) {
+            receta.setFechaEntrega(new java.util.Date(tsEntrega.getTime()));
+        }
+        
+        return receta;
     }
     
+    // ==================== NOTIFICACIÓN A LISTENERS ====================
+    
+    private void notificarCreada(Receta receta) {
+        for (RecetaListener listener : listeners) {
+            try {
+                listener.recetaCreada(receta);
+            } catch (RuntimeException e) {
+                System.err.println("Error en listener de recetas: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void notificarCambios(List<CambioEstado> cambios) {
+        for (RecetaListener listener : listeners) {
+            try {
+                listener.estadoCambiado(cambios);
+            } catch (RuntimeException e) {
+                System.err.println("Error en listener de recetas: " + e.getMessage());
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package dao;
+
+import model.CambioEstado;
+import model.Receta;
+import java.util.List;
+
+/**
+ * Observador de los cambios en recetas que hace RecetaDao
+ * Se invoca después del commit, en el thread que hizo el cambio: las
+ * implementaciones deben ser rápidas y no lanzar excepciones
+ */
+public interface RecetaListener {
+
+    /**
+     * Una receta nueva (con sus detalles) quedó guardada
+     */
+    void recetaCreada(Receta receta);
+
+    /**
+     * Una o más recetas cambiaron de estado en la misma transacción
+     */
+    void estadoCambiado(List<CambioEstado> cambios);
+}
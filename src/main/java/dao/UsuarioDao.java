@@ -127,24 +127,7 @@ public class UsuarioDao {
             ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
-                String id = rs.getString("id");
-                String clave = rs.getString("clave");
-                String nombre = rs.getString("nombre");
-                String rol = rs.getString("rol");
-                
-                Usuario usuario = null;
-                switch (rol) {
-                    case "ADM":
-                        usuario = new Administrador(id, clave, nombre);
-                        break;
-                    case "MED":
-                        String especialidad = rs.getString("especialidad");
-                        usuario = new Medico(id, clave, nombre, especialidad);
-                        break;
-                    case "FAR":
-                        usuario = new Farmaceuta(id, clave, nombre);
-                        break;
-                }
+                Usuario usuario = crearUsuarioDesdeResultSet(rs);
                 if (usuario != null) {
                     usuarios.add(usuario);
                 }
@@ -152,6 +135,59 @@ public class UsuarioDao {
         }
         return usuarios;
     }
+    
+    /**
+     * Página de usuarios ACTIVOS ordenados por ID (keyset sobre la clave primaria)
+     * @param despuesId último ID de la página anterior, o null para la primera página
+     */
+    public List<Usuario> listarPagina(String despuesId, int limite) throws SQLException {
+        List<Usuario> usuarios = new ArrayList<>();
+        String sql = "SELECT * FROM usuarios WHERE estado = 'activo' " +
+                     (despuesId != null ? "AND id > ? " : "") +
+                     "ORDER BY id LIMIT ?";
+        
+        try (Connection conn = Database.getInstance().getConnection();
+            PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            int i = 1;
+            if (despuesId != null) {
+                stmt.setString(i++, despuesId);
+            }
+            stmt.setInt(i, limite);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Usuario usuario = crearUsuarioDesdeResultSet(rs);
+                    if (usuario != null) {
+                        usuarios.add(usuario);
+                    }
+                }
+            }
+        }
+        return usuarios;
+    }
+    
+    /**
+     * Crea el Usuario del tipo que corresponde a su rol, o null si el rol es desconocido
+     */
+    private Usuario crearUsuarioDesdeResultSet(ResultSet rs) throws SQLException {
+        String id = rs.getString("id");
+        String clave = rs.getString("clave");
+        String nombre = rs.getString("nombre");
+        String rol = rs.getString("rol");
+        
+        switch (rol) {
+            case "ADM":
+                return new Administrador(id, clave, nombre);
+            case "MED":
+                String especialidad = rs.getString("especialidad");
+                return new Medico(id, clave, nombre, especialidad);
+            case "FAR":
+                return new Farmaceuta(id, clave, nombre);
+            default:
+                return null;
+        }
+    }
 
     /**
      * Desactiva un usuario (no lo elimina fisicamente)
@@ -0,0 +1,163 @@
+package main;
+
+import server.ModoServidor;
+import server.Server;
+import service.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark comparativo de los motores de red del servidor
+ * Levanta el servidor en cada modo, abre muchas conexiones que quedan
+ * mayormente inactivas (como las terminales de farmacia) y mide:
+ *   - tiempo para conectar a todos los clientes
+ *   - throughput de solicitudes de ida y vuelta
+ *   - pico de threads vivos y heap usado con todas las conexiones abiertas
+ *
+ * Usa una acción inexistente, que no toca la base de datos: mide el costo
+ * del transporte y del modelo de threads, no el de MySQL
+ *
+ * Uso: BenchmarkConexiones [conexiones] [solicitudesPorConexion] [modo,modo,...]
+ * Ejemplo: BenchmarkConexiones 5000 20 hilos,virtual,nio
+ */
+public class BenchmarkConexiones {
+
+    private static final String HOST = "localhost";
+    private static final int PUERTO = 5000;
+    private static final String SOLICITUD = "{\"type\":\"REQUEST\",\"action\":\"BENCHMARK_PING\",\"data\":{}}";
+
+    public static void main(String[] args) throws Exception {
+        int conexiones = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int solicitudes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String[] modos = (args.length > 2 ? args[2] : "hilos,virtual").split(",");
+
+        // El servidor registra cada mensaje en consola; se silencia durante las mediciones
+        PrintStream consola = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        consola.printf("%-8s %10s %12s %14s %12s %12s%n",
+                "modo", "conexiones", "conectar ms", "solicitudes/s", "threads pico", "heap MB");
+
+        for (String nombre : modos) {
+            ModoServidor modo = ModoServidor.desde(nombre);
+            Resultado r = medir(modo, conexiones, solicitudes);
+            consola.printf("%-8s %10d %12d %14.0f %12d %12.1f%n",
+                    modo, conexiones, r.msConexion, r.solicitudesPorSegundo, r.threadsPico, r.heapMb);
+        }
+
+        System.setOut(consola);
+        System.exit(0);
+    }
+
+    private static Resultado medir(ModoServidor modo, int conexiones, int solicitudes) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+
+        Server server = new Server(new Service(), modo);
+        Thread hiloServidor = new Thread(server::iniciar, "benchmark-servidor");
+        hiloServidor.setDaemon(true);
+        hiloServidor.start();
+        esperarPuerto();
+
+        System.gc();
+        threads.resetPeakThreadCount();
+
+        // Los clientes usan threads virtuales para no ser ellos el cuello de botella
+        List<Socket> sockets = new ArrayList<>(conexiones);
+        List<PrintWriter> escritores = new ArrayList<>(conexiones);
+        List<BufferedReader> lectores = new ArrayList<>(conexiones);
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < conexiones; i++) {
+            Socket socket = new Socket(HOST, PUERTO);
+            sockets.add(socket);
+            escritores.add(new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true));
+            lectores.add(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)));
+        }
+        // Una solicitud por conexión confirma que el servidor ya la atiende
+        rondas(escritores, lectores, 1);
+        long msConexion = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+        inicio = System.nanoTime();
+        long total = rondas(escritores, lectores, solicitudes);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        System.gc();
+        double heapMb = memoria.getHeapMemoryUsage().getUsed() / (1024.0 * 1024.0);
+        int threadsPico = threads.getPeakThreadCount();
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.detener();
+        Thread.sleep(500);
+
+        return new Resultado(msConexion, total / segundos, threadsPico, heapMb);
+    }
+
+    /**
+     * Envía n solicitudes secuenciales por cada conexión, todas las conexiones en paralelo
+     * @return total de respuestas recibidas
+     */
+    private static long rondas(List<PrintWriter> escritores, List<BufferedReader> lectores, int n)
+            throws InterruptedException {
+        AtomicLong respuestas = new AtomicLong();
+        CountDownLatch fin = new CountDownLatch(escritores.size());
+
+        try (ExecutorService clientes = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < escritores.size(); i++) {
+                PrintWriter escritor = escritores.get(i);
+                BufferedReader lector = lectores.get(i);
+                clientes.execute(() -> {
+                    try {
+                        for (int j = 0; j < n; j++) {
+                            escritor.println(SOLICITUD);
+                            if (lector.readLine() != null) {
+                                respuestas.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Error en cliente de benchmark: " + e.getMessage());
+                    } finally {
+                        fin.countDown();
+                    }
+                });
+            }
+            fin.await();
+        }
+        return respuestas.get();
+    }
+
+    private static void esperarPuerto() throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket(HOST, PUERTO).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("El servidor no abrió el puerto " + PUERTO);
+    }
+
+    private record Resultado(long msConexion, double solicitudesPorSegundo, int threadsPico, double heapMb) {
+    }
+}
@@ -0,0 +1,196 @@
+package main;
+
+import model.DetalleReceta;
+import model.Medicamento;
+import model.Paciente;
+import model.Receta;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import service.JsonModelo;
+import service.JsonWriter;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Benchmark de serialización de una lista de recetas (LISTAR_RECETAS)
+ * Compara armar el árbol de JSONObject/JSONArray y llamar a toString (como
+ * se hacía antes) contra escribir con JsonWriter, y mide por respuesta:
+ *   - tiempo promedio
+ *   - bytes asignados en el heap
+ *
+ * Antes de medir comprueba que ambas salidas tengan los mismos campos y valores.
+ * Al estilo de JMH: iteraciones de calentamiento descartadas y luego
+ * iteraciones medidas, con el resultado consumido para que no se elimine
+ *
+ * Uso: BenchmarkSerializacion [recetas] [iteraciones]
+ * Ejemplo: BenchmarkSerializacion 1000 2000
+ */
+public class BenchmarkSerializacion {
+
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ZoneId ZONA = ZoneId.systemDefault();
+
+    // Evita que el JIT descarte el trabajo medido
+    private static long sumidero;
+
+    public static void main(String[] args) {
+        int cantidad = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iteraciones = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        List<Receta> recetas = crearRecetas(cantidad);
+
+        String conArbol = conArbol(recetas);
+        String conWriter = conWriter(recetas);
+        if (!new JSONObject(conArbol).similar(new JSONObject(conWriter))) {
+            System.err.println("✗ Las salidas no coinciden");
+            System.exit(1);
+        }
+        System.out.println("✓ Salidas equivalentes (" + conWriter.length() + " caracteres)");
+
+        System.out.printf("%-12s %10s %14s %16s%n", "método", "recetas", "µs/respuesta", "KB asignados");
+        for (int ronda = 0; ronda < 2; ronda++) {
+            // La primera ronda es de calentamiento: no se informa
+            boolean informar = ronda == 1;
+            medir("org.json", iteraciones, informar, cantidad, () -> conArbol(recetas));
+            medir("JsonWriter", iteraciones, informar, cantidad, () -> conWriter(recetas));
+        }
+        System.out.println("(sumidero " + sumidero + ")");
+    }
+
+    private static void medir(String nombre, int iteraciones, boolean informar, int cantidad,
+                              java.util.function.Supplier<String> serializar) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().threadId();
+
+        long bytesAntes = threads.getThreadAllocatedBytes(hilo);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < iteraciones; i++) {
+            sumidero += serializar.get().length();
+        }
+        long nanos = System.nanoTime() - inicio;
+        long bytes = threads.getThreadAllocatedBytes(hilo) - bytesAntes;
+
+        if (informar) {
+            System.out.printf("%-12s %10d %14.1f %16.1f%n", nombre, cantidad,
+                    nanos / 1000.0 / iteraciones, bytes / 1024.0 / iteraciones);
+        }
+    }
+
+    // ==================== SERIALIZACIÓN CON JsonWriter ====================
+
+    private static String conWriter(List<Receta> recetas) {
+        JsonWriter json = JsonWriter.obtener();
+        json.objeto()
+            .campo("type", "RESPONSE")
+            .campo("status", "SUCCESS")
+            .campo("message", "Lista de recetas obtenida")
+            .campo("data").objeto().campo("recetas");
+        JsonModelo.recetas(json, recetas);
+        return json.finObjeto().finObjeto().terminar();
+    }
+
+    // ==================== SERIALIZACIÓN CON ÁRBOL org.json ====================
+
+    private static String conArbol(List<Receta> recetas) {
+        JSONArray recetasArray = new JSONArray();
+        for (Receta receta : recetas) {
+            recetasArray.put(recetaToJson(receta));
+        }
+        JSONObject data = new JSONObject();
+        data.put("recetas", recetasArray);
+
+        JSONObject response = new JSONObject();
+        response.put("type", "RESPONSE");
+        response.put("status", "SUCCESS");
+        response.put("message", "Lista de recetas obtenida");
+        response.put("data", data);
+        return response.toString();
+    }
+
+    private static JSONObject recetaToJson(Receta receta) {
+        JSONObject json = new JSONObject();
+        json.put("recetaId", receta.getId());
+        json.put("fechaConfeccion", formatear(receta.getFechaConfeccion()));
+        json.put("fechaRetiro", formatear(receta.getFechaRetiro()));
+        json.put("estado", receta.getEstado());
+        json.put("medicoId", receta.getMedicoId());
+        if (receta.getFarmaceutaId() != null) {
+            json.put("farmaceutaId", receta.getFarmaceutaId());
+        }
+
+        Paciente pac = receta.getPaciente();
+        JSONObject pacJson = new JSONObject();
+        pacJson.put("pacienteId", pac.getId());
+        pacJson.put("nombre", pac.getNombre());
+        pacJson.put("fechaNacimiento", formatear(pac.getFechaNacimiento()));
+        pacJson.put("telefono", pac.getTelefono());
+        json.put("paciente", pacJson);
+
+        if (receta.getFechaProceso() != null) {
+            json.put("fechaProceso", formatear(receta.getFechaProceso()));
+        }
+
+        JSONArray detallesArray = new JSONArray();
+        for (DetalleReceta detalle : receta.getDetalles()) {
+            Medicamento med = detalle.getMedicamento();
+            JSONObject medJson = new JSONObject();
+            medJson.put("medicamentoCodigo", med.getCodigo());
+            medJson.put("nombre", med.getNombre());
+            medJson.put("presentacion", med.getPresentacion());
+
+            JSONObject detalleJson = new JSONObject();
+            detalleJson.put("medicamento", medJson);
+            detalleJson.put("cantidad", detalle.getCantidad());
+            detalleJson.put("indicaciones", detalle.getIndicaciones());
+            detalleJson.put("duracionDias", detalle.getDuracionDias());
+            detallesArray.put(detalleJson);
+        }
+        json.put("detalles", detallesArray);
+        return json;
+    }
+
+    private static String formatear(Date fecha) {
+        return FORMATO_FECHA.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(fecha.getTime()), ZONA));
+    }
+
+    // ==================== DATOS ====================
+
+    /**
+     * Recetas sintéticas con tres detalles cada una, parecidas a las de producción
+     */
+    private static List<Receta> crearRecetas(int cantidad) {
+        Medicamento[] medicamentos = {
+            new Medicamento("MED001", "Paracetamol", "500mg tabletas"),
+            new Medicamento("MED002", "Amoxicilina", "250mg/5ml suspensión"),
+            new Medicamento("MED003", "Ibuprofeno", "400mg cápsulas")
+        };
+        long ahora = System.currentTimeMillis();
+        List<Receta> recetas = new ArrayList<>(cantidad);
+
+        for (int i = 0; i < cantidad; i++) {
+            Paciente paciente = new Paciente("PAC" + (i % 200), "Paciente Número " + (i % 200),
+                                             new Date(ahora - 30L * 365 * 86_400_000), "8888-" + (1000 + i % 9000));
+            Receta receta = new Receta("REC" + i, new Date(ahora - i * 60_000L),
+                                       new Date(ahora + 86_400_000L), paciente);
+            receta.setEstado(i % 3 == 0 ? "proceso" : "confeccionada");
+            receta.setMedicoId("MED" + (i % 20));
+            if (i % 3 == 0) {
+                receta.setFarmaceutaId("FAR001");
+                receta.setFechaProceso(new Date(ahora - i * 30_000L));
+            }
+            for (int j = 0; j < 3; j++) {
+                receta.agregarDetalle(new DetalleReceta(j, medicamentos[j], 1 + j,
+                                                        "Tomar cada 8 horas después de las comidas", 7));
+            }
+            recetas.add(receta);
+        }
+        return recetas;
+    }
+}
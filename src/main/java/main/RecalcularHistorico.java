@@ -0,0 +1,38 @@
+package main;
+
+import config.Database;
+import dao.HistoricoDao;
+import service.HistoricoRecetas;
+
+import java.time.LocalDate;
+
+/**
+ * Job batch que recalcula las tablas de histórico desde recetas y detalle_recetas
+ * Se usa para la carga inicial, para corregir días en que falló la
+ * actualización incremental o tras ediciones hechas fuera del servidor
+ *
+ * Uso: RecalcularHistorico [desde yyyy-MM-dd] [hasta yyyy-MM-dd]
+ * Sin argumentos recalcula todos los días con recetas
+ */
+public class RecalcularHistorico {
+
+    public static void main(String[] args) throws Exception {
+        HistoricoRecetas historico = new HistoricoRecetas(new HistoricoDao());
+        long inicio = System.currentTimeMillis();
+        int meses;
+
+        if (args.length > 0) {
+            LocalDate desde = LocalDate.parse(args[0]);
+            LocalDate hasta = args.length > 1 ? LocalDate.parse(args[1]) : LocalDate.now();
+            System.out.println("Recalculando histórico del " + desde + " al " + hasta + "...");
+            meses = historico.recalcular(desde, hasta);
+        } else {
+            System.out.println("Recalculando histórico completo...");
+            meses = historico.recalcularTodo();
+        }
+
+        System.out.println("✓ " + meses + " meses recalculados en " +
+                (System.currentTimeMillis() - inicio) + " ms");
+        Database.getInstance().closeConnection();
+    }
+}
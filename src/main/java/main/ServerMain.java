@@ -1,10 +1,16 @@
 package main;
 
 import config.Database;
+import server.ModoServidor;
 import server.Server;
+import service.Service;
 
 /**
  * Clase principal para iniciar el servidor Backend
+ * 
+ * Uso: ServerMain [hilos|virtual|nio]
+ * El motor de red también se puede elegir con -Dserver.modo=nio
+ * (por defecto, un thread por conexión)
  */
 public class ServerMain {
     
@@ -31,13 +37,23 @@ public class ServerMain {
             System.exit(1);
         }
         
+        // Motor de red
+        ModoServidor modo = ModoServidor.desde(
+            args.length > 0 ? args[0] : System.getProperty("server.modo", "hilos"));
+        System.out.println("Modo de servidor: " + modo);
+        
+        // Service único, compartido por todas las conexiones
+        Service service = new Service();
+        service.iniciar();
+        
         // Iniciar el servidor
-        Server server = new Server();
+        Server server = new Server(service, modo);
         
         // Agregar shutdown hook para cerrar limpiamente
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nCerrando servidor...");
             server.detener();
+            service.detener();
             db.closeConnection();
             System.out.println("Servidor cerrado correctamente");
         }));
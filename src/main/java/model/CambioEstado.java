@@ -0,0 +1,44 @@
+package model;
+
+import java.util.Date;
+
+/**
+ * Transición de estado de una receta ya confirmada en la base de datos
+ */
+public class CambioEstado {
+    private String recetaId;
+    private String estadoAnterior;
+    private String estadoNuevo;
+    private Date fecha;
+    private String farmaceutaId; // Farmaceuta asignado en la transición (null si no cambió)
+
+    public CambioEstado(String recetaId, String estadoAnterior, String estadoNuevo, Date fecha) {
+        this(recetaId, estadoAnterior, estadoNuevo, fecha, null);
+    }
+
+    public CambioEstado(String recetaId, String estadoAnterior, String estadoNuevo, Date fecha,
+                        String farmaceutaId) {
+        this.recetaId = recetaId;
+        this.estadoAnterior = estadoAnterior;
+        this.estadoNuevo = estadoNuevo;
+        this.fecha = fecha;
+        this.farmaceutaId = farmaceutaId;
+    }
+
+    // Getters
+    public String getRecetaId() {
+        return recetaId;
+    }
+    public String getEstadoAnterior() {
+        return estadoAnterior;
+    }
+    public String getEstadoNuevo() {
+        return estadoNuevo;
+    }
+    public Date getFecha() {
+        return fecha;
+    }
+    public String getFarmaceutaId() {
+        return farmaceutaId;
+    }
+}
@@ -15,6 +15,7 @@ public class Receta {
     private List<DetalleReceta> detalles;
     private Paciente paciente;
     private String medicoId; // Nuevo campo para relacionar con médico
+    private String farmaceutaId; // Farmaceuta que reclamó el despacho (null si nadie)
 
     public Receta(String id, Date fechaConfeccion, Date fechaRetiro, Paciente paciente) {
         this.id = id;
@@ -64,6 +65,9 @@ public class Receta {
     public String getMedicoId() {
         return medicoId;
     }
+    public String getFarmaceutaId() {
+        return farmaceutaId;
+    }
 
     // Setters
     public void setId(String id) {
@@ -96,4 +100,7 @@ public class Receta {
     public void setMedicoId(String medicoId) {
         this.medicoId = medicoId;
     }
+    public void setFarmaceutaId(String farmaceutaId) {
+        this.farmaceutaId = farmaceutaId;
+    }
 }
\ No newline at end of file
@@ -1,55 +1,51 @@
 package server;
 
+import service.MensajeSalida;
 import service.Service;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 /**
  * Maneja la comunicación con un cliente específico
- * Cada ClientHandler corre en su propio thread
+ * Cada ClientHandler corre en su propio thread (de plataforma o virtual);
+ * un thread virtual aparte vacía su cola de salida hacia el socket
  */
-public class ClientHandler implements Runnable {
+public final class ClientHandler extends Conexion implements Runnable {
     
     private Socket socket;
-    private Server server;
-    private Service service;
-    private BufferedReader entrada;
-    private PrintWriter salida;
-    private String usuarioId;
-    private boolean activo;
+    private InputStream entrada;
+    private BufferedOutputStream salida;
+    private final LectorTramas lector;
     
-    public ClientHandler(Socket socket, Server server) {
+    public ClientHandler(Socket socket, Server server, Service service, Executor ejecutor) {
+        super(server, service, ejecutor, socket.getInetAddress().getHostAddress());
         this.socket = socket;
-        this.server = server;
-        this.service = new Service();
-        this.activo = true;
+        this.lector = new LectorTramas(this);
     }
     
     @Override
     public void run() {
         try {
             // Configurar streams de entrada/salida
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            salida = new PrintWriter(socket.getOutputStream(), true);
+            entrada = socket.getInputStream();
+            salida = new BufferedOutputStream(socket.getOutputStream(), 8192);
+            
+            Thread.ofVirtual().name("salida-" + sesion.getIpAddress()).start(this::escribirSalida);
             
             System.out.println("ClientHandler iniciado para: " + socket.getInetAddress());
             
-            // Ciclo principal de lectura de mensajes
-            String mensaje;
-            while (activo && (mensaje = entrada.readLine()) != null) {
-                
-                System.out.println("Mensaje recibido: " + mensaje);
-                
-                // Procesar el mensaje y obtener respuesta
-                String respuesta = procesarMensaje(mensaje);
-                
-                // Enviar respuesta al cliente
-                if (respuesta != null) {
-                    salida.println(respuesta);
-                    System.out.println("Respuesta enviada: " + respuesta);
+            // Ciclo principal de lectura: el lector separa los mensajes y los entrega a recibir()
+            byte[] bytes = new byte[8192];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int leidos;
+            while (activo && (leidos = entrada.read(bytes)) >= 0) {
+                buffer.limit(leidos).position(0);
+                if (!lector.leer(buffer)) {
+                    break;
                 }
             }
             
@@ -62,85 +58,73 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    /**
-     * Procesa un mensaje recibido del cliente
-     */
-    private String procesarMensaje(String mensaje) {
-        try {
-            // El mensaje viene en formato JSON (lo veremos en Protocol)
-            // Por ahora, delegar al Service
-            String respuesta = service.procesarSolicitud(mensaje, this);
-            return respuesta;
-            
-        } catch (Exception e) {
-            System.err.println("Error al procesar mensaje: " + e.getMessage());
-            e.printStackTrace();
-            return "{\"status\":\"ERROR\",\"message\":\"" + e.getMessage() + "\"}";
-        }
+    @Override
+    protected void recibir(String mensaje) {
+        System.out.println("Mensaje recibido: " + mensaje);
+        
+        // Procesar el mensaje y enviar la respuesta al cliente
+        despachar(service.decodificar(mensaje));
     }
     
-    /**
-     * Envía una notificación asíncrona al cliente
-     */
-    public void enviarNotificacion(String notificacion) {
-        if (salida != null && activo) {
-            salida.println(notificacion);
-            System.out.println("Notificación enviada a " + usuarioId + ": " + notificacion);
-        }
+    @Override
+    protected void recibir(byte[] trama) {
+        System.out.println("Trama recibida: " + trama.length + " bytes");
+        despachar(service.decodificar(trama));
     }
     
     /**
-     * Cierra la conexión con el cliente
+     * Escritor de la conexión: vacía la cola de salida hacia el socket
+     * Hace flush solo cuando la cola queda vacía, para agrupar ráfagas
      */
-    public void cerrar() {
-        activo = false;
-        
-        // Si había un usuario logueado, hacer logout
-        if (usuarioId != null) {
-            try {
-                service.registrarLogout(usuarioId);
-                
-                // Notificar a otros clientes
-                String notificacion = server.getNotificationManager()
-                    .crearNotificacionLogout(usuarioId);
-                server.notificarATodosExcepto(notificacion, this);
-                
-            } catch (Exception e) {
-                System.err.println("Error al hacer logout: " + e.getMessage());
-            }
-        }
-        
-        // Cerrar streams
+    private void escribirSalida() {
         try {
-            if (entrada != null) entrada.close();
-            if (salida != null) salida.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            MensajeSalida mensaje;
+            while ((mensaje = colaSalida.tomar()) != null) {
+                retomarTransmisiones();
+                if (mensaje == ColaSalida.CAMBIO_A_BINARIO) {
+                    escritor.cambiarABinario();
+                    continue;
+                }
+                ByteBuffer bytes = escritor.codificar(mensaje);
+                salida.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                if (colaSalida.isVacia()) {
+                    salida.flush();
+                }
+            }
         } catch (IOException e) {
-            System.err.println("Error al cerrar conexión: " + e.getMessage());
+            if (activo) {
+                System.err.println("Error al escribir a " + sesion.getIpAddress() + ": " + e.getMessage());
+                cerrar();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            escritor.liberar();
         }
-        
-        // Remover de la lista de clientes del servidor
-        server.removerCliente(this);
-        
-        System.out.println("Conexión cerrada para usuario: " + usuarioId);
     }
     
-    /**
-     * Getters y Setters
-     */
-    public String getUsuarioId() {
-        return usuarioId;
+    @Override
+    protected boolean procesaEnThreadPropio() {
+        return true;
     }
     
-    public void setUsuarioId(String usuarioId) {
-        this.usuarioId = usuarioId;
+    @Override
+    protected void salidaPendiente() {
+        // El escritor espera en colaSalida.tomar(); no hace falta avisarle
     }
     
-    public Server getServer() {
-        return server;
+    @Override
+    protected void cerrarTransporte() {
+        // Cerrar streams
+        try {
+            if (entrada != null) entrada.close();
+            if (socket != null && !socket.isClosed()) socket.close();
+        } catch (IOException e) {
+            System.err.println("Error al cerrar conexión: " + e.getMessage());
+        }
     }
     
     public Socket getSocket() {
         return socket;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,159 @@
+package server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro concurrente de las conexiones del servidor
+ * Indexa las conexiones por usuarioId (un usuario puede tener varias
+ * sesiones abiertas) y por rol, para entregar notificaciones dirigidas en
+ * O(1) y recorrer todas las conexiones sin locks al hacer broadcast
+ *
+ * Los índices se mantienen en el login (Service.procesarLogin) y en el
+ * logout o cierre de la conexión (Service.procesarLogout, Conexion.cerrar)
+ *
+ * Además indexa las suscripciones a eventos de recetas por estado (SUBSCRIBE):
+ * un evento se entrega solo a las conexiones suscritas a su estado
+ */
+public class ClientRegistry {
+
+    private final Set<Conexion> conexiones = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Set<Conexion>> porUsuario = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Conexion>> porRol = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Conexion>> porSuscripcion = new ConcurrentHashMap<>();
+
+    /**
+     * Registra una conexión nueva (aún sin usuario)
+     */
+    public void agregar(Conexion conexion) {
+        conexiones.add(conexion);
+    }
+
+    /**
+     * Quita la conexión del registro y de los índices de usuario y rol
+     * @return true si era la última sesión abierta de ese usuario
+     */
+    public boolean remover(Conexion conexion, String usuarioId, String rol) {
+        boolean ultimaSesion = desasociarUsuario(conexion, usuarioId, rol);
+        desuscribir(conexion);
+        conexiones.remove(conexion);
+        return ultimaSesion;
+    }
+
+    /**
+     * Asocia la conexión al usuario y rol con que inició sesión
+     */
+    public void asociarUsuario(Conexion conexion, String usuarioId, String rol) {
+        agregarEn(porUsuario, usuarioId, conexion);
+        agregarEn(porRol, rol, conexion);
+    }
+
+    /**
+     * Quita la asociación de la conexión con su usuario y rol
+     * @return true si era la última sesión abierta de ese usuario
+     */
+    public boolean desasociarUsuario(Conexion conexion, String usuarioId, String rol) {
+        if (usuarioId == null) {
+            return false;
+        }
+        desuscribir(conexion);
+        removerDe(porRol, rol, conexion);
+        return removerDe(porUsuario, usuarioId, conexion);
+    }
+
+    /**
+     * Conexiones abiertas de un usuario (vacío si no está conectado)
+     */
+    public Set<Conexion> getConexionesDe(String usuarioId) {
+        Set<Conexion> set = usuarioId == null ? null : porUsuario.get(usuarioId);
+        return set == null ? Collections.emptySet() : set;
+    }
+
+    /**
+     * Conexiones con sesión iniciada con el rol indicado
+     */
+    public Set<Conexion> getConexionesPorRol(String rol) {
+        Set<Conexion> set = rol == null ? null : porRol.get(rol);
+        return set == null ? Collections.emptySet() : set;
+    }
+
+    /**
+     * Suscribe la conexión a los eventos de recetas de los estados indicados,
+     * reemplazando su suscripción anterior
+     */
+    public void suscribir(Conexion conexion, Collection<String> estados) {
+        desuscribir(conexion);
+        for (String estado : estados) {
+            agregarEn(porSuscripcion, estado, conexion);
+        }
+    }
+
+    /**
+     * Quita todas las suscripciones de la conexión
+     */
+    public void desuscribir(Conexion conexion) {
+        for (String estado : porSuscripcion.keySet()) {
+            removerDe(porSuscripcion, estado, conexion);
+        }
+    }
+
+    /**
+     * Conexiones suscritas a los eventos de recetas de un estado
+     */
+    public Set<Conexion> getSuscritos(String estado) {
+        Set<Conexion> set = estado == null ? null : porSuscripcion.get(estado);
+        return set == null ? Collections.emptySet() : set;
+    }
+
+    /**
+     * Todas las conexiones; la iteración no toma locks y es débilmente consistente
+     */
+    public Set<Conexion> getTodas() {
+        return Collections.unmodifiableSet(conexiones);
+    }
+
+    public int getTotal() {
+        return conexiones.size();
+    }
+
+    public void limpiar() {
+        conexiones.clear();
+        porUsuario.clear();
+        porRol.clear();
+        porSuscripcion.clear();
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private static void agregarEn(ConcurrentHashMap<String, Set<Conexion>> indice, String clave, Conexion conexion) {
+        if (clave == null) {
+            return;
+        }
+        indice.compute(clave, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(conexion);
+            return set;
+        });
+    }
+
+    /**
+     * Quita la conexión del conjunto de la clave, eliminando el conjunto si queda vacío
+     * @return true si el conjunto quedó vacío
+     */
+    private static boolean removerDe(ConcurrentHashMap<String, Set<Conexion>> indice, String clave, Conexion conexion) {
+        if (clave == null) {
+            return false;
+        }
+        boolean[] vacio = new boolean[1];
+        indice.computeIfPresent(clave, (k, set) -> {
+            set.remove(conexion);
+            vacio[0] = set.isEmpty();
+            return vacio[0] ? null : set;
+        });
+        return vacio[0];
+    }
+}
@@ -0,0 +1,238 @@
+package server;
+
+import service.MensajeSalida;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola acotada de mensajes salientes de una conexión
+ * Quien responde o notifica solo encola; el escritor de la conexión la vacía
+ * hacia el socket, así ningún broadcast hace I/O ni espera a un cliente lento
+ *
+ * Política de desborde:
+ *   - respuestas: esperan lugar hasta un timeout (contrapresión sobre el propio cliente)
+ *   - notificaciones descartables (presencia): se descarta la más antigua descartable
+ *   - desborde sostenido: si no hay lugar para una notificación no descartable, o se
+ *     descartaron más mensajes que la capacidad sin que el escritor avance, o una
+ *     respuesta agota su espera, el que encola recibe false y la conexión se cierra
+ */
+public class ColaSalida {
+
+    private static final int CAPACIDAD = Integer.getInteger("server.salida.capacidad", 1024);
+    private static final long ESPERA_RESPUESTA_MS = Long.getLong("server.salida.esperaMs", 10_000);
+
+    /**
+     * Marca que el escritor recibe en lugar de un mensaje: lo que sigue en la
+     * cola va en encuadre binario. Se compara por identidad
+     */
+    public static final MensajeSalida CAMBIO_A_BINARIO = MensajeSalida.json("CAMBIO_A_BINARIO");
+
+    private final ArrayDeque<Entrada> mensajes = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hayMensajes = lock.newCondition();
+    private final Condition hayLugar = lock.newCondition();
+    private final int capacidad;
+
+    // Descartes desde la última vez que el escritor sacó un mensaje
+    private int descartesSinAvance;
+    private long descartesTotales;
+    private boolean cerrada;
+
+    public ColaSalida() {
+        this(CAPACIDAD);
+    }
+
+    public ColaSalida(int capacidad) {
+        this.capacidad = capacidad;
+    }
+
+    /**
+     * Encola una respuesta, esperando lugar si la cola está llena
+     * @return false si la cola está cerrada o la espera se agotó
+     */
+    public boolean encolar(MensajeSalida mensaje) {
+        lock.lock();
+        try {
+            long restanteNs = TimeUnit.MILLISECONDS.toNanos(ESPERA_RESPUESTA_MS);
+            while (!cerrada && mensajes.size() >= capacidad) {
+                if (restanteNs <= 0) {
+                    return false;
+                }
+                restanteNs = hayLugar.awaitNanos(restanteNs);
+            }
+            if (cerrada) {
+                return false;
+            }
+            agregar(new Entrada(mensaje, false));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encola la respuesta a NEGOCIAR_ENCUADRE seguida de la marca CAMBIO_A_BINARIO
+     * Es el primer intercambio de la conexión, así que no espera lugar
+     * @return false si la cola está cerrada
+     */
+    public boolean encolarCambioABinario(MensajeSalida respuesta) {
+        lock.lock();
+        try {
+            if (cerrada) {
+                return false;
+            }
+            agregar(new Entrada(respuesta, false));
+            agregar(new Entrada(CAMBIO_A_BINARIO, false));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encola una notificación sin esperar nunca
+     * @param descartable true para notificaciones de presencia, que pueden perderse bajo presión
+     * @return false si hay desborde sostenido y la conexión debe cerrarse
+     */
+    public boolean encolarNotificacion(MensajeSalida mensaje, boolean descartable) {
+        lock.lock();
+        try {
+            if (cerrada) {
+                return false;
+            }
+            if (mensajes.size() >= capacidad) {
+                if (!descartarMasAntiguaDescartable()) {
+                    if (!descartable) {
+                        return false;
+                    }
+                    // Nada descartable en cola: se pierde la nueva
+                    registrarDescarte();
+                    return descartesSinAvance <= capacidad;
+                }
+                if (descartesSinAvance > capacidad) {
+                    return false;
+                }
+            }
+            agregar(new Entrada(mensaje, descartable));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saca el siguiente mensaje, esperando si no hay ninguno
+     * @return el mensaje, o null si la cola se cerró
+     */
+    public MensajeSalida tomar() throws InterruptedException {
+        lock.lock();
+        try {
+            while (mensajes.isEmpty() && !cerrada) {
+                hayMensajes.await();
+            }
+            return cerrada ? null : sacarInterno();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saca el siguiente mensaje sin esperar
+     * @return el mensaje, o null si la cola está vacía o cerrada
+     */
+    public MensajeSalida sacar() {
+        lock.lock();
+        try {
+            return cerrada || mensajes.isEmpty() ? null : sacarInterno();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * La cola está a media capacidad o más: conviene no producir más
+     * respuestas hasta que el escritor la vacíe (motor NIO)
+     */
+    public boolean isCongestionada() {
+        lock.lock();
+        try {
+            return mensajes.size() >= capacidad / 2;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isVacia() {
+        lock.lock();
+        try {
+            return mensajes.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la cola, descarta lo pendiente y despierta a quienes esperan
+     */
+    public void cerrar() {
+        lock.lock();
+        try {
+            cerrada = true;
+            mensajes.clear();
+            hayMensajes.signalAll();
+            hayLugar.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDescartesTotales() {
+        lock.lock();
+        try {
+            return descartesTotales;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES (con lock tomado) ====================
+
+    private void agregar(Entrada entrada) {
+        mensajes.addLast(entrada);
+        hayMensajes.signal();
+    }
+
+    private MensajeSalida sacarInterno() {
+        Entrada entrada = mensajes.pollFirst();
+        descartesSinAvance = 0;
+        hayLugar.signal();
+        return entrada.mensaje;
+    }
+
+    private boolean descartarMasAntiguaDescartable() {
+        Iterator<Entrada> it = mensajes.iterator();
+        while (it.hasNext()) {
+            if (it.next().descartable) {
+                it.remove();
+                registrarDescarte();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void registrarDescarte() {
+        descartesSinAvance++;
+        descartesTotales++;
+    }
+
+    private record Entrada(MensajeSalida mensaje, boolean descartable) {
+    }
+}
@@ -0,0 +1,452 @@
+package server;
+
+import service.JsonWriter;
+import service.MensajeSalida;
+import service.Protocol;
+import service.Service;
+import service.Solicitud;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión de un cliente con el servidor, independiente del transporte
+ * ClientHandler (socket bloqueante, un thread por conexión) y
+ * NioClientHandler (canal no bloqueante del motor NIO) comparten aquí
+ * la sesión, el despacho de solicitudes y el cierre con logout
+ * 
+ * Las solicitudes sin requestId se procesan en el thread que las leyó, en
+ * orden. Las que traen requestId se despachan al executor de trabajo y su
+ * respuesta se escribe al terminar; a lo sumo MAX_EN_VUELO por conexión
+ * (con despachar el lector espera cuando se alcanza el límite; con
+ * intentarDespachar el transporte deja la solicitud para más tarde)
+ * 
+ * Todo lo que se envía al cliente pasa por una ColaSalida acotada; el
+ * transporte la vacía hacia el socket, nunca quien responde o notifica
+ * 
+ * El encuadre por defecto es una línea JSON por mensaje; el primer mensaje
+ * puede negociar tramas binarias MessagePack (ver LectorTramas y EscritorTramas)
+ * Las solicitudes se responden en el encuadre en que llegaron y las
+ * notificaciones se escriben en el de la conexión al encolarlas
+ */
+public abstract class Conexion {
+    
+    private static final int MAX_EN_VUELO = Integer.getInteger("server.pipeline.maxEnVuelo", 8);
+    
+    protected final Server server;
+    protected final Service service;
+    protected final Sesion sesion;
+    protected volatile boolean activo;
+    private final AtomicBoolean cerrada = new AtomicBoolean();
+    
+    // Ejecutor de las solicitudes con requestId y permisos para limitarlas
+    private final Executor ejecutor;
+    private final Semaphore enVuelo = new Semaphore(MAX_EN_VUELO);
+    
+    // Mensajes pendientes de escribir al cliente y su codificación (la usa solo el escritor)
+    protected final ColaSalida colaSalida = new ColaSalida();
+    protected final EscritorTramas escritor;
+    // Ya se encoló la respuesta a NEGOCIAR_ENCUADRE: lo que se encole después va en binario
+    private volatile boolean binario;
+    
+    // Respuestas en fragmentos detenidas por la salida congestionada (ver transmitir)
+    private final Queue<Transmision> detenidas = new ConcurrentLinkedQueue<>();
+    // Sigue en curso una respuesta en fragmentos a una solicitud sin requestId
+    private volatile boolean transmitiendoEnSecuencia;
+    
+    protected Conexion(Server server, Service service, Executor ejecutor, String ipAddress) {
+        this.server = server;
+        this.service = service;
+        this.ejecutor = ejecutor;
+        this.sesion = new Sesion(ipAddress);
+        this.escritor = new EscritorTramas(server.getMetricasCompresion());
+        this.activo = true;
+    }
+    
+    /**
+     * Avisa al transporte que hay mensajes nuevos en la cola de salida
+     */
+    protected abstract void salidaPendiente();
+    
+    /**
+     * Cierra el socket o canal subyacente
+     */
+    protected abstract void cerrarTransporte();
+    
+    /**
+     * true si las solicitudes sin requestId se procesan en un thread propio de
+     * la conexión, que puede esperar lugar en la salida sin frenar a otras
+     */
+    protected abstract boolean procesaEnThreadPropio();
+    
+    /**
+     * Entrega una línea completa leída por el transporte para procesarla
+     */
+    protected abstract void recibir(String mensaje);
+    
+    /**
+     * Entrega el payload MessagePack de una trama completa (encuadre binario)
+     */
+    protected abstract void recibir(byte[] trama);
+    
+    /**
+     * Atiende el primer mensaje de la conexión, que puede negociar el encuadre
+     * (se atiende en el thread lector, antes de leer el mensaje siguiente)
+     * @return true si se negoció el encuadre binario: lo que siga en la entrada son tramas
+     */
+    boolean recibirPrimerMensaje(String mensaje) {
+        if (mensaje.contains(Protocol.ACTION_NEGOCIAR_ENCUADRE)) {
+            Solicitud solicitud = service.decodificar(mensaje);
+            if (solicitud.isValida() && Protocol.ACTION_NEGOCIAR_ENCUADRE.equals(solicitud.getAction())) {
+                return negociarEncuadre(solicitud);
+            }
+        }
+        recibir(mensaje);
+        return false;
+    }
+    
+    /**
+     * Responde NEGOCIAR_ENCUADRE; la respuesta siempre va en el encuadre por líneas
+     * La compresión solo se activa con el encuadre binario; si no, se responde "ninguna"
+     * @return true si a partir de aquí ambos sentidos usan tramas binarias
+     */
+    private boolean negociarEncuadre(Solicitud solicitud) {
+        String encuadre = solicitud.getData().optString(Protocol.FIELD_ENCUADRE, Protocol.ENCUADRE_LINEAS);
+        String compresion = solicitud.getData().optString(Protocol.FIELD_COMPRESION, Protocol.COMPRESION_NINGUNA);
+        
+        if (Protocol.ENCUADRE_MSGPACK.equals(encuadre)) {
+            if (Protocol.COMPRESION_DEFLATE.equals(compresion)) {
+                escritor.negociarCompresion();
+            } else {
+                compresion = Protocol.COMPRESION_NINGUNA;
+            }
+            MensajeSalida respuesta = crearRespuestaEncuadre(solicitud, true, "Encuadre binario activado",
+                                                             encuadre, compresion);
+            binario = true;
+            if (colaSalida.encolarCambioABinario(respuesta)) {
+                salidaPendiente();
+            } else {
+                cerrarPorDesborde();
+            }
+            System.out.println("Encuadre " + encuadre + " (compresión " + compresion + ") negociado con "
+                               + sesion.getIpAddress());
+            return true;
+        }
+        
+        if (Protocol.ENCUADRE_LINEAS.equals(encuadre)) {
+            escribir(crearRespuestaEncuadre(solicitud, true, "Encuadre por líneas", encuadre,
+                                            Protocol.COMPRESION_NINGUNA));
+        } else {
+            escribir(crearRespuestaEncuadre(solicitud, false, "Encuadre no soportado: " + encuadre,
+                                            Protocol.ENCUADRE_LINEAS, Protocol.COMPRESION_NINGUNA));
+        }
+        return false;
+    }
+    
+    private static MensajeSalida crearRespuestaEncuadre(Solicitud solicitud, boolean exito, String mensaje,
+                                                 String encuadre, String compresion) {
+        JsonWriter json = JsonWriter.obtener();
+        json.objeto()
+            .campo(Protocol.FIELD_REQUEST_ID, solicitud.getRequestId())
+            .campo("type", Protocol.TYPE_RESPONSE)
+            .campo("status", exito ? Protocol.STATUS_SUCCESS : Protocol.STATUS_ERROR)
+            .campo("message", mensaje)
+            .campo("data").objeto()
+                .campo(Protocol.FIELD_ENCUADRE, encuadre)
+                .campo(Protocol.FIELD_COMPRESION, compresion);
+        if (Protocol.COMPRESION_DEFLATE.equals(compresion)) {
+            json.campo(Protocol.FIELD_UMBRAL, EscritorTramas.UMBRAL);
+        }
+        return json.finObjeto().finObjeto().terminarMensaje();
+    }
+    
+    /**
+     * Atiende una solicitud recibida del cliente: la procesa en el thread actual
+     * o, si trae requestId, la despacha al ejecutor de trabajo
+     * Espera un permiso si hay MAX_EN_VUELO en curso: solo para transportes
+     * con un thread lector propio por conexión
+     */
+    protected void despachar(Solicitud solicitud) {
+        if (enSecuencia(solicitud)) {
+            responder(solicitud);
+            return;
+        }
+        
+        try {
+            enVuelo.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        ejecutarEnParalelo(solicitud);
+    }
+    
+    /**
+     * Como despachar, pero sin esperar nunca un permiso (transportes que
+     * atienden muchas conexiones con pocos threads)
+     * @return false si la solicitud va en paralelo y no quedan permisos: no se
+     *         despachó y el transporte la reintenta tras permisoLiberado()
+     */
+    protected boolean intentarDespachar(Solicitud solicitud) {
+        if (enSecuencia(solicitud)) {
+            responder(solicitud);
+            return true;
+        }
+        if (!enVuelo.tryAcquire()) {
+            return false;
+        }
+        ejecutarEnParalelo(solicitud);
+        return true;
+    }
+    
+    /**
+     * Se llama al terminar cada solicitud despachada en paralelo, ya devuelto su permiso
+     */
+    protected void permisoLiberado() {
+    }
+    
+    protected boolean hayPermisoLibre() {
+        return enVuelo.availablePermits() > 0;
+    }
+    
+    private static boolean enSecuencia(Solicitud solicitud) {
+        return solicitud.getRequestId() == null || !solicitud.isValida();
+    }
+    
+    /**
+     * Despacha al ejecutor de trabajo una solicitud que ya tomó su permiso
+     */
+    private void ejecutarEnParalelo(Solicitud solicitud) {
+        try {
+            ejecutor.execute(() -> {
+                try {
+                    responder(solicitud);
+                } finally {
+                    enVuelo.release();
+                    permisoLiberado();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // El servidor se está deteniendo
+            enVuelo.release();
+        }
+    }
+    
+    /**
+     * Procesa una solicitud y escribe su respuesta
+     */
+    private void responder(Solicitud solicitud) {
+        long inicio = System.nanoTime();
+        MensajeSalida respuesta;
+        try {
+            respuesta = service.procesarSolicitud(solicitud, this);
+            
+        } catch (Exception e) {
+            System.err.println("Error al procesar mensaje: " + e.getMessage());
+            e.printStackTrace();
+            respuesta = service.crearRespuestaError(solicitud, "Error al procesar solicitud: " + e.getMessage());
+        }
+        
+        long nanosEscritura = 0;
+        if (respuesta != null && activo) {
+            long inicioEscritura = System.nanoTime();
+            escribir(respuesta);
+            nanosEscritura = System.nanoTime() - inicioEscritura;
+            System.out.println("Respuesta enviada: " + respuesta);
+        }
+        service.getMetricas().registrarEscritura(solicitud, nanosEscritura, System.nanoTime() - inicio);
+    }
+    
+    /**
+     * Encola una respuesta para el cliente (espera si la cola está llena)
+     */
+    protected void escribir(MensajeSalida mensaje) {
+        if (colaSalida.encolar(mensaje)) {
+            salidaPendiente();
+        } else {
+            cerrarPorDesborde();
+        }
+    }
+    
+    /**
+     * Envía una respuesta en fragmentos, incluido su RESPONSE_END
+     * En el thread propio de la conexión espera lugar en la salida como
+     * cualquier respuesta. En threads compartidos no espera nunca: con la
+     * salida congestionada la respuesta queda detenida y el transporte la
+     * retoma con retomarTransmisiones() cuando vacía la salida; si la
+     * solicitud no trae requestId, mientras tanto no se atiende la siguiente
+     * (isTransmitiendoEnSecuencia)
+     */
+    public void transmitir(Solicitud solicitud, Fragmentos fragmentos) {
+        boolean secuencial = enSecuencia(solicitud);
+        if (secuencial && procesaEnThreadPropio()) {
+            while (activo && !fragmentos.terminada()) {
+                escribir(fragmentos.siguiente());
+            }
+            return;
+        }
+        if (secuencial) {
+            transmitiendoEnSecuencia = true;
+        }
+        continuar(new Transmision(fragmentos, secuencial));
+    }
+    
+    /**
+     * Produce fragmentos mientras haya lugar en la salida; si se congestiona,
+     * deja la transmisión en detenidas y vuelve sin esperar
+     */
+    private void continuar(Transmision transmision) {
+        while (activo && !transmision.fragmentos.terminada()) {
+            if (colaSalida.isCongestionada()) {
+                detenidas.add(transmision);
+                // El escritor pudo vaciar la salida antes de que se agregara
+                if (colaSalida.isCongestionada() || !detenidas.remove(transmision)) {
+                    return;
+                }
+                continue;
+            }
+            escribir(transmision.fragmentos.siguiente());
+        }
+        if (transmision.secuencial) {
+            transmitiendoEnSecuencia = false;
+            secuenciaLiberada();
+        }
+    }
+    
+    /**
+     * Retoma en el ejecutor de trabajo las respuestas en fragmentos detenidas,
+     * si la salida ya no está congestionada (lo llama el escritor del transporte)
+     */
+    protected void retomarTransmisiones() {
+        if (detenidas.isEmpty()) {
+            return;
+        }
+        Transmision transmision;
+        while (!colaSalida.isCongestionada() && (transmision = detenidas.poll()) != null) {
+            Transmision retomada = transmision;
+            try {
+                ejecutor.execute(() -> continuar(retomada));
+            } catch (RejectedExecutionException e) {
+                // El servidor se está deteniendo
+                return;
+            }
+        }
+    }
+    
+    protected boolean isTransmitiendoEnSecuencia() {
+        return transmitiendoEnSecuencia;
+    }
+    
+    /**
+     * Se llama al terminar una respuesta en fragmentos a una solicitud sin requestId
+     */
+    protected void secuenciaLiberada() {
+    }
+    
+    /**
+     * Envía una notificación asíncrona al cliente
+     */
+    public void enviarNotificacion(MensajeSalida notificacion) {
+        enviarNotificacion(notificacion, false);
+    }
+    
+    /**
+     * Envía una notificación asíncrona al cliente sin esperar nunca
+     * La escribe en el encuadre de la conexión en el thread que notifica, no en el escritor
+     * @param descartable true si puede perderse cuando el cliente no da abasto (presencia)
+     */
+    public void enviarNotificacion(MensajeSalida notificacion, boolean descartable) {
+        if (!activo) {
+            return;
+        }
+        notificacion.preparar(binario);
+        if (colaSalida.encolarNotificacion(notificacion, descartable)) {
+            salidaPendiente();
+            System.out.println("Notificación enviada a " + sesion.getUsuarioId() + ": " + notificacion);
+        } else {
+            cerrarPorDesborde();
+        }
+    }
+    
+    /**
+     * Cierra una conexión cuyo cliente no consume lo que se le envía
+     * Deja de atenderla enseguida (quien espera lugar en la cola sale y lo
+     * pendiente se abandona); el logout accede a la base de datos, así que
+     * el resto del cierre no corre en quien notifica
+     */
+    private void cerrarPorDesborde() {
+        if (!activo) {
+            return;
+        }
+        System.err.println("Cola de salida desbordada para " + sesion.getIpAddress() + ", cerrando conexión");
+        activo = false;
+        colaSalida.cerrar();
+        try {
+            ejecutor.execute(this::cerrar);
+        } catch (RejectedExecutionException e) {
+            cerrar();
+        }
+    }
+    
+    /**
+     * Cierra la conexión con el cliente
+     * Solo la primera llamada tiene efecto
+     */
+    public void cerrar() {
+        if (!cerrada.compareAndSet(false, true)) {
+            return;
+        }
+        activo = false;
+        String usuarioId = sesion.getUsuarioId();
+        String rol = sesion.getRol();
+        sesion.terminar();
+        
+        // Remover del registro de clientes del servidor
+        boolean ultimaSesion = server.removerCliente(this, usuarioId, rol);
+        
+        // Si había un usuario logueado y no le quedan otras sesiones, hacer logout
+        if (ultimaSesion) {
+            try {
+                service.registrarLogout(usuarioId);
+                
+                // Notificar a otros clientes
+                MensajeSalida notificacion = server.getNotificationManager()
+                    .crearNotificacionLogout(usuarioId);
+                server.notificarPresencia(notificacion, this);
+                
+            } catch (Exception e) {
+                System.err.println("Error al hacer logout: " + e.getMessage());
+            }
+        }
+        
+        colaSalida.cerrar();
+        cerrarTransporte();
+        
+        System.out.println("Conexión cerrada para usuario: " + usuarioId);
+    }
+    
+    /**
+     * Getters
+     */
+    public String getUsuarioId() {
+        return sesion.getUsuarioId();
+    }
+    
+    public Sesion getSesion() {
+        return sesion;
+    }
+    
+    public Server getServer() {
+        return server;
+    }
+    
+    public boolean isActivo() {
+        return activo;
+    }
+    
+    private record Transmision(Fragmentos fragmentos, boolean secuencial) {
+    }
+}
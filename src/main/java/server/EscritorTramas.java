@@ -0,0 +1,113 @@
+package server;
+
+import service.MensajeSalida;
+import service.Protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Codifica los mensajes salientes de una conexión según su encuadre:
+ *   - líneas: el JSON en UTF-8 seguido de '\n' (por defecto)
+ *   - binario: [int32 largo del payload][flags][payload MessagePack]
+ * El JSON o el MessagePack ya vienen escritos en el MensajeSalida (por
+ * JsonWriter); aquí solo se encuadran
+ *
+ * Con compresión negociada, las tramas de al menos UMBRAL bytes van con
+ * FLAG_DEFLATE y el payload comprimido. El deflate es uno solo por conexión
+ * (raw, con DICCIONARIO_COMPRESION de Protocol como diccionario inicial) y
+ * cada trama termina en SYNC_FLUSH: las claves y nombres repetidos se
+ * comprimen también contra los mensajes anteriores. El cliente debe
+ * inflar las tramas comprimidas en orden con un único Inflater
+ *
+ * El encuadre cambia cuando el escritor saca de la ColaSalida la marca
+ * CAMBIO_A_BINARIO, justo detrás de la respuesta a NEGOCIAR_ENCUADRE
+ * Lo usa solo el escritor de la conexión
+ */
+class EscritorTramas {
+
+    static final int CABECERA = 5;
+    static final byte FLAG_DEFLATE = 0x01;
+
+    static final int UMBRAL = Integer.getInteger("server.compresion.umbral", 512);
+    private static final int NIVEL = Integer.getInteger("server.compresion.nivel", Deflater.DEFAULT_COMPRESSION);
+    private static final byte[] DICCIONARIO = Protocol.DICCIONARIO_COMPRESION.getBytes(StandardCharsets.UTF_8);
+
+    private final MetricasCompresion metricas;
+    private boolean binario;
+
+    // La marca el thread lector antes de encolar CAMBIO_A_BINARIO; el escritor la lee al sacarla
+    private volatile boolean compresionNegociada;
+    private Deflater deflater;
+    private byte[] comprimido;
+
+    EscritorTramas(MetricasCompresion metricas) {
+        this.metricas = metricas;
+    }
+
+    void negociarCompresion() {
+        compresionNegociada = true;
+    }
+
+    void cambiarABinario() {
+        binario = true;
+        if (compresionNegociada) {
+            deflater = new Deflater(NIVEL, true);
+            deflater.setDictionary(DICCIONARIO);
+            comprimido = new byte[8192];
+        }
+    }
+
+    /**
+     * @return los bytes a escribir en el socket para el mensaje, listos para leer
+     */
+    ByteBuffer codificar(MensajeSalida mensaje) {
+        if (!binario) {
+            return ByteBuffer.wrap((mensaje.getJson() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] payload = mensaje.getMsgPack();
+        int largo = payload.length;
+        if (deflater == null) {
+            return trama(payload, largo, (byte) 0);
+        }
+        if (largo < UMBRAL) {
+            metricas.registrarBajoUmbral();
+            return trama(payload, largo, (byte) 0);
+        }
+
+        long inicio = System.nanoTime();
+        int largoComprimido = comprimir(payload, largo);
+        metricas.registrarComprimido(largo, largoComprimido, System.nanoTime() - inicio);
+        return trama(comprimido, largoComprimido, FLAG_DEFLATE);
+    }
+
+    /**
+     * Libera el deflate; se llama cuando el escritor ya no va a codificar más
+     */
+    void liberar() {
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    private int comprimir(byte[] datos, int largo) {
+        deflater.setInput(datos, 0, largo);
+        int total = 0;
+        while (true) {
+            total += deflater.deflate(comprimido, total, comprimido.length - total, Deflater.SYNC_FLUSH);
+            // Con SYNC_FLUSH, si sobró lugar en la salida ya se volcó todo
+            if (total < comprimido.length) {
+                return total;
+            }
+            comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+        }
+    }
+
+    private static ByteBuffer trama(byte[] payload, int largo, byte flags) {
+        ByteBuffer trama = ByteBuffer.allocate(CABECERA + largo);
+        trama.putInt(largo).put(flags).put(payload, 0, largo);
+        return trama.flip();
+    }
+}
@@ -0,0 +1,22 @@
+package server;
+
+import service.MensajeSalida;
+
+/**
+ * Respuesta en fragmentos que se produce de a un mensaje por vez, para que
+ * la conexión pueda detenerla mientras el cliente no lee y retomarla después
+ * sin ocupar un thread (ver Conexion.transmitir)
+ */
+public interface Fragmentos {
+
+    /**
+     * Produce el siguiente mensaje: un RESPONSE_CHUNK o, al final, el RESPONSE_END
+     * No lanza excepciones: un error termina la respuesta con un RESPONSE_END de error
+     */
+    MensajeSalida siguiente();
+
+    /**
+     * @return true si ya se produjo el RESPONSE_END
+     */
+    boolean terminada();
+}
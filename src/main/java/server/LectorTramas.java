@@ -0,0 +1,133 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Separa en mensajes los bytes recibidos de un cliente
+ * Empieza en el encuadre por líneas (JSON terminado en '\n'); si el primer
+ * mensaje negocia el encuadre binario (NEGOCIAR_ENCUADRE), lo que sigue son
+ * tramas [int32 largo][flags][payload MessagePack] (ver EscritorTramas)
+ * Las líneas se entregan como texto y las tramas como sus bytes, que la
+ * conexión decodifica con Service.decodificar sin pasar por JSON
+ *
+ * Lo usa solo el thread lector de la conexión (o su event loop)
+ */
+class LectorTramas {
+
+    // Tamaño máximo de una línea o trama; protege de clientes que nunca la terminan
+    static final int MAX_MENSAJE = 16 * 1024 * 1024;
+
+    private final Conexion conexion;
+    private boolean binario;
+    private boolean primero = true;
+
+    // Bytes del mensaje en curso
+    private byte[] mensaje = new byte[1024];
+    private int largo;
+    // Encuadre binario: largo del payload de la trama en curso, o -1 si falta la cabecera
+    private int largoTrama = -1;
+
+    LectorTramas(Conexion conexion) {
+        this.conexion = conexion;
+    }
+
+    /**
+     * Consume los bytes disponibles del buffer y entrega a la conexión
+     * cada mensaje completo
+     * @return false si la entrada no es válida y la conexión debe cerrarse
+     */
+    boolean leer(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            boolean valido = binario ? leerTrama(buffer) : leerLinea(buffer);
+            if (!valido) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean leerLinea(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                int largoLinea = largo;
+                if (largoLinea > 0 && mensaje[largoLinea - 1] == '\r') {
+                    largoLinea--;
+                }
+                String linea = new String(mensaje, 0, largoLinea, StandardCharsets.UTF_8);
+                largo = 0;
+                entregar(linea);
+                // Tras negociar el encuadre binario el resto del buffer ya son tramas
+                return true;
+            }
+            if (!agregar(b)) {
+                System.err.println("Línea demasiado larga desde " + conexion.getSesion().getIpAddress());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean leerTrama(ByteBuffer buffer) {
+        if (largoTrama < 0) {
+            // Cabecera: 4 bytes de largo y 1 de flags
+            while (largo < EscritorTramas.CABECERA && buffer.hasRemaining()) {
+                mensaje[largo++] = buffer.get();
+            }
+            if (largo < EscritorTramas.CABECERA) {
+                return true;
+            }
+            largoTrama = ByteBuffer.wrap(mensaje, 0, 4).getInt();
+            byte flags = mensaje[4];
+            largo = 0;
+            if (largoTrama < 0 || largoTrama > MAX_MENSAJE) {
+                System.err.println("Trama de " + largoTrama + " bytes desde " + conexion.getSesion().getIpAddress());
+                return false;
+            }
+            if (flags != 0) {
+                System.err.println("Flags de trama no soportados (" + flags + ") desde "
+                                   + conexion.getSesion().getIpAddress());
+                return false;
+            }
+            if (mensaje.length < largoTrama) {
+                mensaje = new byte[Math.max(largoTrama, mensaje.length * 2)];
+            }
+        }
+
+        int copiar = Math.min(buffer.remaining(), largoTrama - largo);
+        buffer.get(mensaje, largo, copiar);
+        largo += copiar;
+        if (largo < largoTrama) {
+            return true;
+        }
+
+        // La solicitud se queda con la trama: el buffer se reutiliza para la siguiente
+        byte[] trama = Arrays.copyOf(mensaje, largoTrama);
+        largo = 0;
+        largoTrama = -1;
+        conexion.recibir(trama);
+        return true;
+    }
+
+    private void entregar(String texto) {
+        if (primero) {
+            primero = false;
+            binario = conexion.recibirPrimerMensaje(texto);
+        } else {
+            conexion.recibir(texto);
+        }
+    }
+
+    private boolean agregar(byte b) {
+        if (largo == mensaje.length) {
+            if (mensaje.length >= MAX_MENSAJE) {
+                return false;
+            }
+            mensaje = Arrays.copyOf(mensaje, Math.min(mensaje.length * 2, MAX_MENSAJE));
+        }
+        mensaje[largo++] = b;
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de la compresión de tramas de todas las conexiones del servidor
+ * Los escritores de cada conexión suman sin contención (LongAdder)
+ *
+ *   - relación: bytes comprimidos / bytes originales de las tramas comprimidas
+ *   - costo: tiempo de deflate en el escritor (trabajo de CPU, sin I/O)
+ */
+public class MetricasCompresion {
+
+    private final LongAdder comprimidos = new LongAdder();
+    private final LongAdder bajoUmbral = new LongAdder();
+    private final LongAdder bytesOriginales = new LongAdder();
+    private final LongAdder bytesComprimidos = new LongAdder();
+    private final LongAdder nanosCompresion = new LongAdder();
+
+    void registrarComprimido(int original, int comprimido, long nanos) {
+        comprimidos.increment();
+        bytesOriginales.add(original);
+        bytesComprimidos.add(comprimido);
+        nanosCompresion.add(nanos);
+    }
+
+    void registrarBajoUmbral() {
+        bajoUmbral.increment();
+    }
+
+    public long getMensajesComprimidos() {
+        return comprimidos.sum();
+    }
+
+    public long getMensajesBajoUmbral() {
+        return bajoUmbral.sum();
+    }
+
+    public long getBytesOriginales() {
+        return bytesOriginales.sum();
+    }
+
+    public long getBytesComprimidos() {
+        return bytesComprimidos.sum();
+    }
+
+    public long getNanosCompresion() {
+        return nanosCompresion.sum();
+    }
+
+    /**
+     * Bytes comprimidos por byte original (0 si todavía no se comprimió nada)
+     */
+    public double getRelacion() {
+        long originales = bytesOriginales.sum();
+        return originales == 0 ? 0 : (double) bytesComprimidos.sum() / originales;
+    }
+
+    /**
+     * Microsegundos de deflate por mensaje comprimido
+     */
+    public double getMicrosPorMensaje() {
+        long mensajes = comprimidos.sum();
+        return mensajes == 0 ? 0 : nanosCompresion.sum() / 1000.0 / mensajes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Compresión: %d tramas comprimidas (%d bajo el umbral), %d -> %d bytes "
+                             + "(relación %.2f), %.1f µs por trama",
+                             getMensajesComprimidos(), getMensajesBajoUmbral(), getBytesOriginales(),
+                             getBytesComprimidos(), getRelacion(), getMicrosPorMensaje());
+    }
+}
@@ -0,0 +1,31 @@
+package server;
+
+/**
+ * Motor de red con el que se atienden las conexiones
+ */
+public enum ModoServidor {
+    
+    // Un thread de plataforma por conexión, con lectura bloqueante
+    HILOS,
+    
+    // Un thread virtual por conexión: mismo código bloqueante, sin un stack
+    // de sistema operativo por cliente (las llamadas a los DAOs también
+    // corren en el thread virtual de la conexión)
+    VIRTUAL,
+    
+    // Event loops con Selector y un executor de trabajo (NioServer)
+    NIO;
+    
+    /**
+     * Obtiene el modo a partir de su nombre (sin distinguir mayúsculas)
+     * @throws IllegalArgumentException si el nombre no corresponde a ningún modo
+     */
+    public static ModoServidor desde(String nombre) {
+        for (ModoServidor modo : values()) {
+            if (modo.name().equalsIgnoreCase(nombre.trim())) {
+                return modo;
+            }
+        }
+        throw new IllegalArgumentException("Modo de servidor no válido: " + nombre);
+    }
+}
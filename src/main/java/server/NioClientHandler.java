@@ -0,0 +1,314 @@
+package server;
+
+import service.MensajeSalida;
+import service.Service;
+import service.Solicitud;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conexión de un cliente atendida por el motor NIO
+ * El event loop separa los mensajes (líneas terminadas en '\n' o tramas
+ * binarias, ver LectorTramas) sin bloquear; cada uno
+ * se procesa en el executor de trabajo, en orden, de a una por conexión
+ * (salvo las que traen requestId, que Conexion despacha en paralelo).
+ * Las respuestas y notificaciones van a la ColaSalida y las escribe el event loop
+ *
+ * Los trabajadores son pocos y compartidos: nunca esperan por una conexión
+ *   - sin permisos para otra solicitud en paralelo, o con la salida
+ *     congestionada, el trabajador se detiene y la conexión se retoma cuando
+ *     termina una solicitud o el event loop vacía la salida
+ *   - una respuesta en fragmentos se detiene con la salida congestionada y
+ *     el event loop la retoma al vaciarla (Conexion.transmitir); si su
+ *     solicitud no trae requestId, la siguiente espera a que termine
+ *   - con MAX_PENDIENTES mensajes sin procesar el event loop deja de leer el
+ *     canal (se pasa a lo sumo por los mensajes de la última lectura) y vuelve
+ *     a leer cuando quedan la mitad; el cliente recibe la contrapresión por TCP
+ */
+public final class NioClientHandler extends Conexion {
+
+    private static final int MAX_PENDIENTES = Integer.getInteger("server.nio.maxPendientes", 64);
+
+    private final SocketChannel canal;
+    private final NioServer.EventLoop loop;
+    private final Executor trabajadores;
+    private SelectionKey key;
+
+    // Separa los mensajes recibidos (solo lo usa el event loop, igual que el escritor)
+    private final LectorTramas lector;
+
+    // Mensajes recibidos pendientes de procesar, en orden de llegada: líneas
+    // (String) o tramas del encuadre binario (byte[])
+    private final Queue<Object> pendientes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger cantidadPendientes = new AtomicInteger();
+    private final AtomicBoolean lecturaSuspendida = new AtomicBoolean();
+    private final AtomicBoolean procesando = new AtomicBoolean();
+
+    // Solicitud que esperaba un permiso cuando se detuvo el procesamiento
+    // (la toca solo quien tiene "procesando")
+    private Solicitud retenida;
+    // El procesamiento se detuvo por falta de permisos, por la salida congestionada
+    // o por una respuesta en fragmentos sin requestId en curso
+    private volatile boolean detenido;
+
+    // Mensaje que se está escribiendo al canal (solo lo usa el event loop)
+    private ByteBuffer escribiendo;
+    private final AtomicBoolean escrituraProgramada = new AtomicBoolean();
+
+    public NioClientHandler(SocketChannel canal, NioServer.EventLoop loop, Executor trabajadores,
+                            Server server, Service service) throws IOException {
+        super(server, service, trabajadores, canal.socket().getInetAddress().getHostAddress());
+        this.canal = canal;
+        this.loop = loop;
+        this.trabajadores = trabajadores;
+        this.lector = new LectorTramas(this);
+    }
+
+    /**
+     * Registra el canal en el selector del event loop (se llama desde el loop)
+     */
+    void registrar(Selector selector) throws IOException {
+        key = canal.register(selector, SelectionKey.OP_READ, this);
+        System.out.println("NioClientHandler iniciado para: " + sesion.getIpAddress());
+    }
+
+    /**
+     * Lee lo disponible en el canal y separa los mensajes completos (event loop)
+     */
+    void leer(ByteBuffer buffer) {
+        try {
+            buffer.clear();
+            int leidos = canal.read(buffer);
+            if (leidos < 0) {
+                cerrarDesdeLoop();
+                return;
+            }
+            buffer.flip();
+
+            if (!lector.leer(buffer)) {
+                cerrarDesdeLoop();
+            }
+        } catch (IOException e) {
+            if (activo) {
+                System.err.println("Error en NioClientHandler: " + e.getMessage());
+            }
+            cerrarDesdeLoop();
+        }
+    }
+
+    @Override
+    protected void recibir(String mensaje) {
+        System.out.println("Mensaje recibido: " + mensaje);
+        encolar(mensaje);
+    }
+
+    @Override
+    protected void recibir(byte[] trama) {
+        System.out.println("Trama recibida: " + trama.length + " bytes");
+        encolar(trama);
+    }
+
+    /**
+     * Encola un mensaje recibido y asegura que haya un trabajador procesando (event loop)
+     */
+    private void encolar(Object mensaje) {
+        pendientes.add(mensaje);
+        if (cantidadPendientes.incrementAndGet() >= MAX_PENDIENTES && lecturaSuspendida.compareAndSet(false, true)) {
+            actualizarLectura();
+            // El trabajador pudo vaciar la cola antes de que se marcara la suspensión
+            if (cantidadPendientes.get() <= MAX_PENDIENTES / 2 && lecturaSuspendida.compareAndSet(true, false)) {
+                actualizarLectura();
+            }
+        }
+        if (!detenido && procesando.compareAndSet(false, true)) {
+            trabajadores.execute(this::procesarPendientes);
+        }
+    }
+
+    /**
+     * Procesa los mensajes pendientes en orden (executor de trabajo)
+     * Las que traen requestId se despachan en paralelo si hay permiso; si no,
+     * o si la salida está congestionada, se detiene sin esperar
+     */
+    private void procesarPendientes() {
+        do {
+            detenido = false;
+            while (activo) {
+                if (colaSalida.isCongestionada() || isTransmitiendoEnSecuencia()) {
+                    detenido = true;
+                    break;
+                }
+                Solicitud solicitud = retenida;
+                if (solicitud == null) {
+                    Object mensaje = pendientes.poll();
+                    if (mensaje == null) {
+                        break;
+                    }
+                    mensajeTomado();
+                    solicitud = mensaje instanceof byte[] trama
+                        ? service.decodificar(trama) : service.decodificar((String) mensaje);
+                }
+                if (!intentarDespachar(solicitud)) {
+                    retenida = solicitud;
+                    detenido = true;
+                    break;
+                }
+                retenida = null;
+            }
+            procesando.set(false);
+            // Un mensaje, un permiso o lugar en la salida pudo llegar entre el último chequeo y el set(false)
+        } while (activo && puedeSeguir() && procesando.compareAndSet(false, true));
+    }
+
+    private boolean puedeSeguir() {
+        if (colaSalida.isCongestionada() || isTransmitiendoEnSecuencia()) {
+            return false;
+        }
+        return retenida != null ? hayPermisoLibre() : !pendientes.isEmpty();
+    }
+
+    /**
+     * Retoma el procesamiento detenido (al liberarse un permiso, terminar una
+     * respuesta en fragmentos o vaciarse la salida)
+     */
+    private void reanudar() {
+        if (detenido && activo && procesando.compareAndSet(false, true)) {
+            trabajadores.execute(this::procesarPendientes);
+        }
+    }
+
+    @Override
+    protected void permisoLiberado() {
+        reanudar();
+    }
+
+    @Override
+    protected void secuenciaLiberada() {
+        reanudar();
+    }
+
+    @Override
+    protected boolean procesaEnThreadPropio() {
+        return false;
+    }
+
+    /**
+     * Descuenta un mensaje sacado de pendientes; si la lectura estaba
+     * suspendida y ya se procesó la mitad, le pide al event loop que siga leyendo
+     */
+    private void mensajeTomado() {
+        if (cantidadPendientes.decrementAndGet() <= MAX_PENDIENTES / 2 && lecturaSuspendida.compareAndSet(true, false)) {
+            loop.ejecutar(this::actualizarLectura);
+        }
+    }
+
+    /**
+     * Aplica lecturaSuspendida a OP_READ (event loop); como lee el estado
+     * actual, no importa si llega tarde
+     */
+    private void actualizarLectura() {
+        if (key != null && key.isValid()) {
+            if (lecturaSuspendida.get()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    @Override
+    protected void salidaPendiente() {
+        if (escrituraProgramada.compareAndSet(false, true)) {
+            loop.ejecutar(this::activarEscritura);
+        }
+    }
+
+    private void activarEscritura() {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Escribe lo pendiente hasta vaciar la cola o llenar el buffer del socket (event loop)
+     */
+    void escribirPendiente() {
+        try {
+            while (true) {
+                if (escribiendo == null) {
+                    MensajeSalida mensaje = colaSalida.sacar();
+                    if (mensaje == null) {
+                        break;
+                    }
+                    if (detenido && !colaSalida.isCongestionada()) {
+                        reanudar();
+                    }
+                    retomarTransmisiones();
+                    if (mensaje == ColaSalida.CAMBIO_A_BINARIO) {
+                        escritor.cambiarABinario();
+                        continue;
+                    }
+                    escribiendo = escritor.codificar(mensaje);
+                }
+                canal.write(escribiendo);
+                if (escribiendo.hasRemaining()) {
+                    // Socket lleno: se sigue cuando vuelva a estar escribible
+                    return;
+                }
+                escribiendo = null;
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            escrituraProgramada.set(false);
+
+            // Algo pudo encolarse mientras se desactivaba OP_WRITE
+            if (!colaSalida.isVacia() && escrituraProgramada.compareAndSet(false, true)) {
+                activarEscritura();
+            }
+        } catch (IOException e) {
+            if (activo) {
+                System.err.println("Error al escribir a " + sesion.getIpAddress() + ": " + e.getMessage());
+            }
+            cerrarDesdeLoop();
+        }
+    }
+
+    /**
+     * Deja de atender el canal y delega el cierre al executor de trabajo,
+     * porque el logout accede a la base de datos y no debe bloquear el event loop
+     */
+    private void cerrarDesdeLoop() {
+        key.cancel();
+        trabajadores.execute(this::cerrar);
+    }
+
+    /**
+     * Cierra el canal; el escritor lo libera el event loop, que es su único
+     * usuario, cuando la clave cancelada ya no puede volver a escribir
+     */
+    @Override
+    protected void cerrarTransporte() {
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            canal.close();
+        } catch (IOException e) {
+            System.err.println("Error al cerrar conexión: " + e.getMessage());
+        }
+        loop.ejecutar(this::liberarEscritor);
+    }
+
+    private void liberarEscritor() {
+        escribiendo = null;
+        escritor.liberar();
+    }
+}
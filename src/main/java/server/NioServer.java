@@ -0,0 +1,213 @@
+package server;
+
+import service.Service;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motor de red basado en NIO (ServerSocketChannel + Selector)
+ * Unos pocos event loops atienden todas las conexiones sin bloquear y
+ * entregan cada línea decodificada a un executor de trabajo que ejecuta
+ * Service.procesarSolicitud. Mantiene el protocolo de líneas JSON,
+ * por lo que los clientes actuales funcionan sin cambios
+ *
+ * Propiedades del sistema: server.nio.hilosIO, server.nio.trabajadores y
+ * server.nio.trabajadoresVirtuales (un thread virtual por tarea en lugar
+ * del pool fijo, para que las llamadas bloqueantes a los DAOs no consuman
+ * threads de plataforma)
+ */
+public class NioServer {
+
+    private static final int HILOS_IO = Integer.getInteger("server.nio.hilosIO",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int TRABAJADORES = Integer.getInteger("server.nio.trabajadores", 32);
+    private static final boolean TRABAJADORES_VIRTUALES = Boolean.getBoolean("server.nio.trabajadoresVirtuales");
+
+    private final Server server;
+    private final Service service;
+    private final int puerto;
+    private final EventLoop[] loops;
+    private final ExecutorService trabajadores;
+    private ServerSocketChannel canalServidor;
+    private volatile boolean running;
+
+    public NioServer(Server server, Service service, int puerto) {
+        this.server = server;
+        this.service = service;
+        this.puerto = puerto;
+        this.loops = new EventLoop[HILOS_IO];
+
+        if (TRABAJADORES_VIRTUALES) {
+            this.trabajadores = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("nio-trabajador-", 1).factory());
+        } else {
+            AtomicInteger contador = new AtomicInteger();
+            this.trabajadores = Executors.newFixedThreadPool(TRABAJADORES, r -> {
+                Thread t = new Thread(r, "nio-trabajador-" + contador.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Inicia los event loops y acepta conexiones (bloquea el thread que lo llama)
+     */
+    public void iniciar() throws IOException {
+        canalServidor = ServerSocketChannel.open();
+        canalServidor.bind(new InetSocketAddress(puerto));
+        running = true;
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread t = new Thread(loops[i], "nio-io-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+
+        System.out.println("=================================");
+        System.out.println("Servidor NIO iniciado en puerto " + puerto);
+        System.out.println("Event loops: " + loops.length + ", trabajadores: " +
+                (TRABAJADORES_VIRTUALES ? "virtuales" : String.valueOf(TRABAJADORES)));
+        System.out.println("Esperando conexiones...");
+        System.out.println("=================================");
+
+        // Las conexiones se reparten entre los event loops en round-robin
+        int siguiente = 0;
+        while (running) {
+            try {
+                SocketChannel canal = canalServidor.accept();
+                canal.configureBlocking(false);
+                canal.socket().setTcpNoDelay(true);
+
+                System.out.println("Nueva conexión desde: " + canal.socket().getInetAddress().getHostAddress());
+
+                EventLoop loop = loops[siguiente];
+                siguiente = (siguiente + 1) % loops.length;
+
+                NioClientHandler handler = new NioClientHandler(canal, loop, trabajadores, server, service);
+                server.agregarCliente(handler);
+                loop.ejecutar(() -> {
+                    try {
+                        handler.registrar(loop.selector);
+                    } catch (IOException e) {
+                        System.err.println("Error al registrar cliente: " + e.getMessage());
+                        trabajadores.execute(handler::cerrar);
+                    }
+                });
+
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error al aceptar cliente: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Detiene la aceptación, los event loops y el executor de trabajo
+     */
+    public void detener() {
+        running = false;
+        try {
+            if (canalServidor != null) {
+                canalServidor.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error al cerrar servidor NIO: " + e.getMessage());
+        }
+
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.detener();
+            }
+        }
+
+        trabajadores.shutdown();
+        try {
+            trabajadores.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Thread de I/O: selecciona canales listos, lee y escribe sin bloquear
+     * Los demás threads le piden trabajo con ejecutar(), que despierta al selector
+     */
+    static class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer bufferLectura = ByteBuffer.allocateDirect(64 * 1024);
+        private volatile boolean activo = true;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Ejecuta la tarea en el thread del event loop
+         */
+        void ejecutar(Runnable tarea) {
+            tareas.add(tarea);
+            selector.wakeup();
+        }
+
+        void detener() {
+            activo = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (activo) {
+                try {
+                    selector.select();
+
+                    Runnable tarea;
+                    while ((tarea = tareas.poll()) != null) {
+                        tarea.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        NioClientHandler handler = (NioClientHandler) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            handler.leer(bufferLectura);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handler.escribirPendiente();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error en event loop: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    System.err.println("Error inesperado en event loop: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar selector: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,76 +1,71 @@
 package server;
 
 import org.json.JSONObject;
+import service.JsonWriter;
+import service.MensajeSalida;
+
+import java.util.function.Consumer;
 
 /**
  * Gestiona la creación de notificaciones asíncronas
  * para enviar a los clientes
+ *
+ * Las notificaciones se escriben al enviarlas, en JSON o MessagePack según
+ * el encuadre de cada conexión y una sola vez por encuadre (MensajeSalida)
  */
 public class NotificationManager {
-    
+
     /**
      * Crea una notificación de login
      */
-    public String crearNotificacionLogin(String usuarioId, String nombre, String rol) {
-        JSONObject json = new JSONObject();
-        json.put("type", "NOTIFICATION");
-        json.put("action", "USER_LOGIN");
-        
-        JSONObject data = new JSONObject();
-        data.put("usuarioId", usuarioId);
-        data.put("nombre", nombre);
-        data.put("rol", rol);
-        
-        json.put("data", data);
-        
-        return json.toString();
+    public MensajeSalida crearNotificacionLogin(String usuarioId, String nombre, String rol) {
+        return crearNotificacion("USER_LOGIN", json -> json.objeto()
+            .campo("usuarioId", usuarioId)
+            .campo("nombre", nombre)
+            .campo("rol", rol)
+            .finObjeto());
     }
-    
+
     /**
      * Crea una notificación de logout
      */
-    public String crearNotificacionLogout(String usuarioId) {
-        JSONObject json = new JSONObject();
-        json.put("type", "NOTIFICATION");
-        json.put("action", "USER_LOGOUT");
-        
-        JSONObject data = new JSONObject();
-        data.put("usuarioId", usuarioId);
-        
-        json.put("data", data);
-        
-        return json.toString();
+    public MensajeSalida crearNotificacionLogout(String usuarioId) {
+        return crearNotificacion("USER_LOGOUT", json -> json.objeto()
+            .campo("usuarioId", usuarioId)
+            .finObjeto());
     }
-    
+
     /**
      * Crea una notificación de nuevo mensaje
      */
-    public String crearNotificacionMensaje(String remitenteId, String remitenteNombre, 
+    public MensajeSalida crearNotificacionMensaje(String remitenteId, String remitenteNombre,
                                           String destinatarioId, String texto) {
-        JSONObject json = new JSONObject();
-        json.put("type", "NOTIFICATION");
-        json.put("action", "NEW_MESSAGE");
-        
-        JSONObject data = new JSONObject();
-        data.put("remitenteId", remitenteId);
-        data.put("remitenteNombre", remitenteNombre);
-        data.put("destinatarioId", destinatarioId);
-        data.put("texto", texto);
-        
-        json.put("data", data);
-        
-        return json.toString();
+        return crearNotificacion("NEW_MESSAGE", json -> json.objeto()
+            .campo("remitenteId", remitenteId)
+            .campo("remitenteNombre", remitenteNombre)
+            .campo("destinatarioId", destinatarioId)
+            .campo("texto", texto)
+            .finObjeto());
     }
-    
+
     /**
      * Crea una notificación genérica
      */
-    public String crearNotificacion(String action, JSONObject data) {
-        JSONObject json = new JSONObject();
-        json.put("type", "NOTIFICATION");
-        json.put("action", action);
-        json.put("data", data);
-        
-        return json.toString();
+    public MensajeSalida crearNotificacion(String action, JSONObject data) {
+        return crearNotificacion(action, json -> json.valor(data));
+    }
+
+    /**
+     * Crea una notificación cuya data se escribe directamente en el JsonWriter
+     */
+    public MensajeSalida crearNotificacion(String action, Consumer<JsonWriter> data) {
+        return MensajeSalida.diferido(json -> {
+            json.objeto()
+                .campo("type", "NOTIFICATION")
+                .campo("action", action)
+                .campo("data");
+            data.accept(json);
+            json.finObjeto();
+        });
     }
 }
@@ -1,32 +1,91 @@
 package server;
 
+import service.MensajeSalida;
+import service.Service;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Servidor principal que escucha conexiones de clientes
- * Maneja múltiples clientes concurrentemente usando threads
+ * Maneja múltiples clientes concurrentemente usando threads (un thread de
+ * plataforma o virtual por conexión) o el motor NIO, según el ModoServidor
+ * elegido al iniciar
+ * 
+ * Los clientes viven en un ClientRegistry concurrente indexado por usuario y
+ * rol: los broadcasts lo recorren sin tomar ningún lock global y solo encolan
+ * en la ColaSalida de cada conexión; ningún broadcast escribe a un socket ni
+ * espera a un cliente lento
  */
 public class Server {
     
     private static final int PORT = 5000;
+    private static final int TRABAJADORES_PIPELINE = Integer.getInteger("server.pipeline.trabajadores", 32);
     private ServerSocket serverSocket;
-    private boolean running;
-    private List<ClientHandler> clientes;
+    private NioServer nioServer;
+    // Atiende las solicitudes con requestId en los modos de un thread por conexión
+    private ExecutorService ejecutorSolicitudes;
+    private volatile boolean running;
+    private final ClientRegistry clientes;
     private NotificationManager notificationManager;
+    private final Service service;
+    private final ModoServidor modo;
+    private final MetricasCompresion metricasCompresion = new MetricasCompresion();
     
-    public Server() {
-        clientes = new ArrayList<>();
+    public Server(Service service) {
+        this(service, ModoServidor.HILOS);
+    }
+    
+    public Server(Service service, ModoServidor modo) {
+        this.service = service;
+        this.modo = modo;
+        clientes = new ClientRegistry();
         notificationManager = new NotificationManager();
+        service.conectar(clientes, notificationManager);
     }
     
     /**
-     * Inicia el servidor
+     * Inicia el servidor con el motor de red configurado
      */
     public void iniciar() {
+        switch (modo) {
+            case NIO:
+                iniciarNio();
+                break;
+            case VIRTUAL:
+                ejecutorSolicitudes = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("solicitud-virtual-", 1).factory());
+                iniciarHilos(Thread.ofVirtual().name("cliente-virtual-", 1));
+                break;
+            default:
+                ejecutorSolicitudes = Executors.newFixedThreadPool(TRABAJADORES_PIPELINE,
+                    Thread.ofPlatform().name("solicitud-", 1).daemon(true).factory());
+                iniciarHilos(Thread.ofPlatform().name("cliente-", 1));
+        }
+    }
+    
+    /**
+     * Inicia el motor NIO (bloquea el thread que lo llama)
+     */
+    private void iniciarNio() {
+        try {
+            running = true;
+            nioServer = new NioServer(this, service, PORT);
+            nioServer.iniciar();
+        } catch (IOException e) {
+            System.err.println("Error al iniciar servidor: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Inicia el servidor con un thread por conexión, creado por el builder indicado
+     */
+    private void iniciarHilos(Thread.Builder hilos) {
         try {
             serverSocket = new ServerSocket(PORT);
             running = true;
@@ -44,18 +103,13 @@ public class Server {
                     System.out.println("Nueva conexión desde: " + clientSocket.getInetAddress().getHostAddress());
                     
                     // Crear un handler para este cliente
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+                    ClientHandler clientHandler = new ClientHandler(clientSocket, this, service, ejecutorSolicitudes);
                     
                     // Agregar a la lista de clientes
-                    synchronized (clientes) {
-                        clientes.add(clientHandler);
-                    }
+                    agregarCliente(clientHandler);
                     
                     // Iniciar el thread del cliente
-                    Thread clientThread = new Thread(clientHandler);
-                    clientThread.start();
-                    
-                    System.out.println("Total clientes conectados: " + clientes.size());
+                    hilos.start(clientHandler);
                     
                 } catch (IOException e) {
                     if (running) {
@@ -76,12 +130,17 @@ public class Server {
     public void detener() {
         running = false;
         
-        // Cerrar todas las conexiones de clientes
-        synchronized (clientes) {
-            for (ClientHandler cliente : clientes) {
-                cliente.cerrar();
-            }
-            clientes.clear();
+        // Cerrar todas las conexiones de clientes (cerrar() las remueve del registro)
+        for (Conexion cliente : clientes.getTodas()) {
+            cliente.cerrar();
+        }
+        clientes.limpiar();
+        
+        if (nioServer != null) {
+            nioServer.detener();
+        }
+        if (ejecutorSolicitudes != null) {
+            ejecutorSolicitudes.shutdown();
         }
         
         // Cerrar el server socket
@@ -93,17 +152,42 @@ public class Server {
             System.err.println("Error al cerrar servidor: " + e.getMessage());
         }
         
+        if (metricasCompresion.getMensajesComprimidos() > 0) {
+            System.out.println(metricasCompresion);
+        }
         System.out.println("Servidor detenido");
     }
     
     /**
-     * Elimina un cliente de la lista
+     * Agrega un cliente a la lista
      */
-    public void removerCliente(ClientHandler cliente) {
-        synchronized (clientes) {
-            clientes.remove(cliente);
-            System.out.println("Cliente desconectado. Total clientes: " + clientes.size());
-        }
+    public void agregarCliente(Conexion cliente) {
+        clientes.agregar(cliente);
+        System.out.println("Total clientes conectados: " + clientes.getTotal());
+    }
+    
+    /**
+     * Elimina un cliente del registro
+     * @return true si era la última sesión abierta de su usuario
+     */
+    public boolean removerCliente(Conexion cliente, String usuarioId, String rol) {
+        boolean ultimaSesion = clientes.remover(cliente, usuarioId, rol);
+        System.out.println("Cliente desconectado. Total clientes: " + clientes.getTotal());
+        return ultimaSesion;
+    }
+    
+    /**
+     * Obtiene el registro de clientes conectados
+     */
+    public ClientRegistry getRegistro() {
+        return clientes;
+    }
+    
+    /**
+     * Obtiene los contadores de compresión de tramas de todas las conexiones
+     */
+    public MetricasCompresion getMetricasCompresion() {
+        return metricasCompresion;
     }
     
     /**
@@ -116,47 +200,57 @@ public class Server {
     /**
      * Envía una notificación a todos los clientes conectados
      */
-    public void notificarATodos(String notificacion) {
-        synchronized (clientes) {
-            for (ClientHandler cliente : clientes) {
-                cliente.enviarNotificacion(notificacion);
-            }
+    public void notificarATodos(MensajeSalida notificacion) {
+        for (Conexion cliente : clientes.getTodas()) {
+            cliente.enviarNotificacion(notificacion);
         }
     }
     
     /**
      * Envía una notificación a todos excepto al remitente
      */
-    public void notificarATodosExcepto(String notificacion, ClientHandler remitente) {
-        synchronized (clientes) {
-            for (ClientHandler cliente : clientes) {
-                if (cliente != remitente) {
-                    cliente.enviarNotificacion(notificacion);
-                }
+    public void notificarATodosExcepto(MensajeSalida notificacion, Conexion remitente) {
+        for (Conexion cliente : clientes.getTodas()) {
+            if (cliente != remitente) {
+                cliente.enviarNotificacion(notificacion);
             }
         }
     }
     
     /**
-     * Envía una notificación a un cliente específico
+     * Envía una notificación de presencia (login/logout) a todos excepto al remitente
+     * Son descartables: si un cliente no da abasto se pierde la más antigua
      */
-    public void notificarACliente(String usuarioId, String notificacion) {
-        synchronized (clientes) {
-            for (ClientHandler cliente : clientes) {
-                if (cliente.getUsuarioId() != null && cliente.getUsuarioId().equals(usuarioId)) {
-                    cliente.enviarNotificacion(notificacion);
-                    break;
-                }
+    public void notificarPresencia(MensajeSalida notificacion, Conexion remitente) {
+        for (Conexion cliente : clientes.getTodas()) {
+            if (cliente != remitente) {
+                cliente.enviarNotificacion(notificacion, true);
             }
         }
     }
     
     /**
-     * Obtiene la lista de clientes conectados
+     * Envía una notificación a todas las sesiones abiertas de un usuario
      */
-    public List<ClientHandler> getClientes() {
-        synchronized (clientes) {
-            return new ArrayList<>(clientes);
+    public void notificarACliente(String usuarioId, MensajeSalida notificacion) {
+        for (Conexion cliente : clientes.getConexionesDe(usuarioId)) {
+            cliente.enviarNotificacion(notificacion);
         }
     }
+    
+    /**
+     * Envía una notificación a todas las conexiones con sesión iniciada en un rol
+     */
+    public void notificarARol(String rol, MensajeSalida notificacion) {
+        for (Conexion cliente : clientes.getConexionesPorRol(rol)) {
+            cliente.enviarNotificacion(notificacion);
+        }
+    }
+    
+    /**
+     * Obtiene la lista de clientes conectados
+     */
+    public List<Conexion> getClientes() {
+        return new ArrayList<>(clientes.getTodas());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package server;
+
+/**
+ * Estado propio de una conexión: usuario logueado e IP del cliente
+ * El Service es compartido y sin estado; todo lo que depende de la
+ * conexión se guarda aquí
+ */
+public class Sesion {
+    
+    private final String ipAddress;
+    private volatile String usuarioId;
+    private volatile String nombre;
+    private volatile String rol;
+    
+    public Sesion(String ipAddress) {
+        this.ipAddress = ipAddress;
+    }
+    
+    /**
+     * Registra el usuario que inició sesión en esta conexión
+     */
+    public void iniciar(String usuarioId, String nombre, String rol) {
+        this.nombre = nombre;
+        this.rol = rol;
+        this.usuarioId = usuarioId;
+    }
+    
+    /**
+     * Limpia el usuario de la sesión (logout sin cerrar la conexión)
+     */
+    public void terminar() {
+        this.usuarioId = null;
+        this.nombre = null;
+        this.rol = null;
+    }
+    
+    public boolean isAutenticada() {
+        return usuarioId != null;
+    }
+    
+    // Getters
+    public String getIpAddress() {
+        return ipAddress;
+    }
+    public String getUsuarioId() {
+        return usuarioId;
+    }
+    public String getNombre() {
+        return nombre;
+    }
+    public String getRol() {
+        return rol;
+    }
+}
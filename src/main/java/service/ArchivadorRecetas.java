@@ -0,0 +1,81 @@
+package service;
+
+import dao.ArchivoRecetasDao;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archiva periódicamente las recetas entregadas hace más de N días
+ * Mantiene recetas y detalle_recetas con el trabajo reciente, lo bastante
+ * chicas para quedar en el buffer pool de InnoDB; las búsquedas por id, los
+ * listados sin estado o de entregadas, la sincronización por deltas y el
+ * histórico consultan también las tablas de archivo
+ *
+ * Se configura con propiedades del sistema:
+ *   recetas.archivo.dias (0 desactiva), recetas.archivo.intervaloMs, recetas.archivo.lote
+ */
+public class ArchivadorRecetas {
+
+    private static final int DIAS = Integer.getInteger("recetas.archivo.dias", 90);
+    private static final long INTERVALO_MS = Long.getLong("recetas.archivo.intervaloMs", 3_600_000);
+    private static final int LOTE = Integer.getInteger("recetas.archivo.lote", 500);
+
+    private final ArchivoRecetasDao archivoDao;
+    private ScheduledExecutorService programador;
+
+    public ArchivadorRecetas(ArchivoRecetasDao archivoDao) {
+        this.archivoDao = archivoDao;
+    }
+
+    /**
+     * Programa el archivado periódico; la primera pasada corre al iniciar
+     */
+    public synchronized void iniciar() {
+        if (DIAS <= 0 || programador != null) {
+            return;
+        }
+        programador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "recetas-archivador");
+            t.setDaemon(true);
+            return t;
+        });
+        programador.scheduleWithFixedDelay(this::archivarProgramado, 0, INTERVALO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Archiva, de a un lote por transacción, todas las recetas entregadas
+     * antes de hace "dias" días
+     * @return cantidad de recetas archivadas
+     */
+    public int archivar(int dias) throws SQLException {
+        Timestamp limite = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(dias));
+        int total = 0;
+        int movidas;
+        do {
+            movidas = archivoDao.archivarLote(limite, LOTE);
+            total += movidas;
+        } while (movidas == LOTE);
+        return total;
+    }
+
+    public synchronized void detener() {
+        if (programador != null) {
+            programador.shutdownNow();
+        }
+    }
+
+    private void archivarProgramado() {
+        try {
+            int archivadas = archivar(DIAS);
+            if (archivadas > 0) {
+                System.out.println("Recetas archivadas: " + archivadas);
+            }
+        } catch (Exception e) {
+            System.err.println("Error al archivar recetas: " + e.getMessage());
+        }
+    }
+}
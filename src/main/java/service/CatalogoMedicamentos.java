@@ -0,0 +1,221 @@
+package service;
+
+import dao.MedicamentoDao;
+import model.Medicamento;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Catálogo en memoria de los medicamentos activos
+ * Los lectores toman la instantánea publicada sin locks; cada escritura pasa
+ * primero por la base de datos y luego publica una instantánea nueva completa
+ * (copy-on-write), así nadie ve un catálogo a medio actualizar
+ *
+ * Una reconciliación periódica (desde iniciar) recarga la tabla para recoger
+ * cambios hechos fuera del servidor. Un código que no está en la instantánea
+ * se busca en la base antes de darlo por inexistente (read-through)
+ */
+public class CatalogoMedicamentos {
+
+    private static final long RECONCILIAR_MS = Long.getLong("catalogo.reconciliarMs", 60_000);
+
+    private static final Comparator<Medicamento> POR_CODIGO = Comparator.comparing(Medicamento::getCodigo);
+
+    private final MedicamentoDao medicamentoDao;
+    private final AtomicReference<Instantanea> actual = new AtomicReference<>();
+    private ScheduledExecutorService reconciliador;
+
+    public CatalogoMedicamentos(MedicamentoDao medicamentoDao) {
+        this.medicamentoDao = medicamentoDao;
+    }
+
+    /**
+     * Programa la reconciliación periódica
+     */
+    public synchronized void iniciar() {
+        if (reconciliador != null) {
+            return;
+        }
+        reconciliador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalogo-reconciliacion");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciliador.scheduleWithFixedDelay(this::reconciliarProgramado,
+                RECONCILIAR_MS, RECONCILIAR_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Medicamentos activos ordenados por código (lista inmutable)
+     */
+    public List<Medicamento> listar() throws SQLException {
+        return instantanea().lista;
+    }
+
+    /**
+     * Página del catálogo: hasta "limite" medicamentos con código mayor a despuesCodigo
+     * @param despuesCodigo último código de la página anterior, o null para la primera página
+     */
+    public List<Medicamento> listarPagina(String despuesCodigo, int limite) throws SQLException {
+        List<Medicamento> lista = instantanea().lista;
+        int inicio = 0;
+        if (despuesCodigo != null) {
+            // Búsqueda binaria sobre la lista ordenada por código
+            int bajo = 0;
+            int alto = lista.size();
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (lista.get(medio).getCodigo().compareTo(despuesCodigo) <= 0) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            inicio = bajo;
+        }
+        return lista.subList(inicio, Math.min(lista.size(), inicio + limite));
+    }
+
+    /**
+     * Busca un medicamento activo por código
+     * @return el medicamento, o null si no existe o está inactivo
+     */
+    public Medicamento buscar(String codigo) throws SQLException {
+        Instantanea leida = instantanea();
+        Medicamento medicamento = leida.porCodigo.get(codigo);
+        if (medicamento != null) {
+            return medicamento;
+        }
+
+        // Puede haberse agregado fuera del servidor desde la última reconciliación
+        medicamento = medicamentoDao.buscarPorCodigo(codigo);
+        if (medicamento != null) {
+            // Solo sobre la instantánea que se leyó: si otra se publicó mientras
+            // tanto (p. ej. un eliminar posterior a la lectura), no se agrega
+            Medicamento encontrado = medicamento;
+            actual.compareAndSet(leida, leida.con(m -> m.put(encontrado.getCodigo(), encontrado)));
+        }
+        return medicamento;
+    }
+
+    /**
+     * Busca un medicamento activo solo en la instantánea, sin ir a la base
+     * (lo usan las colas de trabajo al armar cada receta que listan)
+     * @return el medicamento, o null si no está en el catálogo
+     */
+    Medicamento buscarEnMemoria(String codigo) throws SQLException {
+        return instantanea().porCodigo.get(codigo);
+    }
+
+    public boolean agregar(Medicamento medicamento) throws SQLException {
+        boolean exito = medicamentoDao.insertar(medicamento);
+        if (exito) {
+            publicar(m -> m.put(medicamento.getCodigo(), medicamento));
+        }
+        return exito;
+    }
+
+    public boolean actualizar(Medicamento medicamento) throws SQLException {
+        boolean exito = medicamentoDao.actualizar(medicamento);
+        if (exito) {
+            // Los inactivos también se actualizan en la tabla, pero no forman parte del catálogo
+            publicar(m -> m.replace(medicamento.getCodigo(), medicamento));
+        }
+        return exito;
+    }
+
+    public boolean eliminar(String codigo) throws SQLException {
+        boolean exito = medicamentoDao.eliminar(codigo);
+        if (exito) {
+            publicar(m -> m.remove(codigo));
+        }
+        return exito;
+    }
+
+    /**
+     * Recarga el catálogo completo desde la tabla
+     * Si una escritura publicó mientras se leía la tabla, la recarga se descarta
+     * para no pisarla; la próxima reconciliación la incluirá
+     */
+    public void reconciliar() throws SQLException {
+        Instantanea anterior = actual.get();
+        Instantanea nueva = new Instantanea(medicamentoDao.listarTodos());
+        actual.compareAndSet(anterior, nueva);
+    }
+
+    public synchronized void detener() {
+        if (reconciliador != null) {
+            reconciliador.shutdownNow();
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private Instantanea instantanea() throws SQLException {
+        Instantanea instantanea = actual.get();
+        if (instantanea == null) {
+            reconciliar();
+            instantanea = actual.get();
+        }
+        return instantanea;
+    }
+
+    /**
+     * Publica una instantánea nueva aplicando el cambio sobre una copia de la actual
+     */
+    private void publicar(Consumer<Map<String, Medicamento>> cambio) throws SQLException {
+        instantanea();
+        actual.updateAndGet(anterior -> anterior.con(cambio));
+    }
+
+    private void reconciliarProgramado() {
+        // Hasta que alguien use el catálogo no hay nada que reconciliar
+        if (actual.get() == null) {
+            return;
+        }
+        try {
+            reconciliar();
+        } catch (Exception e) {
+            System.err.println("Error al reconciliar catálogo de medicamentos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Estado inmutable del catálogo en un instante
+     */
+    private static final class Instantanea {
+        final Map<String, Medicamento> porCodigo;
+        final List<Medicamento> lista;
+
+        Instantanea(Iterable<Medicamento> medicamentos) {
+            List<Medicamento> ordenada = new ArrayList<>();
+            Map<String, Medicamento> mapa = new HashMap<>();
+            for (Medicamento medicamento : medicamentos) {
+                ordenada.add(medicamento);
+                mapa.put(medicamento.getCodigo(), medicamento);
+            }
+            ordenada.sort(POR_CODIGO);
+            this.lista = List.copyOf(ordenada);
+            this.porCodigo = Map.copyOf(mapa);
+        }
+
+        /**
+         * Instantánea nueva con el cambio aplicado sobre una copia de esta
+         */
+        Instantanea con(Consumer<Map<String, Medicamento>> cambio) {
+            Map<String, Medicamento> copia = new HashMap<>(porCodigo);
+            cambio.accept(copia);
+            return new Instantanea(copia.values());
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package service;
+
+import dao.RecetaDao;
+import dao.RecetaListener;
+import model.CambioEstado;
+import model.DetalleReceta;
+import model.Medicamento;
+import model.Paciente;
+import model.Receta;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Colas de trabajo de farmacia en memoria: las recetas activas (no
+ * entregadas) separadas por estado y ordenadas por (fecha_confeccion, id)
+ * descendente, el mismo orden que LISTAR_RECETAS_ESTADO en la base de datos
+ *
+ * Se cargan al iniciar y RecetaDao las mantiene con cada receta creada o
+ * cambio de estado; las entregadas salen del índice, así su tamaño depende
+ * del trabajo pendiente y no del histórico. Las entradas guardadas no se
+ * modifican nunca: un cambio de estado reemplaza la entrada por una copia,
+ * así quien serializa una lista no ve una receta a medio cambiar
+ *
+ * El índice guarda solo la fila de cada receta y los ids de su paciente y
+ * medicamentos; al listar se arman con el paciente vigente (actualizado por
+ * pacienteActualizado) y los medicamentos del catálogo, omitiendo los
+ * inactivos igual que DetalleRecetaDao
+ */
+public class ColasTrabajo implements RecetaListener {
+
+    private static final List<String> ESTADOS_ACTIVOS = List.of(
+        Protocol.ESTADO_CONFECCIONADA, Protocol.ESTADO_PROCESO, Protocol.ESTADO_LISTA);
+
+    private final RecetaDao recetaDao;
+    private final CatalogoMedicamentos catalogo;
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Clave, Entrada>> porEstado = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entrada> porId = new ConcurrentHashMap<>();
+    // Pacientes de las recetas indexadas, por id (a lo sumo uno por paciente de la tabla)
+    private final ConcurrentHashMap<String, Paciente> pacientes = new ConcurrentHashMap<>();
+    private volatile boolean cargadas;
+
+    public ColasTrabajo(RecetaDao recetaDao, CatalogoMedicamentos catalogo) {
+        this.recetaDao = recetaDao;
+        this.catalogo = catalogo;
+        for (String estado : ESTADOS_ACTIVOS) {
+            porEstado.put(estado, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    /**
+     * Carga las recetas activas desde la base de datos
+     * Debe llamarse antes de aceptar clientes; hasta entonces atiende() es false
+     */
+    public void cargar() throws SQLException {
+        for (String estado : ESTADOS_ACTIVOS) {
+            for (Receta receta : recetaDao.listarPorEstado(estado)) {
+                indexar(receta);
+            }
+        }
+        cargadas = true;
+    }
+
+    /**
+     * Indica si las recetas de este estado se pueden listar desde memoria
+     */
+    public boolean atiende(String estado) {
+        return cargadas && porEstado.containsKey(estado);
+    }
+
+    public int getTotal() {
+        return porId.size();
+    }
+
+    /**
+     * Recetas de un estado activo, en orden de fecha_confeccion descendente
+     * @param despuesFecha fecha (ms) de la última receta ya entregada al cliente, o null desde el inicio
+     * @param despuesId id de esa receta
+     * @param limite cantidad máxima, o Integer.MAX_VALUE para todas
+     */
+    public List<Receta> listar(String estado, Long despuesFecha, String despuesId, int limite) throws SQLException {
+        NavigableMap<Clave, Entrada> cola = porEstado.get(estado);
+        if (despuesFecha != null) {
+            cola = cola.tailMap(new Clave(despuesFecha, despuesId), false);
+        }
+
+        List<Receta> recetas = new ArrayList<>(Math.min(limite, 256));
+        for (Entrada entrada : cola.values()) {
+            if (recetas.size() >= limite) {
+                break;
+            }
+            recetas.add(armar(entrada));
+        }
+        return recetas;
+    }
+
+    /**
+     * Reemplaza los datos del paciente si tiene recetas en las colas (ACTUALIZAR_PACIENTE)
+     */
+    public void pacienteActualizado(Paciente paciente) {
+        pacientes.replace(paciente.getId(), paciente);
+    }
+
+    @Override
+    public void recetaCreada(Receta receta) {
+        if (cargadas) {
+            indexar(receta);
+        }
+    }
+
+    @Override
+    public void estadoCambiado(List<CambioEstado> cambios) {
+        if (!cargadas) {
+            return;
+        }
+        for (CambioEstado cambio : cambios) {
+            if (porId.containsKey(cambio.getRecetaId())) {
+                aplicar(cambio);
+            } else if (porEstado.containsKey(cambio.getEstadoNuevo())) {
+                // Receta activa que el índice no conoce (p. ej. devuelta a un estado anterior)
+                recargar(cambio.getRecetaId());
+            }
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    /**
+     * Agrega la receta o, si ya está, la reemplaza solo si avanza en el
+     * circuito de despacho: una recetaCreada o un recargar con datos viejos
+     * no deshacen un cambio de estado ya aplicado
+     */
+    private void indexar(Receta receta) {
+        Paciente paciente = receta.getPaciente();
+        pacientes.putIfAbsent(paciente.getId(), paciente);
+        porId.compute(receta.getId(), (id, anterior) -> {
+            if (anterior != null) {
+                if (orden(receta.getEstado()) <= orden(anterior.fila.getEstado())) {
+                    return anterior;
+                }
+                porEstado.get(anterior.fila.getEstado()).remove(Clave.de(anterior.fila));
+            }
+            ConcurrentSkipListMap<Clave, Entrada> cola = porEstado.get(receta.getEstado());
+            if (cola == null) {
+                return null;
+            }
+            Entrada entrada = Entrada.de(receta);
+            cola.put(Clave.de(receta), entrada);
+            return entrada;
+        });
+    }
+
+    /**
+     * Mueve la receta a la cola de su nuevo estado, atómicamente por receta
+     * Si dos cambios de la misma receta llegan en desorden, solo se aplica el
+     * que avanza en el circuito de despacho
+     */
+    private void aplicar(CambioEstado cambio) {
+        porId.computeIfPresent(cambio.getRecetaId(), (id, actual) -> {
+            String estado = actual.fila.getEstado();
+            boolean encadena = estado.equals(cambio.getEstadoAnterior());
+            if (!encadena && orden(cambio.getEstadoNuevo()) <= orden(estado)) {
+                return actual;
+            }
+
+            porEstado.get(estado).remove(Clave.de(actual.fila));
+            ConcurrentSkipListMap<Clave, Entrada> cola = porEstado.get(cambio.getEstadoNuevo());
+            if (cola == null) {
+                // Entregada: sale del índice
+                return null;
+            }
+            Entrada nueva = actual.conCambio(cambio);
+            cola.put(Clave.de(nueva.fila), nueva);
+            return nueva;
+        });
+    }
+
+    private void recargar(String recetaId) {
+        try {
+            Receta receta = recetaDao.buscarPorId(recetaId);
+            if (receta != null) {
+                indexar(receta);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error al recargar receta " + recetaId + " en colas de trabajo: " + e.getMessage());
+        }
+    }
+
+    private static int orden(String estado) {
+        int orden = ESTADOS_ACTIVOS.indexOf(estado);
+        return orden >= 0 ? orden : ESTADOS_ACTIVOS.size();
+    }
+
+    /**
+     * Receta completa para listar: la fila con el paciente vigente y los
+     * detalles cuyo medicamento sigue en el catálogo
+     */
+    private Receta armar(Entrada entrada) throws SQLException {
+        Receta receta = copiarFila(entrada.fila, pacientes.get(entrada.pacienteId));
+        List<DetalleReceta> detalles = new ArrayList<>(entrada.lineas.size());
+        for (Linea linea : entrada.lineas) {
+            Medicamento medicamento = catalogo.buscarEnMemoria(linea.medicamentoCodigo);
+            if (medicamento != null) {
+                detalles.add(new DetalleReceta(linea.id, medicamento, linea.cantidad,
+                                               linea.indicaciones, linea.duracionDias));
+            }
+        }
+        receta.setDetalles(detalles);
+        return receta;
+    }
+
+    /**
+     * Copia de los campos propios de la receta, sin detalles
+     */
+    private static Receta copiarFila(Receta original, Paciente paciente) {
+        Receta copia = new Receta(original.getId(), original.getFechaConfeccion(),
+                                  original.getFechaRetiro(), paciente);
+        copia.setMedicoId(original.getMedicoId());
+        copia.setFarmaceutaId(original.getFarmaceutaId());
+        copia.setFechaProceso(original.getFechaProceso());
+        copia.setFechaLista(original.getFechaLista());
+        copia.setFechaEntrega(original.getFechaEntrega());
+        copia.setEstado(original.getEstado());
+        return copia;
+    }
+
+    /**
+     * Receta indexada: su fila (sin paciente ni detalles) y los ids para armarla
+     */
+    private record Entrada(Receta fila, String pacienteId, List<Linea> lineas) {
+
+        static Entrada de(Receta receta) {
+            List<Linea> lineas = new ArrayList<>(receta.getDetalles().size());
+            for (DetalleReceta detalle : receta.getDetalles()) {
+                lineas.add(new Linea(detalle.getId(), detalle.getMedicamento().getCodigo(), detalle.getCantidad(),
+                                     detalle.getIndicaciones(), detalle.getDuracionDias()));
+            }
+            return new Entrada(copiarFila(receta, null), receta.getPaciente().getId(), List.copyOf(lineas));
+        }
+
+        Entrada conCambio(CambioEstado cambio) {
+            Receta copia = copiarFila(fila, null);
+            if (cambio.getFarmaceutaId() != null) {
+                copia.setFarmaceutaId(cambio.getFarmaceutaId());
+            }
+            copia.setEstado(cambio.getEstadoNuevo());
+
+            Date fecha = cambio.getFecha();
+            switch (cambio.getEstadoNuevo()) {
+                case Protocol.ESTADO_PROCESO:
+                    copia.setFechaProceso(fecha);
+                    break;
+                case Protocol.ESTADO_LISTA:
+                    copia.setFechaLista(fecha);
+                    break;
+                default:
+                    break;
+            }
+            return new Entrada(copia, pacienteId, lineas);
+        }
+    }
+
+    private record Linea(int id, String medicamentoCodigo, int cantidad, String indicaciones, int duracionDias) {
+    }
+
+    /**
+     * Posición de una receta en su cola: (fecha_confeccion, id) descendente
+     */
+    private record Clave(long fecha, String id) implements Comparable<Clave> {
+
+        static Clave de(Receta receta) {
+            return new Clave(receta.getFechaConfeccion().getTime(), receta.getId());
+        }
+
+        @Override
+        public int compareTo(Clave otra) {
+            int porFecha = Long.compare(otra.fecha, fecha);
+            return porFecha != 0 ? porFecha : otra.id.compareTo(id);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package service;
+
+import java.util.Arrays;
+
+/**
+ * Datos tipados de las acciones más frecuentes (listados que los terminales
+ * consultan periódicamente, despacho, mensajes y creación de recetas)
+ * Se leen directamente del mensaje de la solicitud (JsonReader o
+ * MsgPackReader), sin armar un JSONObject; los campos desconocidos se saltan
+ *
+ * Un campo obligatorio ausente lanza IllegalArgumentException, que el
+ * procesar* correspondiente responde como error
+ */
+final class DatosSolicitud {
+
+    private DatosSolicitud() {
+    }
+
+    /**
+     * LISTAR_RECETAS y LISTAR_RECETAS_ESTADO
+     * paginada indica si vino limit o after; conVersion si vino sinceVersion
+     */
+    record ListarRecetas(String estado, boolean paginada, int limite, String after,
+                         boolean conVersion, long sinceVersion, boolean stream) {
+
+        static ListarRecetas leer(Solicitud solicitud) {
+            String estado = null;
+            boolean paginada = false;
+            int limite = Pagina.LIMITE_POR_DEFECTO;
+            String after = null;
+            boolean conVersion = false;
+            long sinceVersion = 0;
+            boolean stream = false;
+
+            LectorMensaje lector = solicitud.leerData();
+            if (lector != null) {
+                lector.inicioObjeto();
+                String campo;
+                while ((campo = lector.siguienteCampo()) != null) {
+                    switch (campo) {
+                        case Protocol.FIELD_ESTADO:
+                            estado = lector.leerTexto();
+                            break;
+                        case Protocol.FIELD_LIMIT:
+                            paginada = true;
+                            limite = lector.leerEntero();
+                            break;
+                        case Protocol.FIELD_AFTER:
+                            paginada = true;
+                            after = lector.leerTexto();
+                            break;
+                        case Protocol.FIELD_SINCE_VERSION:
+                            conVersion = true;
+                            sinceVersion = lector.leerLong();
+                            break;
+                        case Protocol.FIELD_STREAM:
+                            stream = lector.leerBooleano();
+                            break;
+                        default:
+                            lector.saltar();
+                    }
+                }
+            }
+            return new ListarRecetas(estado, paginada, limite, after, conVersion, sinceVersion, stream);
+        }
+    }
+
+    /**
+     * BUSCAR_RECETA y transiciones de una receta (INICIAR_DESPACHO, MARCAR_LISTA, ENTREGAR_RECETA)
+     * farmaceutaId es opcional
+     */
+    record PorReceta(String recetaId, String farmaceutaId) {
+
+        static PorReceta leer(Solicitud solicitud) {
+            String recetaId = null;
+            String farmaceutaId = null;
+
+            LectorMensaje lector = solicitud.leerData();
+            if (lector != null) {
+                lector.inicioObjeto();
+                String campo;
+                while ((campo = lector.siguienteCampo()) != null) {
+                    switch (campo) {
+                        case Protocol.FIELD_RECETA_ID:
+                            recetaId = lector.leerComoTexto();
+                            break;
+                        case Protocol.FIELD_FARMACEUTA_ID:
+                            farmaceutaId = lector.leerTexto();
+                            break;
+                        default:
+                            lector.saltar();
+                    }
+                }
+            }
+            return new PorReceta(requerido(recetaId, Protocol.FIELD_RECETA_ID), farmaceutaId);
+        }
+    }
+
+    /**
+     * RECIBIR_MENSAJES y CONTAR_MENSAJES_NO_LEIDOS
+     */
+    record PorUsuario(String usuarioId) {
+
+        static PorUsuario leer(Solicitud solicitud) {
+            String usuarioId = null;
+
+            LectorMensaje lector = solicitud.leerData();
+            if (lector != null) {
+                lector.inicioObjeto();
+                String campo;
+                while ((campo = lector.siguienteCampo()) != null) {
+                    if (campo.equals(Protocol.FIELD_USUARIO_ID)) {
+                        usuarioId = lector.leerComoTexto();
+                    } else {
+                        lector.saltar();
+                    }
+                }
+            }
+            return new PorUsuario(requerido(usuarioId, Protocol.FIELD_USUARIO_ID));
+        }
+    }
+
+    /**
+     * CREAR_RECETA; los detalles van en arreglos paralelos (ver Detalles)
+     */
+    record CrearReceta(String recetaId, String fechaConfeccion, String fechaRetiro,
+                       String pacienteId, String medicoId, Detalles detalles) {
+
+        static CrearReceta leer(Solicitud solicitud) {
+            String recetaId = null;
+            String fechaConfeccion = null;
+            String fechaRetiro = null;
+            String pacienteId = null;
+            String medicoId = null;
+            Detalles detalles = null;
+
+            LectorMensaje lector = solicitud.leerData();
+            if (lector != null) {
+                lector.inicioObjeto();
+                String campo;
+                while ((campo = lector.siguienteCampo()) != null) {
+                    switch (campo) {
+                        case Protocol.FIELD_RECETA_ID:
+                            recetaId = lector.leerComoTexto();
+                            break;
+                        case Protocol.FIELD_FECHA_CONFECCION:
+                            fechaConfeccion = lector.leerTexto();
+                            break;
+                        case Protocol.FIELD_FECHA_RETIRO:
+                            fechaRetiro = lector.leerTexto();
+                            break;
+                        case Protocol.FIELD_PACIENTE_ID:
+                            pacienteId = lector.leerComoTexto();
+                            break;
+                        case Protocol.FIELD_MEDICO_ID:
+                            medicoId = lector.leerComoTexto();
+                            break;
+                        case Protocol.FIELD_DETALLES:
+                            detalles = Detalles.leer(lector);
+                            break;
+                        default:
+                            lector.saltar();
+                    }
+                }
+            }
+            return new CrearReceta(requerido(recetaId, Protocol.FIELD_RECETA_ID),
+                                   requerido(fechaConfeccion, Protocol.FIELD_FECHA_CONFECCION),
+                                   requerido(fechaRetiro, Protocol.FIELD_FECHA_RETIRO),
+                                   requerido(pacienteId, Protocol.FIELD_PACIENTE_ID),
+                                   requerido(medicoId, Protocol.FIELD_MEDICO_ID),
+                                   requerido(detalles, Protocol.FIELD_DETALLES));
+        }
+    }
+
+    /**
+     * Detalles de una receta como arreglos paralelos indexados de 0 a cantidad - 1,
+     * en lugar de un objeto por detalle
+     */
+    static final class Detalles {
+
+        private int cantidad;
+        private String[] codigos = new String[4];
+        private int[] cantidades = new int[4];
+        private String[] indicaciones = new String[4];
+        private int[] duraciones = new int[4];
+
+        int cantidad() {
+            return cantidad;
+        }
+        String codigo(int i) {
+            return codigos[i];
+        }
+        int cantidad(int i) {
+            return cantidades[i];
+        }
+        String indicaciones(int i) {
+            return indicaciones[i];
+        }
+        int duracionDias(int i) {
+            return duraciones[i];
+        }
+
+        static Detalles leer(LectorMensaje lector) {
+            Detalles detalles = new Detalles();
+            lector.inicioArreglo();
+            while (lector.siguienteElemento()) {
+                detalles.leerDetalle(lector);
+            }
+            return detalles;
+        }
+
+        private void leerDetalle(LectorMensaje lector) {
+            String codigo = null;
+            String texto = null;
+            int cant = 0;
+            int duracion = 0;
+            boolean conCantidad = false;
+            boolean conDuracion = false;
+
+            lector.inicioObjeto();
+            String campo;
+            while ((campo = lector.siguienteCampo()) != null) {
+                switch (campo) {
+                    case Protocol.FIELD_MEDICAMENTO_CODIGO:
+                        codigo = lector.leerComoTexto();
+                        break;
+                    case Protocol.FIELD_CANTIDAD:
+                        cant = lector.leerEntero();
+                        conCantidad = true;
+                        break;
+                    case Protocol.FIELD_INDICACIONES:
+                        texto = lector.leerTexto();
+                        break;
+                    case Protocol.FIELD_DURACION_DIAS:
+                        duracion = lector.leerEntero();
+                        conDuracion = true;
+                        break;
+                    default:
+                        lector.saltar();
+                }
+            }
+            if (!conCantidad) {
+                throw faltaCampo(Protocol.FIELD_CANTIDAD);
+            }
+            if (!conDuracion) {
+                throw faltaCampo(Protocol.FIELD_DURACION_DIAS);
+            }
+
+            if (cantidad == codigos.length) {
+                int capacidad = cantidad * 2;
+                codigos = Arrays.copyOf(codigos, capacidad);
+                cantidades = Arrays.copyOf(cantidades, capacidad);
+                indicaciones = Arrays.copyOf(indicaciones, capacidad);
+                duraciones = Arrays.copyOf(duraciones, capacidad);
+            }
+            codigos[cantidad] = requerido(codigo, Protocol.FIELD_MEDICAMENTO_CODIGO);
+            cantidades[cantidad] = cant;
+            indicaciones[cantidad] = requerido(texto, Protocol.FIELD_INDICACIONES);
+            duraciones[cantidad] = duracion;
+            cantidad++;
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private static <T> T requerido(T valor, String campo) {
+        if (valor == null) {
+            throw faltaCampo(campo);
+        }
+        return valor;
+    }
+
+    private static IllegalArgumentException faltaCampo(String campo) {
+        return new IllegalArgumentException("falta el campo " + campo);
+    }
+}
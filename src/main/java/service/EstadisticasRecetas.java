@@ -0,0 +1,153 @@
+package service;
+
+import dao.EstadisticasDao;
+import dao.RecetaListener;
+import model.CambioEstado;
+import model.DetalleReceta;
+import model.Receta;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estadísticas de recetas mantenidas en memoria de forma incremental
+ * Se siembran una vez desde la base de datos y luego RecetaDao las actualiza
+ * en cada receta creada o cambio de estado. Los contadores son LongAdder
+ * (striped, sin locks), así actualizar no frena el despacho de solicitudes y
+ * consultar no recorre recetas ni detalle_recetas
+ *
+ * Contadores:
+ *   - recetas por estado actual
+ *   - recetas por médico
+ *   - unidades prescritas por medicamento
+ *   - recetas confeccionadas por día (clave "yyyy-MM-dd")
+ */
+public class EstadisticasRecetas implements RecetaListener {
+
+    private static final ZoneId ZONA = ZoneId.systemDefault();
+
+    private final LongAdder total = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> porEstado = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> porMedico = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> porMedicamento = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> porDia = new ConcurrentHashMap<>();
+
+    // Serializa las siembras sin fijar threads virtuales durante las consultas
+    private final ReentrantLock siembra = new ReentrantLock();
+    private volatile boolean sembradas;
+
+    /**
+     * Reemplaza los contadores por los totales calculados en la base de datos
+     * (una sola instantánea, ver EstadisticasDao.contarTodo)
+     * Debe llamarse antes de aceptar clientes: una receta confirmada durante
+     * la siembra podría quedar contada dos veces o ninguna
+     */
+    public void sembrar(EstadisticasDao dao) throws SQLException {
+        siembra.lock();
+        try {
+            EstadisticasDao.Conteos conteos = dao.contarTodo();
+
+            limpiar();
+            cargar(porEstado, conteos.porEstado());
+            cargar(porMedico, conteos.porMedico());
+            cargar(porMedicamento, conteos.unidadesPorMedicamento());
+            cargar(porDia, conteos.porDia());
+            for (long cantidad : conteos.porEstado().values()) {
+                total.add(cantidad);
+            }
+            sembradas = true;
+        } finally {
+            siembra.unlock();
+        }
+    }
+
+    public boolean isSembradas() {
+        return sembradas;
+    }
+
+    @Override
+    public void recetaCreada(Receta receta) {
+        total.increment();
+        contador(porEstado, receta.getEstado()).increment();
+        contador(porMedico, receta.getMedicoId()).increment();
+        contador(porDia, dia(receta)).increment();
+        for (DetalleReceta detalle : receta.getDetalles()) {
+            contador(porMedicamento, detalle.getMedicamento().getCodigo()).add(detalle.getCantidad());
+        }
+    }
+
+    @Override
+    public void estadoCambiado(List<CambioEstado> cambios) {
+        for (CambioEstado cambio : cambios) {
+            contador(porEstado, cambio.getEstadoAnterior()).decrement();
+            contador(porEstado, cambio.getEstadoNuevo()).increment();
+        }
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public Map<String, Long> getPorEstado() {
+        return copia(porEstado);
+    }
+
+    public Map<String, Long> getPorMedico() {
+        return copia(porMedico);
+    }
+
+    public Map<String, Long> getPorMedicamento() {
+        return copia(porMedicamento);
+    }
+
+    public Map<String, Long> getPorDia() {
+        return copia(porDia);
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private static LongAdder contador(ConcurrentHashMap<String, LongAdder> mapa, String clave) {
+        LongAdder contador = mapa.get(clave);
+        return contador != null ? contador : mapa.computeIfAbsent(clave, k -> new LongAdder());
+    }
+
+    private static String dia(Receta receta) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(receta.getFechaConfeccion().getTime()), ZONA).toString();
+    }
+
+    private static void cargar(ConcurrentHashMap<String, LongAdder> mapa, Map<String, Long> valores) {
+        for (Map.Entry<String, Long> entrada : valores.entrySet()) {
+            contador(mapa, entrada.getKey()).add(entrada.getValue());
+        }
+    }
+
+    /**
+     * Copia ordenada por clave, sin las claves que quedaron en cero
+     */
+    private static Map<String, Long> copia(ConcurrentHashMap<String, LongAdder> mapa) {
+        Map<String, Long> resultado = new TreeMap<>();
+        mapa.forEach((clave, contador) -> {
+            long valor = contador.sum();
+            if (valor != 0) {
+                resultado.put(clave, valor);
+            }
+        });
+        return resultado;
+    }
+
+    private void limpiar() {
+        total.reset();
+        porEstado.clear();
+        porMedico.clear();
+        porMedicamento.clear();
+        porDia.clear();
+    }
+}
@@ -0,0 +1,126 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias en microsegundos con cubetas log-lineales (como HDR):
+ * los valores menores a 16 µs tienen cubeta propia y cada potencia de 2 por
+ * encima se divide en 16 cubetas, así el error relativo queda por debajo del
+ * 6.25% en todo el rango (hasta 2^36 µs, unas 19 horas)
+ *
+ * Registrar es un incremento atómico sin asignar memoria. Para no competir por
+ * las mismas líneas de caché, cada thread suma en una de FRANJAS copias del
+ * arreglo según su id; las copias se juntan al resumir
+ */
+final class HistogramaLatencia {
+
+    private static final int BITS_SUBCUBETA = 4;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+    private static final int MAX_EXPONENTE = 36;
+    private static final int CUBETAS = (MAX_EXPONENTE - BITS_SUBCUBETA + 1) * SUBCUBETAS;
+    private static final long MAX_MICROS = (1L << MAX_EXPONENTE) - 1;
+
+    private static final int FRANJAS = 4;
+
+    private final AtomicLongArray[] franjas = new AtomicLongArray[FRANJAS];
+
+    HistogramaLatencia() {
+        for (int i = 0; i < FRANJAS; i++) {
+            franjas[i] = new AtomicLongArray(CUBETAS);
+        }
+    }
+
+    void registrar(long nanos) {
+        int franja = (int) Thread.currentThread().threadId() & (FRANJAS - 1);
+        franjas[franja].incrementAndGet(indice(nanos / 1000));
+    }
+
+    /**
+     * Junta las franjas y calcula los percentiles; lo registrado mientras se
+     * resume puede quedar dentro o fuera
+     */
+    Resumen resumir() {
+        long[] cuentas = juntar();
+        long muestras = 0;
+        int ultima = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            muestras += cuentas[i];
+            if (cuentas[i] != 0) {
+                ultima = i;
+            }
+        }
+        return new Resumen(muestras,
+                           percentil(cuentas, muestras, 0.50),
+                           percentil(cuentas, muestras, 0.99),
+                           percentil(cuentas, muestras, 0.999),
+                           maximo(ultima));
+    }
+
+    /**
+     * @param percentil entre 0 y 1
+     * @return el percentil en microsegundos, 0 si no hay muestras
+     */
+    long percentil(double percentil) {
+        long[] cuentas = juntar();
+        long muestras = 0;
+        for (long cuenta : cuentas) {
+            muestras += cuenta;
+        }
+        return percentil(cuentas, muestras, percentil);
+    }
+
+    private long[] juntar() {
+        long[] cuentas = new long[CUBETAS];
+        for (AtomicLongArray franja : franjas) {
+            for (int i = 0; i < CUBETAS; i++) {
+                cuentas[i] += franja.get(i);
+            }
+        }
+        return cuentas;
+    }
+
+    /**
+     * Cantidad de muestras y percentiles en microsegundos; cada percentil es
+     * el mayor valor de su cubeta, así nunca se informa de menos
+     */
+    record Resumen(long muestras, long p50, long p99, long p999, long max) {
+    }
+
+    private static long percentil(long[] cuentas, long muestras, double percentil) {
+        if (muestras == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(percentil * muestras));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas[i];
+            if (acumulado >= objetivo) {
+                return maximo(i);
+            }
+        }
+        return maximo(CUBETAS - 1);
+    }
+
+    private static int indice(long micros) {
+        if (micros < SUBCUBETAS) {
+            return (int) Math.max(micros, 0);
+        }
+        micros = Math.min(micros, MAX_MICROS);
+        int exponente = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+        return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * Mayor valor en microsegundos que cae en la cubeta
+     */
+    private static long maximo(int indice) {
+        if (indice < SUBCUBETAS) {
+            return indice;
+        }
+        int exponente = indice / SUBCUBETAS + BITS_SUBCUBETA - 1;
+        int sub = indice % SUBCUBETAS;
+        long ancho = 1L << (exponente - BITS_SUBCUBETA);
+        return (1L << exponente) + (sub + 1) * ancho - 1;
+    }
+}
@@ -0,0 +1,253 @@
+package service;
+
+import dao.HistoricoDao;
+import dao.RecetaListener;
+import model.CambioEstado;
+import model.Receta;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mantiene las tablas de histórico a partir de los cambios de RecetaDao
+ * Las actualizaciones se aplican en un único thread propio, en orden de
+ * llegada, para no sumar viajes a MySQL al despacho de solicitudes
+ *
+ * La cola está acotada (historico.capacidad). Si una actualización no entra
+ * o falla al aplicarse, su mes queda marcado y el actualizador lo recalcula
+ * completo desde las recetas cuando se desocupa (reintentando cada
+ * historico.reintentoMs si falla). Cada actualización lleva un número de
+ * secuencia: las de un mes marcado, o encoladas antes de recalcularlo, ya
+ * están en el recálculo y se saltan. Al iniciar se recalcula el mes en curso,
+ * por si la ejecución anterior terminó con meses marcados
+ */
+public class HistoricoRecetas implements RecetaListener {
+
+    private static final ZoneId ZONA = ZoneId.systemDefault();
+    private static final int CAPACIDAD = Integer.getInteger("historico.capacidad", 10_000);
+    private static final long REINTENTO_MS = Long.getLong("historico.reintentoMs", 30_000);
+
+    private final HistoricoDao historicoDao;
+    private final BlockingQueue<Actualizacion> cola = new ArrayBlockingQueue<>(CAPACIDAD);
+    private final AtomicLong secuencia = new AtomicLong();
+
+    // Meses cuyo agregado quedó incompleto y hay que recalcular
+    private final Set<YearMonth> aRecalcular = ConcurrentHashMap.newKeySet();
+    // Última secuencia asignada al recalcular cada mes (solo el thread actualizador)
+    private final Map<YearMonth, Long> recalculadoHasta = new HashMap<>();
+    private long proximoReintento;
+
+    private Thread actualizador;
+    private volatile boolean activo;
+
+    public HistoricoRecetas(HistoricoDao historicoDao) {
+        this.historicoDao = historicoDao;
+    }
+
+    /**
+     * Arranca el thread actualizador; hasta entonces los cambios se encolan
+     */
+    public synchronized void iniciar() {
+        if (actualizador != null) {
+            return;
+        }
+        aRecalcular.add(YearMonth.now(ZONA));
+        activo = true;
+        actualizador = new Thread(this::actualizar, "historico-actualizador");
+        actualizador.setDaemon(true);
+        actualizador.start();
+    }
+
+    @Override
+    public void recetaCreada(Receta receta) {
+        encolar(new Actualizacion(secuencia.incrementAndGet(), receta, null,
+                                  List.of(dia(receta.getFechaConfeccion()))));
+    }
+
+    @Override
+    public void estadoCambiado(List<CambioEstado> cambios) {
+        List<LocalDate> dias = new ArrayList<>(cambios.size());
+        for (CambioEstado cambio : cambios) {
+            dias.add(dia(cambio.getFecha()));
+        }
+        encolar(new Actualizacion(secuencia.incrementAndGet(), null, cambios, dias));
+    }
+
+    /**
+     * Recalcula el histórico de todos los días con recetas, un mes por transacción
+     * @return cantidad de meses recalculados
+     */
+    public int recalcularTodo() throws SQLException {
+        LocalDate[] rango = historicoDao.rangoRecetas();
+        if (rango == null) {
+            return 0;
+        }
+        return recalcular(rango[0], rango[1]);
+    }
+
+    /**
+     * Recalcula el histórico de los días [desde, hasta], un mes por transacción
+     * @return cantidad de meses recalculados
+     */
+    public int recalcular(LocalDate desde, LocalDate hasta) throws SQLException {
+        int meses = 0;
+        LocalDate inicio = desde;
+        while (!inicio.isAfter(hasta)) {
+            LocalDate finMes = inicio.withDayOfMonth(inicio.lengthOfMonth());
+            LocalDate fin = finMes.isBefore(hasta) ? finMes : hasta;
+            historicoDao.recalcular(inicio, fin);
+            meses++;
+            inicio = fin.plusDays(1);
+        }
+        return meses;
+    }
+
+    /**
+     * Aplica lo que quede en la cola (esperando a lo sumo unos segundos) y detiene el actualizador
+     */
+    public void detener() {
+        Thread hilo;
+        synchronized (this) {
+            activo = false;
+            hilo = actualizador;
+        }
+        if (hilo != null) {
+            try {
+                hilo.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ==================== THREAD ACTUALIZADOR ====================
+
+    private void encolar(Actualizacion actualizacion) {
+        if (!cola.offer(actualizacion)) {
+            // Ya está confirmada en la base: el recálculo del mes la incluye
+            for (LocalDate dia : actualizacion.dias) {
+                aRecalcular.add(YearMonth.from(dia));
+            }
+        }
+    }
+
+    private void actualizar() {
+        while (activo || !cola.isEmpty()) {
+            Actualizacion actualizacion;
+            try {
+                actualizacion = cola.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (actualizacion != null) {
+                aplicar(actualizacion);
+            }
+            if (cola.isEmpty() && !aRecalcular.isEmpty() && System.currentTimeMillis() >= proximoReintento) {
+                recalcularMarcados();
+            }
+        }
+    }
+
+    private void aplicar(Actualizacion actualizacion) {
+        if (actualizacion.receta != null) {
+            LocalDate dia = actualizacion.dias.get(0);
+            if (incluida(actualizacion.secuencia, dia)) {
+                return;
+            }
+            try {
+                historicoDao.registrarCreacion(actualizacion.receta, dia);
+            } catch (SQLException e) {
+                System.err.println("Error al actualizar histórico de receta " + actualizacion.receta.getId()
+                                   + ", se recalculará el mes: " + e.getMessage());
+                aRecalcular.add(YearMonth.from(dia));
+            }
+            return;
+        }
+
+        List<CambioEstado> cambios = new ArrayList<>(actualizacion.cambios.size());
+        List<LocalDate> dias = new ArrayList<>(actualizacion.cambios.size());
+        for (int i = 0; i < actualizacion.cambios.size(); i++) {
+            if (!incluida(actualizacion.secuencia, actualizacion.dias.get(i))) {
+                cambios.add(actualizacion.cambios.get(i));
+                dias.add(actualizacion.dias.get(i));
+            }
+        }
+        if (cambios.isEmpty()) {
+            return;
+        }
+        try {
+            historicoDao.registrarCambios(cambios, dias);
+        } catch (SQLException e) {
+            System.err.println("Error al actualizar histórico de estados, se recalcularán sus meses: "
+                               + e.getMessage());
+            for (LocalDate dia : dias) {
+                aRecalcular.add(YearMonth.from(dia));
+            }
+        }
+    }
+
+    /**
+     * El cambio ya está (o estará) contado por el recálculo de su mes
+     */
+    private boolean incluida(long secuencia, LocalDate dia) {
+        YearMonth mes = YearMonth.from(dia);
+        if (aRecalcular.contains(mes)) {
+            return true;
+        }
+        Long hasta = recalculadoHasta.get(mes);
+        return hasta != null && secuencia <= hasta;
+    }
+
+    private void recalcularMarcados() {
+        for (YearMonth mes : List.copyOf(aRecalcular)) {
+            // Se desmarca antes de leer: si otra actualización se pierde durante el recálculo, lo vuelve a marcar
+            aRecalcular.remove(mes);
+            long hasta = secuencia.get();
+            try {
+                historicoDao.recalcular(mes.atDay(1), mes.atEndOfMonth());
+                recalculadoHasta.put(mes, hasta);
+                System.out.println("Histórico recalculado para " + mes);
+            } catch (SQLException e) {
+                aRecalcular.add(mes);
+                proximoReintento = System.currentTimeMillis() + REINTENTO_MS;
+                System.err.println("Error al recalcular histórico de " + mes + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static LocalDate dia(Date fecha) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(fecha.getTime()), ZONA);
+    }
+
+    /**
+     * Una receta creada (receta) o un lote de cambios de estado (cambios), con el día de cada uno
+     */
+    private static final class Actualizacion {
+        final long secuencia;
+        final Receta receta;
+        final List<CambioEstado> cambios;
+        final List<LocalDate> dias;
+
+        Actualizacion(long secuencia, Receta receta, List<CambioEstado> cambios, List<LocalDate> dias) {
+            this.secuencia = secuencia;
+            this.receta = receta;
+            this.cambios = cambios;
+            this.dias = dias;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package service;
+
+import model.DetalleReceta;
+import model.Medicamento;
+import model.Paciente;
+import model.Receta;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialización de las entidades del modelo con JsonWriter
+ * Mismos campos que las respuestas armadas antes con JSONObject
+ */
+public final class JsonModelo {
+
+    private JsonModelo() {
+    }
+
+    public static void receta(JsonWriter json, Receta receta) {
+        json.objeto()
+            .campo(Protocol.FIELD_RECETA_ID, receta.getId())
+            .campo(Protocol.FIELD_FECHA_CONFECCION, Service.formatearFecha(receta.getFechaConfeccion()))
+            .campo(Protocol.FIELD_FECHA_RETIRO, Service.formatearFecha(receta.getFechaRetiro()))
+            .campo(Protocol.FIELD_ESTADO, receta.getEstado())
+            .campo(Protocol.FIELD_MEDICO_ID, receta.getMedicoId())
+            .campo(Protocol.FIELD_FARMACEUTA_ID, receta.getFarmaceutaId());
+
+        json.campo("paciente");
+        paciente(json, receta.getPaciente());
+
+        // Fechas opcionales
+        if (receta.getFechaProceso() != null) {
+            json.campo("fechaProceso", Service.formatearFecha(receta.getFechaProceso()));
+        }
+        if (receta.getFechaLista() != null) {
+            json.campo("fechaLista", Service.formatearFecha(receta.getFechaLista()));
+        }
+        if (receta.getFechaEntrega() != null) {
+            json.campo("fechaEntrega", Service.formatearFecha(receta.getFechaEntrega()));
+        }
+
+        // Detalles
+        json.campo(Protocol.FIELD_DETALLES).arreglo();
+        for (DetalleReceta detalle : receta.getDetalles()) {
+            json.objeto().campo("medicamento");
+            medicamento(json, detalle.getMedicamento());
+            json.campo(Protocol.FIELD_CANTIDAD, detalle.getCantidad())
+                .campo(Protocol.FIELD_INDICACIONES, detalle.getIndicaciones())
+                .campo(Protocol.FIELD_DURACION_DIAS, detalle.getDuracionDias())
+                .finObjeto();
+        }
+        json.finArreglo().finObjeto();
+    }
+
+    public static void recetas(JsonWriter json, List<Receta> recetas) {
+        json.arreglo();
+        for (Receta receta : recetas) {
+            receta(json, receta);
+        }
+        json.finArreglo();
+    }
+
+    public static void paciente(JsonWriter json, Paciente paciente) {
+        json.objeto()
+            .campo(Protocol.FIELD_PACIENTE_ID, paciente.getId())
+            .campo(Protocol.FIELD_NOMBRE, paciente.getNombre())
+            .campo(Protocol.FIELD_FECHA_NACIMIENTO, Service.formatearFecha(paciente.getFechaNacimiento()))
+            .campo(Protocol.FIELD_TELEFONO, paciente.getTelefono())
+            .finObjeto();
+    }
+
+    public static void medicamento(JsonWriter json, Medicamento medicamento) {
+        json.objeto()
+            .campo(Protocol.FIELD_MEDICAMENTO_CODIGO, medicamento.getCodigo())
+            .campo(Protocol.FIELD_NOMBRE, medicamento.getNombre())
+            .campo(Protocol.FIELD_PRESENTACION, medicamento.getPresentacion())
+            .finObjeto();
+    }
+
+    /**
+     * Conteos por clave como un objeto {"clave": n, ...}
+     */
+    public static void conteos(JsonWriter json, Map<String, Long> conteos) {
+        json.objeto();
+        for (Map.Entry<String, Long> conteo : conteos.entrySet()) {
+            json.campo(conteo.getKey(), conteo.getValue().longValue());
+        }
+        json.finObjeto();
+    }
+}
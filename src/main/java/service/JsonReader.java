@@ -0,0 +1,332 @@
+package service;
+
+/**
+ * Lector de JSON en streaming sobre un tramo de un String
+ * Recorre el texto una sola vez y entrega campo por campo, sin armar
+ * JSONObject/JSONArray; lo que no interesa se salta sin copiarlo
+ */
+final class JsonReader extends LectorMensaje {
+
+    private final String texto;
+    private final int fin;
+    private int pos;
+    // Recién abierto un objeto o arreglo: el próximo elemento no lleva coma antes
+    private boolean primero;
+
+    JsonReader(String texto) {
+        this(texto, 0, texto.length());
+    }
+
+    JsonReader(String texto, int inicio, int fin) {
+        this.texto = texto;
+        this.pos = inicio;
+        this.fin = fin;
+    }
+
+    @Override
+    int posicion() {
+        return pos;
+    }
+
+    @Override
+    boolean esObjeto() {
+        return siguiente() == '{';
+    }
+
+    /**
+     * Primer carácter significativo del siguiente valor, sin consumirlo
+     */
+    private char siguiente() {
+        saltarEspacios();
+        if (pos >= fin) {
+            throw error("Fin inesperado del mensaje");
+        }
+        return texto.charAt(pos);
+    }
+
+    // ==================== OBJETOS Y ARREGLOS ====================
+
+    @Override
+    void inicioObjeto() {
+        esperar('{');
+        primero = true;
+    }
+
+    @Override
+    String siguienteCampo() {
+        if (!hayOtro('}')) {
+            return null;
+        }
+        if (siguiente() != '"') {
+            throw error("Se esperaba el nombre de un campo");
+        }
+        String nombre = leerTexto();
+        esperar(':');
+        return nombre;
+    }
+
+    @Override
+    void inicioArreglo() {
+        esperar('[');
+        primero = true;
+    }
+
+    @Override
+    boolean siguienteElemento() {
+        return hayOtro(']');
+    }
+
+    // ==================== VALORES ====================
+
+    @Override
+    String leerTexto() {
+        char c = siguiente();
+        if (c == 'n') {
+            leerLiteral("null");
+            return null;
+        }
+        if (c != '"') {
+            throw error("Se esperaba un texto");
+        }
+        int inicio = ++pos;
+        boolean conEscapes = false;
+        while (pos < fin) {
+            c = texto.charAt(pos);
+            if (c == '"') {
+                String valor = conEscapes ? desescapar(inicio, pos) : constanteOTexto(inicio, pos);
+                pos++;
+                return valor;
+            }
+            if (c == '\\') {
+                conEscapes = true;
+                pos++;
+            }
+            pos++;
+        }
+        throw error("Texto sin cerrar");
+    }
+
+    @Override
+    long leerLong() {
+        char c = siguiente();
+        if (c == '"') {
+            String valor = leerTexto();
+            try {
+                return Long.parseLong(valor.trim());
+            } catch (NumberFormatException e) {
+                throw error("Se esperaba un número y llegó \"" + valor + "\"");
+            }
+        }
+        int inicio = pos;
+        boolean negativo = c == '-';
+        if (negativo) {
+            pos++;
+        }
+        long valor = 0;
+        boolean conDigitos = false;
+        while (pos < fin && (c = texto.charAt(pos)) >= '0' && c <= '9') {
+            if (valor > (Long.MAX_VALUE - (c - '0')) / 10) {
+                throw error("Número fuera de rango");
+            }
+            valor = valor * 10 + (c - '0');
+            conDigitos = true;
+            pos++;
+        }
+        if (pos < fin && ((c = texto.charAt(pos)) == '.' || c == 'e' || c == 'E')) {
+            // Decimal o con exponente: poco frecuente, se trunca como getLong de org.json
+            saltarNumero();
+            return (long) Double.parseDouble(texto.substring(inicio, pos));
+        }
+        if (!conDigitos) {
+            throw error("Se esperaba un número");
+        }
+        return negativo ? -valor : valor;
+    }
+
+
+    @Override
+    boolean leerBooleano() {
+        char c = siguiente();
+        if (c == 't') {
+            leerLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            leerLiteral("false");
+            return false;
+        }
+        if (c == '"') {
+            String valor = leerTexto();
+            if ("true".equalsIgnoreCase(valor) || "false".equalsIgnoreCase(valor)) {
+                return Boolean.parseBoolean(valor);
+            }
+        }
+        throw error("Se esperaba true o false");
+    }
+
+    @Override
+    String leerComoTexto() {
+        if (siguiente() == '"') {
+            return leerTexto();
+        }
+        int inicio = pos;
+        saltar();
+        return texto.substring(inicio, pos);
+    }
+
+    @Override
+    void saltar() {
+        char c = siguiente();
+        switch (c) {
+            case '{':
+                pos++;
+                primero = true;
+                while (siguienteCampo() != null) {
+                    saltar();
+                }
+                break;
+            case '[':
+                pos++;
+                primero = true;
+                while (siguienteElemento()) {
+                    saltar();
+                }
+                break;
+            case '"':
+                saltarTexto();
+                break;
+            case 't':
+                leerLiteral("true");
+                break;
+            case 'f':
+                leerLiteral("false");
+                break;
+            case 'n':
+                leerLiteral("null");
+                break;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw error("Valor inesperado '" + c + "'");
+                }
+                saltarNumero();
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private void saltarEspacios() {
+        while (pos < fin && texto.charAt(pos) <= ' ') {
+            pos++;
+        }
+    }
+
+    private void esperar(char caracter) {
+        if (siguiente() != caracter) {
+            throw error("Se esperaba '" + caracter + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * Consume el cierre indicado o, salvo antes del primer elemento, la coma
+     * que separa del anterior (exactamente una)
+     * @return true si sigue otro elemento
+     */
+    private boolean hayOtro(char cierre) {
+        char c = siguiente();
+        boolean esPrimero = primero;
+        primero = false;
+        if (c == cierre) {
+            pos++;
+            return false;
+        }
+        if (!esPrimero) {
+            if (c != ',') {
+                throw error("Se esperaba ',' o '" + cierre + "'");
+            }
+            pos++;
+        }
+        return true;
+    }
+
+    private void leerLiteral(String literal) {
+        if (!texto.startsWith(literal, pos) || pos + literal.length() > fin) {
+            throw error("Valor inesperado");
+        }
+        pos += literal.length();
+    }
+
+    private void saltarTexto() {
+        pos++;
+        while (pos < fin) {
+            char c = texto.charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                pos++;
+            }
+        }
+        throw error("Texto sin cerrar");
+    }
+
+    private void saltarNumero() {
+        while (pos < fin) {
+            char c = texto.charAt(pos);
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private String desescapar(int inicio, int fin) {
+        StringBuilder sb = new StringBuilder(fin - inicio);
+        for (int i = inicio; i < fin; i++) {
+            char c = texto.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = texto.charAt(++i);
+            switch (c) {
+                case 'b': sb.append('\b'); break;
+                case 't': sb.append('\t'); break;
+                case 'n': sb.append('\n'); break;
+                case 'f': sb.append('\f'); break;
+                case 'r': sb.append('\r'); break;
+                case 'u':
+                    try {
+                        sb.append((char) Integer.parseInt(texto.substring(i + 1, i + 5), 16));
+                    } catch (RuntimeException e) {
+                        throw error("Escape unicode inválido");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    // \" \\ \/ y cualquier otro carácter escapado
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * La constante de Protocol con el mismo texto que el tramo, o un String nuevo
+     */
+    private String constanteOTexto(int inicio, int fin) {
+        int hash = 0;
+        for (int i = inicio; i < fin; i++) {
+            hash = 31 * hash + texto.charAt(i);
+        }
+        int largo = fin - inicio;
+        int mascara = CONSTANTES.length - 1;
+        for (int i = hash & mascara; CONSTANTES[i] != null; i = (i + 1) & mascara) {
+            String constante = CONSTANTES[i];
+            if (constante.length() == largo && texto.regionMatches(inicio, constante, 0, largo)) {
+                return constante;
+            }
+        }
+        return texto.substring(inicio, fin);
+    }
+}
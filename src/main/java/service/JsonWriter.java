@@ -0,0 +1,384 @@
+package service;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Escritor de JSON en streaming sobre un buffer de caracteres reutilizable
+ * Las respuestas se escriben campo por campo, sin armar árboles de
+ * JSONObject/JSONArray (un HashMap por objeto y un Map.Entry por campo)
+ *
+ * Los textos se escapan igual que JSONObject.quote y un campo con valor
+ * String null se omite, como hace JSONObject.put: la salida tiene los mismos
+ * campos y valores que la de org.json (el orden de los campos puede variar)
+ *
+ * Para las conexiones con encuadre binario el mismo escritor emite
+ * MessagePack (obtener(true)): cada llamada escribe los bytes del valor con
+ * MsgPack, sin pasar por el texto JSON
+ *
+ * Los escritores se toman de un pool con obtener() y vuelven a él en terminar();
+ * no son thread-safe, cada respuesta usa el suyo
+ */
+public final class JsonWriter {
+
+    private static final int TAMANO_POOL = 64;
+    // Un buffer que creó más de esto (p. ej. una lista enorme) no se guarda en el pool
+    private static final int CAPACIDAD_MAXIMA_RETENIDA = 1 << 20;
+    private static final ArrayBlockingQueue<JsonWriter> POOL = new ArrayBlockingQueue<>(TAMANO_POOL);
+
+    private final StringBuilder sb = new StringBuilder(4096);
+    // Por nivel de anidamiento: si es un arreglo y si ya tiene algún elemento
+    private boolean[] esArreglo = new boolean[16];
+    private boolean[] conElementos = new boolean[16];
+    private int nivel;
+
+    // Salida MessagePack, creada la primera vez que el escritor se usa en binario
+    private MsgPack msgpack;
+    private boolean binario;
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Toma un escritor de JSON vacío del pool (o crea uno si el pool está vacío)
+     */
+    public static JsonWriter obtener() {
+        return obtener(false);
+    }
+
+    /**
+     * Toma un escritor vacío del pool
+     * @param binario true para escribir MessagePack en lugar de JSON
+     */
+    public static JsonWriter obtener(boolean binario) {
+        JsonWriter writer = POOL.poll();
+        if (writer == null) {
+            writer = new JsonWriter();
+        }
+        writer.binario = binario;
+        if (binario) {
+            if (writer.msgpack == null) {
+                writer.msgpack = new MsgPack();
+            }
+            writer.msgpack.reiniciar();
+        }
+        return writer;
+    }
+
+    /**
+     * Devuelve el JSON escrito y libera el escritor; no debe usarse después
+     */
+    public String terminar() {
+        if (binario) {
+            throw new IllegalStateException("El escritor está en MessagePack");
+        }
+        String json = sb.toString();
+        liberar();
+        return json;
+    }
+
+    /**
+     * Devuelve el MessagePack escrito y libera el escritor; no debe usarse después
+     */
+    public byte[] terminarMsgPack() {
+        if (!binario) {
+            throw new IllegalStateException("El escritor está en JSON");
+        }
+        byte[] bytes = Arrays.copyOf(msgpack.getBytes(), msgpack.getLargo());
+        liberar();
+        return bytes;
+    }
+
+    /**
+     * Devuelve lo escrito como mensaje para el cliente, en el encuadre con
+     * que se obtuvo el escritor, y lo libera
+     */
+    public MensajeSalida terminarMensaje() {
+        return binario ? MensajeSalida.msgpack(terminarMsgPack()) : MensajeSalida.json(terminar());
+    }
+
+    private void liberar() {
+        sb.setLength(0);
+        nivel = 0;
+        conElementos[0] = false;
+        if (msgpack != null && msgpack.getBytes().length > CAPACIDAD_MAXIMA_RETENIDA) {
+            msgpack = null;
+        }
+        if (sb.capacity() <= CAPACIDAD_MAXIMA_RETENIDA) {
+            POOL.offer(this);
+        }
+    }
+
+    // ==================== ESTRUCTURA ====================
+
+    public JsonWriter objeto() {
+        if (binario) {
+            msgpack.inicioMapa();
+            return this;
+        }
+        return abrir('{', false);
+    }
+
+    public JsonWriter finObjeto() {
+        if (binario) {
+            msgpack.fin();
+            return this;
+        }
+        return cerrar('}');
+    }
+
+    public JsonWriter arreglo() {
+        if (binario) {
+            msgpack.inicioArreglo();
+            return this;
+        }
+        return abrir('[', true);
+    }
+
+    public JsonWriter finArreglo() {
+        if (binario) {
+            msgpack.fin();
+            return this;
+        }
+        return cerrar(']');
+    }
+
+    /**
+     * Escribe el nombre de un campo del objeto actual; a continuación va su valor
+     */
+    public JsonWriter campo(String nombre) {
+        if (binario) {
+            msgpack.texto(nombre);
+            return this;
+        }
+        if (conElementos[nivel]) {
+            sb.append(',');
+        }
+        conElementos[nivel] = true;
+        escribirTexto(nombre);
+        sb.append(':');
+        return this;
+    }
+
+    // ==================== CAMPOS ====================
+
+    /**
+     * Campo de texto; si el valor es null el campo se omite (como JSONObject.put)
+     */
+    public JsonWriter campo(String nombre, String valor) {
+        return valor == null ? this : campo(nombre).valor(valor);
+    }
+
+    public JsonWriter campo(String nombre, long valor) {
+        return campo(nombre).valor(valor);
+    }
+
+    public JsonWriter campo(String nombre, boolean valor) {
+        return campo(nombre).valor(valor);
+    }
+
+    /**
+     * Campo con un valor de org.json u otro tipo; si el valor es null el campo se omite
+     */
+    public JsonWriter campo(String nombre, Object valor) {
+        return valor == null ? this : campo(nombre).valor(valor);
+    }
+
+    // ==================== VALORES ====================
+
+    public JsonWriter valor(String valor) {
+        if (binario) {
+            if (valor == null) {
+                msgpack.nulo();
+            } else {
+                msgpack.texto(valor);
+            }
+            return this;
+        }
+        separar();
+        if (valor == null) {
+            sb.append("null");
+        } else {
+            escribirTexto(valor);
+        }
+        return this;
+    }
+
+    public JsonWriter valor(long valor) {
+        if (binario) {
+            msgpack.entero(valor);
+            return this;
+        }
+        separar();
+        sb.append(valor);
+        return this;
+    }
+
+    public JsonWriter valor(boolean valor) {
+        if (binario) {
+            msgpack.booleano(valor);
+            return this;
+        }
+        separar();
+        sb.append(valor);
+        return this;
+    }
+
+    /**
+     * Escribe un valor cualquiera: JSONObject y JSONArray se recorren sin
+     * serializarlos aparte; los demás tipos se escriben como lo haría org.json
+     * (en MessagePack, con el tipo que corresponde al valor JSON)
+     */
+    public JsonWriter valor(Object valor) {
+        if (valor instanceof String texto) {
+            return valor(texto);
+        }
+        if (valor instanceof JSONObject objeto) {
+            objeto();
+            for (String clave : objeto.keySet()) {
+                campo(clave).valor(objeto.opt(clave));
+            }
+            return finObjeto();
+        }
+        if (valor instanceof JSONArray arreglo) {
+            arreglo();
+            for (int i = 0; i < arreglo.length(); i++) {
+                valor(arreglo.opt(i));
+            }
+            return finArreglo();
+        }
+        if (valor instanceof Integer || valor instanceof Long || valor instanceof Short || valor instanceof Byte) {
+            return valor(((Number) valor).longValue());
+        }
+        if (valor instanceof Boolean booleano) {
+            return valor(booleano.booleanValue());
+        }
+        if (binario) {
+            valorMsgPack(valor);
+            return this;
+        }
+        separar();
+        sb.append(valor == null ? "null" : JSONObject.valueToString(valor));
+        return this;
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    /**
+     * Los tipos que org.json escribe con JSONObject.valueToString: números,
+     * null, mapas, colecciones y arreglos; el resto como texto
+     */
+    private void valorMsgPack(Object valor) {
+        if (valor == null || valor == JSONObject.NULL) {
+            msgpack.nulo();
+        } else if (valor instanceof BigInteger entero && entero.bitLength() < 64) {
+            msgpack.entero(entero.longValue());
+        } else if (valor instanceof BigDecimal decimal && decimal.stripTrailingZeros().scale() <= 0
+                   && decimal.toBigInteger().bitLength() < 64) {
+            msgpack.entero(decimal.longValue());
+        } else if (valor instanceof Number numero) {
+            msgpack.decimal(numero.doubleValue());
+        } else if (valor instanceof Map<?, ?> mapa) {
+            valor(new JSONObject(mapa));
+        } else if (valor instanceof Collection<?> coleccion) {
+            valor(new JSONArray(coleccion));
+        } else if (valor.getClass().isArray()) {
+            valor(new JSONArray(valor));
+        } else if (valor instanceof Enum<?> constante) {
+            msgpack.texto(constante.name());
+        } else {
+            msgpack.texto(valor.toString());
+        }
+    }
+
+    private JsonWriter abrir(char caracter, boolean arreglo) {
+        separar();
+        sb.append(caracter);
+        nivel++;
+        if (nivel == esArreglo.length) {
+            esArreglo = Arrays.copyOf(esArreglo, nivel * 2);
+            conElementos = Arrays.copyOf(conElementos, nivel * 2);
+        }
+        esArreglo[nivel] = arreglo;
+        conElementos[nivel] = false;
+        return this;
+    }
+
+    private JsonWriter cerrar(char caracter) {
+        nivel--;
+        sb.append(caracter);
+        return this;
+    }
+
+    /**
+     * Coma entre elementos de un arreglo; en un objeto la escribe campo()
+     */
+    private void separar() {
+        if (nivel > 0 && esArreglo[nivel]) {
+            if (conElementos[nivel]) {
+                sb.append(',');
+            }
+            conElementos[nivel] = true;
+        }
+    }
+
+    /**
+     * Escribe un texto entre comillas con los mismos escapes que JSONObject.quote
+     */
+    private void escribirTexto(String texto) {
+        sb.append('"');
+        char anterior;
+        char c = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            anterior = c;
+            c = texto.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    sb.append('\\').append(c);
+                    break;
+                case '/':
+                    // "</" se escapa para poder incrustar el JSON en HTML
+                    if (anterior == '<') {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                        String hex = Integer.toHexString(c);
+                        sb.append("\\u");
+                        for (int j = hex.length(); j < 4; j++) {
+                            sb.append('0');
+                        }
+                        sb.append(hex);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
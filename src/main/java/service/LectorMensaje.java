@@ -0,0 +1,116 @@
+package service;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Lectura en streaming de un mensaje recibido, campo por campo
+ * JsonReader lee las líneas JSON y MsgPackReader las tramas binarias;
+ * Solicitud y DatosSolicitud leen igual con cualquiera de los dos
+ *
+ * Los nombres de campo y los textos que coinciden con una constante de
+ * Protocol (acciones, estados, campos) se devuelven como esa constante,
+ * sin crear un String nuevo. No es thread-safe
+ */
+abstract class LectorMensaje {
+
+    // Campos del sobre que no tienen constante en Protocol
+    private static final String[] CAMPOS_SOBRE = {"type", "action", "data", "status", "message"};
+    // Tabla de direccionamiento abierto con las constantes de Protocol, por hash del texto
+    static final String[] CONSTANTES = crearTablaConstantes();
+
+    /**
+     * Posición del siguiente valor en el mensaje
+     */
+    abstract int posicion();
+
+    /**
+     * @return true si el siguiente valor es un objeto (sin consumirlo)
+     */
+    abstract boolean esObjeto();
+
+    // ==================== OBJETOS Y ARREGLOS ====================
+
+    abstract void inicioObjeto();
+
+    /**
+     * Lee el nombre del siguiente campo del objeto actual
+     * @return el nombre, o null si el objeto terminó
+     */
+    abstract String siguienteCampo();
+
+    abstract void inicioArreglo();
+
+    /**
+     * @return true si el arreglo actual tiene otro elemento, false si terminó
+     */
+    abstract boolean siguienteElemento();
+
+    // ==================== VALORES ====================
+
+    /**
+     * Lee un texto; null si el valor es null
+     */
+    abstract String leerTexto();
+
+    /**
+     * Lee un número entero; acepta también un número escrito como texto (como org.json)
+     */
+    abstract long leerLong();
+
+    /**
+     * Lee un número entero que debe entrar en un int
+     */
+    int leerEntero() {
+        long valor = leerLong();
+        if (valor < Integer.MIN_VALUE || valor > Integer.MAX_VALUE) {
+            throw error("Número fuera de rango");
+        }
+        return (int) valor;
+    }
+
+    abstract boolean leerBooleano();
+
+    /**
+     * Lee cualquier valor como texto: los textos tal cual, el resto como se escribiría en JSON
+     */
+    abstract String leerComoTexto();
+
+    /**
+     * Salta el siguiente valor completo (incluidos objetos y arreglos anidados)
+     */
+    abstract void saltar();
+
+    IllegalArgumentException error(String mensaje) {
+        return new IllegalArgumentException(mensaje + " en la posición " + posicion());
+    }
+
+    private static String[] crearTablaConstantes() {
+        String[] tabla = new String[512];
+        for (String campo : CAMPOS_SOBRE) {
+            agregar(tabla, campo);
+        }
+        for (Field field : Protocol.class.getFields()) {
+            if (field.getType() != String.class || !Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            String constante;
+            try {
+                constante = (String) field.get(null);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            agregar(tabla, constante);
+        }
+        return tabla;
+    }
+
+    private static void agregar(String[] tabla, String constante) {
+        int mascara = tabla.length - 1;
+        int i = constante.hashCode() & mascara;
+        while (tabla[i] != null && !tabla[i].equals(constante)) {
+            i = (i + 1) & mascara;
+        }
+        tabla[i] = constante;
+    }
+}
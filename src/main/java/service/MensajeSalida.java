@@ -0,0 +1,95 @@
+package service;
+
+import java.util.function.Consumer;
+
+/**
+ * Mensaje para enviar a un cliente, ya escrito en el encuadre de la conexión:
+ * texto JSON (encuadre por líneas) o payload MessagePack (encuadre binario)
+ *
+ * Las respuestas se escriben una vez, en el encuadre de la solicitud que
+ * responden. Las notificaciones van a conexiones de ambos encuadres: guardan
+ * cómo escribirse y cada forma se escribe la primera vez que se pide
+ * (preparar) y se reutiliza para el resto de las conexiones
+ */
+public final class MensajeSalida {
+
+    // Cómo escribir el mensaje completo; null si se creó ya escrito en un solo encuadre
+    private final Consumer<JsonWriter> escritura;
+    private volatile String json;
+    private volatile byte[] msgpack;
+
+    private MensajeSalida(Consumer<JsonWriter> escritura, String json, byte[] msgpack) {
+        this.escritura = escritura;
+        this.json = json;
+        this.msgpack = msgpack;
+    }
+
+    public static MensajeSalida json(String json) {
+        return new MensajeSalida(null, json, null);
+    }
+
+    public static MensajeSalida msgpack(byte[] msgpack) {
+        return new MensajeSalida(null, null, msgpack);
+    }
+
+    /**
+     * Mensaje que se escribe recién cuando se pide en cada encuadre; la
+     * escritura puede correr más de una vez y en otros threads, así que solo
+     * debe leer datos que ya no cambian
+     */
+    public static MensajeSalida diferido(Consumer<JsonWriter> escritura) {
+        return new MensajeSalida(escritura, null, null);
+    }
+
+    /**
+     * Escribe el mensaje en el encuadre indicado si todavía no lo estaba,
+     * para que no lo haga el escritor de la conexión
+     */
+    public void preparar(boolean binario) {
+        if (binario) {
+            getMsgPack();
+        } else {
+            getJson();
+        }
+    }
+
+    public String getJson() {
+        String texto = json;
+        if (texto == null) {
+            JsonWriter writer = JsonWriter.obtener(false);
+            sinEscribir("JSON").accept(writer);
+            json = texto = writer.terminar();
+        }
+        return texto;
+    }
+
+    public byte[] getMsgPack() {
+        byte[] bytes = msgpack;
+        if (bytes == null) {
+            JsonWriter writer = JsonWriter.obtener(true);
+            sinEscribir("MessagePack").accept(writer);
+            msgpack = bytes = writer.terminarMsgPack();
+        }
+        return bytes;
+    }
+
+    private Consumer<JsonWriter> sinEscribir(String encuadre) {
+        if (escritura == null) {
+            throw new IllegalStateException("El mensaje no está escrito en " + encuadre);
+        }
+        return escritura;
+    }
+
+    /**
+     * El JSON si ya está escrito; si no, solo el largo del MessagePack (para los logs)
+     */
+    @Override
+    public String toString() {
+        String texto = json;
+        if (texto != null) {
+            return texto;
+        }
+        byte[] bytes = msgpack;
+        return bytes != null ? "MessagePack de " + bytes.length + " bytes" : "(sin escribir)";
+    }
+}
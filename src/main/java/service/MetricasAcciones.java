@@ -0,0 +1,255 @@
+package service;
+
+import config.TiempoBaseDatos;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Solicitudes, errores y latencias por acción, separadas en fases:
+ *   - DECODIFICAR: lectura del sobre REQUEST (Service.decodificar)
+ *   - DAO: tiempo con conexiones del pool prestadas, incluida la espera (TiempoBaseDatos)
+ *   - SERIALIZAR: escritura del JSON de la respuesta (crearRespuesta)
+ *   - NEGOCIO: el resto del tiempo en Service.procesarSolicitud
+ *   - ESCRIBIR: encolar la respuesta en la ColaSalida (espera si el cliente va atrasado)
+ *   - TOTAL: decodificar + procesar + escribir, sin la espera por un thread del servidor
+ *
+ * Cada solicitud se mide en el thread que la procesa: iniciar() y terminar()
+ * la encierran y lo acumulado en el medio queda en un ThreadLocal
+ * Los contadores son LongAdder y los histogramas están repartidos en franjas
+ * por thread (HistogramaLatencia): registrar no bloquea ni asigna memoria
+ */
+public class MetricasAcciones implements MetricasAccionesMBean {
+
+    public enum Fase { DECODIFICAR, NEGOCIO, DAO, SERIALIZAR, ESCRIBIR, TOTAL }
+
+    // Acciones que se miden por separado (las ACTION_* de Protocol); cualquier
+    // otra que mande el cliente se junta en OTRAS y las que no se pudieron
+    // decodificar en INVALIDA, así el mapa no crece con nombres inventados
+    private static final Set<String> ACCIONES = crearAcciones();
+    private static final String ACCION_INVALIDA = "INVALIDA";
+    private static final String ACCION_OTRAS = "OTRAS";
+
+    private static final String NOMBRE_JMX = "backend:type=MetricasAcciones";
+
+    private final ConcurrentHashMap<String, MetricaAccion> porAccion = new ConcurrentHashMap<>();
+    private final ThreadLocal<Medicion> medicion = ThreadLocal.withInitial(Medicion::new);
+
+    private static final class MetricaAccion {
+        final LongAdder solicitudes = new LongAdder();
+        final LongAdder errores = new LongAdder();
+        final HistogramaLatencia[] fases = new HistogramaLatencia[Fase.values().length];
+
+        MetricaAccion() {
+            for (int i = 0; i < fases.length; i++) {
+                fases[i] = new HistogramaLatencia();
+            }
+        }
+
+        void registrar(Fase fase, long nanos) {
+            fases[fase.ordinal()].registrar(nanos);
+        }
+    }
+
+    private static final class Medicion {
+        long inicio;
+        long nanosSerializar;
+        boolean error;
+    }
+
+    /**
+     * Registra el MBean en el servidor de plataforma; si falla se sigue sin JMX
+     */
+    void registrarJmx() {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(this, nombre);
+            }
+        } catch (Exception e) {
+            System.err.println("Error al registrar métricas en JMX: " + e.getMessage());
+        }
+    }
+
+    // ==================== REGISTRO ====================
+
+    /**
+     * Empieza la medición de una solicitud en el thread actual
+     */
+    void iniciar() {
+        Medicion actual = medicion.get();
+        actual.inicio = System.nanoTime();
+        actual.nanosSerializar = 0;
+        actual.error = false;
+        TiempoBaseDatos.reiniciar();
+    }
+
+    /**
+     * Suma el tiempo de escribir una respuesta de la solicitud en curso
+     */
+    void sumarSerializacion(long nanos, boolean error) {
+        Medicion actual = medicion.get();
+        actual.nanosSerializar += nanos;
+        actual.error |= error;
+    }
+
+    /**
+     * Cierra la medición de la solicitud iniciada en el thread actual
+     */
+    void terminar(Solicitud solicitud) {
+        Medicion actual = medicion.get();
+        long nanos = System.nanoTime() - actual.inicio;
+        long dao = TiempoBaseDatos.getNanos();
+
+        MetricaAccion metrica = metricaDe(solicitud);
+        metrica.solicitudes.increment();
+        if (actual.error || !solicitud.isValida()) {
+            metrica.errores.increment();
+        }
+        metrica.registrar(Fase.DECODIFICAR, solicitud.getNanosDecodificacion());
+        metrica.registrar(Fase.DAO, dao);
+        metrica.registrar(Fase.SERIALIZAR, actual.nanosSerializar);
+        metrica.registrar(Fase.NEGOCIO, Math.max(0, nanos - dao - actual.nanosSerializar));
+    }
+
+    /**
+     * Registra lo que tardó la conexión en encolar la respuesta y el total
+     * desde que empezó a procesar la solicitud (más su decodificación)
+     */
+    public void registrarEscritura(Solicitud solicitud, long nanosEscritura, long nanosTotal) {
+        MetricaAccion metrica = metricaDe(solicitud);
+        metrica.registrar(Fase.ESCRIBIR, nanosEscritura);
+        metrica.registrar(Fase.TOTAL, solicitud.getNanosDecodificacion() + nanosTotal);
+    }
+
+    private MetricaAccion metricaDe(Solicitud solicitud) {
+        String action = solicitud.getAction();
+        if (action == null) {
+            action = ACCION_INVALIDA;
+        } else if (!ACCIONES.contains(action)) {
+            action = ACCION_OTRAS;
+        }
+        MetricaAccion metrica = porAccion.get(action);
+        if (metrica != null) {
+            return metrica;
+        }
+        return porAccion.computeIfAbsent(action, a -> new MetricaAccion());
+    }
+
+    private static Set<String> crearAcciones() {
+        Set<String> acciones = new HashSet<>();
+        for (Field field : Protocol.class.getFields()) {
+            if (field.getType() != String.class || !Modifier.isStatic(field.getModifiers())
+                    || !field.getName().startsWith("ACTION_")) {
+                continue;
+            }
+            try {
+                acciones.add((String) field.get(null));
+            } catch (IllegalAccessException e) {
+                // Los campos públicos de Protocol siempre son accesibles
+            }
+        }
+        return acciones;
+    }
+
+    // ==================== CONSULTA ====================
+
+    /**
+     * Escribe los campos de las métricas en el objeto abierto: totales y, por
+     * acción (en orden alfabético), solicitudes, errores y cada fase en µs
+     */
+    void escribirCampos(JsonWriter json) {
+        Map<String, MetricaAccion> ordenadas = new TreeMap<>(porAccion);
+        json.campo("solicitudes", getSolicitudes())
+            .campo("errores", getErrores())
+            .campo("acciones").objeto();
+        for (Map.Entry<String, MetricaAccion> entrada : ordenadas.entrySet()) {
+            MetricaAccion metrica = entrada.getValue();
+            json.campo(entrada.getKey()).objeto()
+                .campo("solicitudes", metrica.solicitudes.sum())
+                .campo("errores", metrica.errores.sum())
+                .campo("fases").objeto();
+            for (Fase fase : Fase.values()) {
+                HistogramaLatencia.Resumen resumen = metrica.fases[fase.ordinal()].resumir();
+                json.campo(fase.name()).objeto()
+                    .campo("muestras", resumen.muestras())
+                    .campo("p50", resumen.p50())
+                    .campo("p99", resumen.p99())
+                    .campo("p999", resumen.p999())
+                    .campo("max", resumen.max())
+                    .finObjeto();
+            }
+            json.finObjeto().finObjeto();
+        }
+        json.finObjeto();
+    }
+
+    @Override
+    public long getSolicitudes() {
+        long total = 0;
+        for (MetricaAccion metrica : porAccion.values()) {
+            total += metrica.solicitudes.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getErrores() {
+        long total = 0;
+        for (MetricaAccion metrica : porAccion.values()) {
+            total += metrica.errores.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public String[] getAcciones() {
+        return new TreeMap<>(porAccion).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long solicitudes(String action) {
+        MetricaAccion metrica = porAccion.get(action);
+        return metrica == null ? 0 : metrica.solicitudes.sum();
+    }
+
+    @Override
+    public long errores(String action) {
+        MetricaAccion metrica = porAccion.get(action);
+        return metrica == null ? 0 : metrica.errores.sum();
+    }
+
+    @Override
+    public long percentil(String action, String fase, double percentil) {
+        MetricaAccion metrica = porAccion.get(action);
+        return metrica == null ? 0 : metrica.fases[Fase.valueOf(fase).ordinal()].percentil(percentil);
+    }
+
+    @Override
+    public String resumenJson() {
+        JsonWriter json = JsonWriter.obtener();
+        json.objeto();
+        escribirCampos(json);
+        return json.finObjeto().terminar();
+    }
+
+    /**
+     * Descarta lo medido hasta ahora; las solicitudes en curso pueden quedar
+     * registradas en las métricas viejas
+     */
+    @Override
+    public void reiniciar() {
+        porAccion.clear();
+    }
+}
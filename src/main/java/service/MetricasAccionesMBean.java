@@ -0,0 +1,31 @@
+package service;
+
+/**
+ * Vista JMX de las métricas por acción (solo lectura, salvo reiniciar)
+ * Las latencias están en microsegundos
+ */
+public interface MetricasAccionesMBean {
+
+    long getSolicitudes();
+
+    long getErrores();
+
+    String[] getAcciones();
+
+    long solicitudes(String action);
+
+    long errores(String action);
+
+    /**
+     * @param fase DECODIFICAR, NEGOCIO, DAO, SERIALIZAR, ESCRIBIR o TOTAL
+     * @param percentil entre 0 y 1 (p. ej. 0.99)
+     */
+    long percentil(String action, String fase, double percentil);
+
+    /**
+     * Todas las métricas con el mismo formato que la data de OBTENER_METRICAS
+     */
+    String resumenJson();
+
+    void reiniciar();
+}
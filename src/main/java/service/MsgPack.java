@@ -0,0 +1,272 @@
+package service;
+
+import java.util.Arrays;
+
+/**
+ * Escritura MessagePack en streaming, para el encuadre binario
+ * JsonWriter la usa en lugar del texto JSON cuando la conexión negoció
+ * tramas MessagePack: cada llamada escribe directamente los bytes del
+ * valor (las tramas recibidas se leen con MsgPackReader)
+ *
+ * La cantidad de entradas de un mapa o arreglo se conoce al cerrarlo: se
+ * reserva un byte para la cabecera y se completa en fin()
+ *
+ * Cada instancia reutiliza su buffer de salida; no es thread-safe
+ */
+final class MsgPack {
+
+    private byte[] buffer = new byte[4096];
+    private int largo;
+
+    // Por nivel de anidamiento: posición de la cabecera reservada, valores escritos y si es un mapa
+    private int[] cabeceras = new int[16];
+    private int[] valores = new int[16];
+    private boolean[] esMapa = new boolean[16];
+    private int nivel;
+
+    /**
+     * Descarta lo escrito para empezar un mensaje nuevo
+     */
+    void reiniciar() {
+        largo = 0;
+        nivel = 0;
+    }
+
+    byte[] getBytes() {
+        return buffer;
+    }
+
+    int getLargo() {
+        return largo;
+    }
+
+    // ==================== ESTRUCTURA ====================
+
+    void inicioMapa() {
+        abrir(true);
+    }
+
+    void inicioArreglo() {
+        abrir(false);
+    }
+
+    /**
+     * Cierra el mapa o arreglo abierto completando su cabecera; en un mapa
+     * se escribieron dos valores (clave y valor) por entrada
+     */
+    void fin() {
+        if (esMapa[nivel]) {
+            completarCabecera(cabeceras[nivel], valores[nivel] / 2, 0x80, 0xde, 0xdf);
+        } else {
+            completarCabecera(cabeceras[nivel], valores[nivel], 0x90, 0xdc, 0xdd);
+        }
+        nivel--;
+    }
+
+    // ==================== VALORES ====================
+
+    void texto(String texto) {
+        contar();
+        escribirTexto(texto);
+    }
+
+    void entero(long valor) {
+        contar();
+        escribirEntero(valor);
+    }
+
+    void decimal(double valor) {
+        contar();
+        byte1(0xcb);
+        byte8(Double.doubleToLongBits(valor));
+    }
+
+    void booleano(boolean valor) {
+        contar();
+        byte1(valor ? 0xc3 : 0xc2);
+    }
+
+    void nulo() {
+        contar();
+        byte1(0xc0);
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private void abrir(boolean mapa) {
+        contar();
+        nivel++;
+        if (nivel == cabeceras.length) {
+            cabeceras = Arrays.copyOf(cabeceras, nivel * 2);
+            valores = Arrays.copyOf(valores, nivel * 2);
+            esMapa = Arrays.copyOf(esMapa, nivel * 2);
+        }
+        cabeceras[nivel] = reservarCabecera();
+        valores[nivel] = 0;
+        esMapa[nivel] = mapa;
+    }
+
+    private void contar() {
+        if (nivel > 0) {
+            valores[nivel]++;
+        }
+    }
+
+    private void escribirEntero(long valor) {
+        if (valor >= 0) {
+            if (valor < 0x80) {
+                byte1((int) valor);
+            } else if (valor <= 0xff) {
+                byte1(0xcc);
+                byte1((int) valor);
+            } else if (valor <= 0xffff) {
+                byte1(0xcd);
+                byte2((int) valor);
+            } else if (valor <= 0xffffffffL) {
+                byte1(0xce);
+                byte4((int) valor);
+            } else {
+                byte1(0xcf);
+                byte8(valor);
+            }
+        } else if (valor >= -32) {
+            byte1((int) valor & 0xff);
+        } else if (valor >= Byte.MIN_VALUE) {
+            byte1(0xd0);
+            byte1((int) valor);
+        } else if (valor >= Short.MIN_VALUE) {
+            byte1(0xd1);
+            byte2((int) valor);
+        } else if (valor >= Integer.MIN_VALUE) {
+            byte1(0xd2);
+            byte4((int) valor);
+        } else {
+            byte1(0xd3);
+            byte8(valor);
+        }
+    }
+
+    /**
+     * Texto en UTF-8 escrito directamente en el buffer, sin pasar por getBytes
+     */
+    private void escribirTexto(String texto) {
+        int bytes = largoUtf8(texto);
+        if (bytes < 32) {
+            byte1(0xa0 | bytes);
+        } else if (bytes <= 0xff) {
+            byte1(0xd9);
+            byte1(bytes);
+        } else if (bytes <= 0xffff) {
+            byte1(0xda);
+            byte2(bytes);
+        } else {
+            byte1(0xdb);
+            byte4(bytes);
+        }
+        asegurar(bytes);
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                buffer[largo++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[largo++] = (byte) (0xc0 | (c >> 6));
+                buffer[largo++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < texto.length()
+                       && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, texto.charAt(++i));
+                buffer[largo++] = (byte) (0xf0 | (cp >> 18));
+                buffer[largo++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[largo++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[largo++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Surrogate suelto: '?' como hace String.getBytes
+                buffer[largo++] = '?';
+            } else {
+                buffer[largo++] = (byte) (0xe0 | (c >> 12));
+                buffer[largo++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[largo++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private static int largoUtf8(String texto) {
+        int bytes = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < texto.length()
+                       && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Reserva un byte para la cabecera de un mapa o arreglo, cuyo tamaño
+     * todavía no se conoce
+     */
+    private int reservarCabecera() {
+        asegurar(1);
+        return largo++;
+    }
+
+    /**
+     * Completa la cabecera reservada: fixmap/fixarray si entra en el byte y,
+     * si no, corre el contenido para hacer lugar a la forma de 16 o 32 bits
+     */
+    private void completarCabecera(int posicion, int cantidad, int fija, int de16, int de32) {
+        if (cantidad < 16) {
+            buffer[posicion] = (byte) (fija | cantidad);
+            return;
+        }
+        int extra = cantidad <= 0xffff ? 2 : 4;
+        asegurar(extra);
+        System.arraycopy(buffer, posicion + 1, buffer, posicion + 1 + extra, largo - posicion - 1);
+        largo += extra;
+        buffer[posicion] = (byte) (extra == 2 ? de16 : de32);
+        for (int i = extra; i > 0; i--) {
+            buffer[posicion + i] = (byte) cantidad;
+            cantidad >>>= 8;
+        }
+    }
+
+    private void asegurar(int bytes) {
+        if (largo + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, largo + bytes));
+        }
+    }
+
+    private void byte1(int valor) {
+        asegurar(1);
+        buffer[largo++] = (byte) valor;
+    }
+
+    private void byte2(int valor) {
+        asegurar(2);
+        buffer[largo++] = (byte) (valor >> 8);
+        buffer[largo++] = (byte) valor;
+    }
+
+    private void byte4(int valor) {
+        asegurar(4);
+        for (int desplazamiento = 24; desplazamiento >= 0; desplazamiento -= 8) {
+            buffer[largo++] = (byte) (valor >> desplazamiento);
+        }
+    }
+
+    private void byte8(long valor) {
+        asegurar(8);
+        for (int desplazamiento = 56; desplazamiento >= 0; desplazamiento -= 8) {
+            buffer[largo++] = (byte) (valor >> desplazamiento);
+        }
+    }
+}
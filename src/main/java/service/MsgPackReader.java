@@ -0,0 +1,387 @@
+package service;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lector de MessagePack en streaming sobre un tramo de una trama recibida
+ * Lee los campos directamente de los bytes, sin pasar por texto JSON; los
+ * valores que no interesan se saltan sin copiarlos
+ *
+ * Tipos: mapas con claves de texto, arreglos, textos, enteros, decimales,
+ * booleanos y nil; bin y ext no se usan en el protocolo y se rechazan
+ */
+final class MsgPackReader extends LectorMensaje {
+
+    private static final BigInteger DOS_A_LA_64 = BigInteger.ONE.shiftLeft(64);
+
+    private final ByteBuffer entrada;
+    // Por nivel de anidamiento: campos o elementos que faltan leer del mapa o arreglo abierto
+    private int[] restantes = new int[8];
+    private int nivel;
+
+    MsgPackReader(byte[] bytes, int inicio, int fin) {
+        this.entrada = ByteBuffer.wrap(bytes, inicio, fin - inicio);
+    }
+
+    @Override
+    int posicion() {
+        return entrada.position();
+    }
+
+    @Override
+    boolean esObjeto() {
+        return esMapa(siguiente());
+    }
+
+    // ==================== OBJETOS Y ARREGLOS ====================
+
+    @Override
+    void inicioObjeto() {
+        int tipo = leerTipo();
+        if (!esMapa(tipo)) {
+            throw error("Se esperaba un mapa");
+        }
+        abrir(cantidad(tipo));
+    }
+
+    @Override
+    String siguienteCampo() {
+        if (!hayOtro()) {
+            return null;
+        }
+        if (!esTexto(siguiente())) {
+            throw error("Se esperaba el nombre de un campo");
+        }
+        return leerTexto();
+    }
+
+    @Override
+    void inicioArreglo() {
+        int tipo = leerTipo();
+        if (!esArreglo(tipo)) {
+            throw error("Se esperaba un arreglo");
+        }
+        abrir(cantidad(tipo));
+    }
+
+    @Override
+    boolean siguienteElemento() {
+        return hayOtro();
+    }
+
+    // ==================== VALORES ====================
+
+    @Override
+    String leerTexto() {
+        int tipo = leerTipo();
+        if (tipo == 0xc0) {
+            return null;
+        }
+        if (!esTexto(tipo)) {
+            throw error("Se esperaba un texto");
+        }
+        return texto(largoTexto(tipo));
+    }
+
+    @Override
+    long leerLong() {
+        int tipo = siguiente();
+        if (esTexto(tipo)) {
+            String valor = leerTexto();
+            try {
+                return Long.parseLong(valor.trim());
+            } catch (NumberFormatException e) {
+                throw error("Se esperaba un número y llegó \"" + valor + "\"");
+            }
+        }
+        if (tipo == 0xca || tipo == 0xcb) {
+            // Decimal: poco frecuente, se trunca como getLong de org.json
+            entrada.get();
+            return (long) (tipo == 0xca ? bytes(4).getFloat() : bytes(8).getDouble());
+        }
+        if (!esEntero(tipo)) {
+            throw error("Se esperaba un número");
+        }
+        long valor = leerEnteroCrudo();
+        if (tipo == 0xcf && valor < 0) {
+            throw error("Número fuera de rango");
+        }
+        return valor;
+    }
+
+    @Override
+    boolean leerBooleano() {
+        int tipo = siguiente();
+        if (tipo == 0xc2 || tipo == 0xc3) {
+            entrada.get();
+            return tipo == 0xc3;
+        }
+        if (esTexto(tipo)) {
+            String valor = leerTexto();
+            if ("true".equalsIgnoreCase(valor) || "false".equalsIgnoreCase(valor)) {
+                return Boolean.parseBoolean(valor);
+            }
+        }
+        throw error("Se esperaba true o false");
+    }
+
+    @Override
+    String leerComoTexto() {
+        if (esTexto(siguiente())) {
+            return leerTexto();
+        }
+        Object valor = leerValor();
+        return valor instanceof Double decimal ? JSONObject.numberToString(decimal) : valor.toString();
+    }
+
+    @Override
+    void saltar() {
+        int tipo = leerTipo();
+        if (esTexto(tipo)) {
+            avanzar(largoTexto(tipo));
+        } else if (esMapa(tipo) || esArreglo(tipo)) {
+            long valores = esMapa(tipo) ? 2L * cantidad(tipo) : cantidad(tipo);
+            for (long i = 0; i < valores; i++) {
+                saltar();
+            }
+        } else if (tipo == 0xca) {
+            avanzar(4);
+        } else if (tipo == 0xcb) {
+            avanzar(8);
+        } else if (esEntero(tipo)) {
+            avanzar(largoEntero(tipo));
+        } else if (tipo != 0xc0 && tipo != 0xc2 && tipo != 0xc3) {
+            throw error("Tipo MessagePack no soportado: 0x" + Integer.toHexString(tipo));
+        }
+    }
+
+    /**
+     * Lee el siguiente valor completo como lo armaría org.json al parsear el
+     * mismo JSON: JSONObject, JSONArray, String, Integer, Long, BigInteger,
+     * Double, Boolean o JSONObject.NULL
+     */
+    Object leerValor() {
+        int tipo = siguiente();
+        if (esMapa(tipo)) {
+            JSONObject objeto = new JSONObject();
+            inicioObjeto();
+            String campo;
+            while ((campo = siguienteCampo()) != null) {
+                objeto.put(campo, leerValor());
+            }
+            return objeto;
+        }
+        if (esArreglo(tipo)) {
+            JSONArray arreglo = new JSONArray();
+            inicioArreglo();
+            while (siguienteElemento()) {
+                arreglo.put(leerValor());
+            }
+            return arreglo;
+        }
+        if (esTexto(tipo)) {
+            return leerTexto();
+        }
+        if (esEntero(tipo)) {
+            long valor = leerEnteroCrudo();
+            if (tipo == 0xcf && valor < 0) {
+                return BigInteger.valueOf(valor).add(DOS_A_LA_64);
+            }
+            if (valor >= Integer.MIN_VALUE && valor <= Integer.MAX_VALUE) {
+                return (int) valor;
+            }
+            return valor;
+        }
+        switch (tipo) {
+            case 0xc0:
+                entrada.get();
+                return JSONObject.NULL;
+            case 0xc2:
+            case 0xc3:
+                return leerBooleano();
+            case 0xca:
+                entrada.get();
+                return (double) bytes(4).getFloat();
+            case 0xcb:
+                entrada.get();
+                return bytes(8).getDouble();
+            default:
+                throw error("Tipo MessagePack no soportado: 0x" + Integer.toHexString(tipo));
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    private static boolean esMapa(int tipo) {
+        return (tipo >= 0x80 && tipo <= 0x8f) || tipo == 0xde || tipo == 0xdf;
+    }
+
+    private static boolean esArreglo(int tipo) {
+        return (tipo >= 0x90 && tipo <= 0x9f) || tipo == 0xdc || tipo == 0xdd;
+    }
+
+    private static boolean esTexto(int tipo) {
+        return (tipo >= 0xa0 && tipo <= 0xbf) || tipo == 0xd9 || tipo == 0xda || tipo == 0xdb;
+    }
+
+    private static boolean esEntero(int tipo) {
+        return tipo <= 0x7f || tipo >= 0xe0 || (tipo >= 0xcc && tipo <= 0xd3);
+    }
+
+    /**
+     * Bytes que siguen al tipo de un entero
+     */
+    private static int largoEntero(int tipo) {
+        if (tipo <= 0x7f || tipo >= 0xe0) {
+            return 0;
+        }
+        return 1 << ((tipo - 0xcc) & 3);
+    }
+
+    /**
+     * Tipo del siguiente valor, sin consumirlo
+     */
+    private int siguiente() {
+        if (!entrada.hasRemaining()) {
+            throw error("Fin inesperado del mensaje");
+        }
+        return entrada.get(entrada.position()) & 0xff;
+    }
+
+    private int leerTipo() {
+        int tipo = siguiente();
+        entrada.get();
+        return tipo;
+    }
+
+    /**
+     * Asegura que queden los bytes indicados en la trama
+     * @return la entrada, para leerlos a continuación
+     */
+    private ByteBuffer bytes(int cantidad) {
+        if (cantidad < 0 || cantidad > entrada.remaining()) {
+            throw error("Fin inesperado del mensaje");
+        }
+        return entrada;
+    }
+
+    private void avanzar(int cantidad) {
+        bytes(cantidad).position(entrada.position() + cantidad);
+    }
+
+    /**
+     * Lee un entero de cualquier ancho; uint64 mayores que Long.MAX_VALUE quedan negativos
+     */
+    private long leerEnteroCrudo() {
+        int tipo = leerTipo();
+        if (tipo <= 0x7f || tipo >= 0xe0) {
+            return (byte) tipo;
+        }
+        return switch (tipo) {
+            case 0xcc -> bytes(1).get() & 0xff;
+            case 0xcd -> bytes(2).getShort() & 0xffff;
+            case 0xce -> bytes(4).getInt() & 0xffffffffL;
+            case 0xd0 -> bytes(1).get();
+            case 0xd1 -> bytes(2).getShort();
+            case 0xd2 -> bytes(4).getInt();
+            default -> bytes(8).getLong();
+        };
+    }
+
+    /**
+     * Cantidad de entradas de un mapa o arreglo (ya consumido su tipo)
+     * Cada una ocupa al menos un byte: una cantidad mayor que la trama no es válida
+     */
+    private int cantidad(int tipo) {
+        int cantidad;
+        if (tipo <= 0x9f) {
+            cantidad = tipo & 0x0f;
+        } else if (tipo == 0xdc || tipo == 0xde) {
+            cantidad = bytes(2).getShort() & 0xffff;
+        } else {
+            cantidad = bytes(4).getInt();
+        }
+        if (cantidad < 0 || cantidad > entrada.remaining()) {
+            throw error("Mapa o arreglo más largo que la trama");
+        }
+        return cantidad;
+    }
+
+    /**
+     * Largo en bytes de un texto (ya consumido su tipo)
+     */
+    private int largoTexto(int tipo) {
+        return switch (tipo) {
+            case 0xd9 -> bytes(1).get() & 0xff;
+            case 0xda -> bytes(2).getShort() & 0xffff;
+            case 0xdb -> bytes(4).getInt();
+            default -> tipo & 0x1f;
+        };
+    }
+
+    private void abrir(int cantidad) {
+        nivel++;
+        if (nivel == restantes.length) {
+            restantes = Arrays.copyOf(restantes, nivel * 2);
+        }
+        restantes[nivel] = cantidad;
+    }
+
+    /**
+     * @return true si el mapa o arreglo abierto tiene otro elemento; si no, lo cierra
+     */
+    private boolean hayOtro() {
+        if (nivel == 0) {
+            throw error("No hay un mapa o arreglo abierto");
+        }
+        if (restantes[nivel] == 0) {
+            nivel--;
+            return false;
+        }
+        restantes[nivel]--;
+        return true;
+    }
+
+    /**
+     * Texto en UTF-8 de los bytes siguientes; si coincide con una constante
+     * de Protocol se devuelve esa constante
+     */
+    private String texto(int bytes) {
+        bytes(bytes);
+        byte[] arreglo = entrada.array();
+        int inicio = entrada.arrayOffset() + entrada.position();
+        entrada.position(entrada.position() + bytes);
+
+        int hash = 0;
+        for (int i = inicio; i < inicio + bytes; i++) {
+            if (arreglo[i] < 0) {
+                // Las constantes son ASCII
+                return new String(arreglo, inicio, bytes, StandardCharsets.UTF_8);
+            }
+            hash = 31 * hash + arreglo[i];
+        }
+        int mascara = CONSTANTES.length - 1;
+        for (int i = hash & mascara; CONSTANTES[i] != null; i = (i + 1) & mascara) {
+            String constante = CONSTANTES[i];
+            if (constante.length() == bytes && coincide(constante, arreglo, inicio)) {
+                return constante;
+            }
+        }
+        return new String(arreglo, inicio, bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean coincide(String constante, byte[] arreglo, int inicio) {
+        for (int i = 0; i < constante.length(); i++) {
+            if (constante.charAt(i) != arreglo[inicio + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package service;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Parámetros de paginación por keyset de una acción LISTAR_*
+ * El cursor es opaco para el cliente: codifica en base64 las columnas de
+ * orden de la última fila entregada (p. ej. fecha_confeccion e id)
+ */
+class Pagina {
+
+    static final int LIMITE_POR_DEFECTO = 100;
+    static final int LIMITE_MAXIMO = 1000;
+
+    // Separador de las partes del cursor; no aparece en ids ni en números
+    private static final char SEPARADOR = '\n';
+
+    final int limite;
+    final String[] after;
+
+    private Pagina(int limite, String[] after) {
+        this.limite = limite;
+        this.after = after;
+    }
+
+    /**
+     * Lee limit y after de los datos de la solicitud
+     * @return la página pedida, o null si la solicitud no pide paginación
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    static Pagina desde(JSONObject data) {
+        if (!data.has(Protocol.FIELD_LIMIT) && !data.has(Protocol.FIELD_AFTER)) {
+            return null;
+        }
+        return de(data.optInt(Protocol.FIELD_LIMIT, LIMITE_POR_DEFECTO),
+                  data.optString(Protocol.FIELD_AFTER, null));
+    }
+
+    /**
+     * Página con el límite y el cursor ya leídos de la solicitud
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    static Pagina de(int limite, String cursor) {
+        limite = Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+        String[] after = cursor == null || cursor.isEmpty() ? null : decodificar(cursor);
+        return new Pagina(limite, after);
+    }
+
+    /**
+     * Codifica las columnas de orden de la última fila como cursor opaco
+     */
+    static String cursor(String... partes) {
+        String texto = String.join(String.valueOf(SEPARADOR), partes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodificar(String cursor) {
+        try {
+            String texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return texto.split(String.valueOf(SEPARADOR), -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor de paginación inválido");
+        }
+    }
+}
@@ -13,6 +13,10 @@ public class Protocol {
     public static final String TYPE_RESPONSE = "RESPONSE";
     public static final String TYPE_NOTIFICATION = "NOTIFICATION";
     
+    // Respuesta en fragmentos (solicitudes con "stream": true)
+    public static final String TYPE_RESPONSE_CHUNK = "RESPONSE_CHUNK";
+    public static final String TYPE_RESPONSE_END = "RESPONSE_END";
+    
     // ==================== ESTADOS DE RESPUESTA ====================
     public static final String STATUS_SUCCESS = "SUCCESS";
     public static final String STATUS_ERROR = "ERROR";
@@ -33,6 +37,39 @@ public class Protocol {
     public static final String ACTION_ENTREGAR_RECETA = "ENTREGAR_RECETA";
     public static final String ACTION_LISTAR_RECETAS_ESTADO = "LISTAR_RECETAS_ESTADO";
     
+    // Variantes por lote: data.recetaIds con varios ids, resultado por cada uno
+    public static final String ACTION_INICIAR_DESPACHO_LOTE = "INICIAR_DESPACHO_LOTE";
+    public static final String ACTION_MARCAR_LISTA_LOTE = "MARCAR_LISTA_LOTE";
+    public static final String ACTION_ENTREGAR_RECETA_LOTE = "ENTREGAR_RECETA_LOTE";
+    
+    // Toma las recetas confeccionadas más antiguas para un farmaceuta (data.cantidad)
+    public static final String ACTION_RECLAMAR_RECETAS = "RECLAMAR_RECETAS";
+    
+    // ==================== ENCUADRE ====================
+    // Solo como primer mensaje de la conexión; data.encuadre elige el encuadre
+    // del resto de la conexión (ver FORMATO DE MENSAJE)
+    public static final String ACTION_NEGOCIAR_ENCUADRE = "NEGOCIAR_ENCUADRE";
+    public static final String FIELD_ENCUADRE = "encuadre";
+    public static final String ENCUADRE_LINEAS = "json";
+    public static final String ENCUADRE_MSGPACK = "msgpack";
+    
+    // Compresión por conexión, solo con el encuadre msgpack: data.compresion
+    // = "deflate" comprime las tramas salientes desde cierto tamaño (data.umbral
+    // de la respuesta). El deflate arranca con este diccionario (UTF-8): claves
+    // y valores frecuentes de las respuestas, los más frecuentes al final
+    public static final String FIELD_COMPRESION = "compresion";
+    public static final String FIELD_UMBRAL = "umbral";
+    public static final String COMPRESION_NINGUNA = "ninguna";
+    public static final String COMPRESION_DEFLATE = "deflate";
+    public static final String DICCIONARIO_COMPRESION =
+        "NOTIFICATIONRECETA_CREATEDRECETA_STATE_CHANGEDestadoAnteriorfechaCambio"
+        + "usuarioIdrolespecialidadmedicoscountmensajesremitenteIdremitenteNombretextofechaEnvio"
+        + "removidasversionnextCursortotalpacientesmedicamentosfechaEntregafechaLista"
+        + "fechaProcesofechaNacimientotelefonopacienteIdpacientemedicoIdfarmaceutaId"
+        + "estadoconfeccionadaprocesolistaentregadafechaConfeccionfechaRetirorecetaId"
+        + "medicamentomedicamentoCodigonombrepresentacioncantidadindicacionesduracionDiasdetalles"
+        + "requestIdtypeRESPONSEstatusSUCCESSmessageLista de recetas obtenidadatarecetas";
+    
     // ==================== ACCIONES - LISTAS ====================
     public static final String ACTION_LISTAR_MEDICOS = "LISTAR_MEDICOS";
     public static final String ACTION_LISTAR_FARMACEUTAS = "LISTAR_FARMACEUTAS";
@@ -52,6 +89,8 @@ public class Protocol {
     // ==================== ACCIONES - DASHBOARD ====================
     public static final String ACTION_OBTENER_ESTADISTICAS = "OBTENER_ESTADISTICAS";
     public static final String ACTION_OBTENER_HISTORICO = "OBTENER_HISTORICO";
+    // Solo lectura: solicitudes, errores y latencias por acción (ver MetricasAcciones)
+    public static final String ACTION_OBTENER_METRICAS = "OBTENER_METRICAS";
     
     // ==================== ACCIONES - USUARIOS ====================
     public static final String ACTION_LISTAR_USUARIOS = "LISTAR_USUARIOS";
@@ -69,10 +108,23 @@ public class Protocol {
     public static final String ACTION_ELIMINAR_PACIENTE = "eliminarPaciente";
     public static final String ACTION_ELIMINAR_MEDICAMENTO = "ELIMINAR_MEDICAMENTO";
 
+    // ==================== SUSCRIPCIONES ====================
+    // SUBSCRIBE con "estados" (o sin ellos: los del rol de la sesión) activa
+    // las notificaciones RECETA_CREATED / RECETA_STATE_CHANGED de esos estados
+    public static final String ACTION_SUBSCRIBE = "SUBSCRIBE";
+    public static final String ACTION_UNSUBSCRIBE = "UNSUBSCRIBE";
+    
     // ==================== NOTIFICACIONES ASÍNCRONAS ====================
     public static final String NOTIFICATION_USER_LOGIN = "USER_LOGIN";
     public static final String NOTIFICATION_USER_LOGOUT = "USER_LOGOUT";
     public static final String NOTIFICATION_NEW_MESSAGE = "NEW_MESSAGE";
+    public static final String NOTIFICATION_RECETA_CREATED = "RECETA_CREATED";
+    public static final String NOTIFICATION_RECETA_STATE_CHANGED = "RECETA_STATE_CHANGED";
+    
+    // ==================== CAMPOS DEL SOBRE ====================
+    // Opcional: si la solicitud lo trae, la respuesta lo repite y el servidor
+    // puede atenderla en paralelo con otras de la misma conexión
+    public static final String FIELD_REQUEST_ID = "requestId";
     
     // ==================== CAMPOS DE DATOS ====================
     public static final String FIELD_USUARIO_ID = "usuarioId";
@@ -89,10 +141,16 @@ public class Protocol {
     public static final String FIELD_PRESENTACION = "presentacion";
     
     public static final String FIELD_RECETA_ID = "recetaId";
+    public static final String FIELD_RECETA_IDS = "recetaIds";
     public static final String FIELD_FECHA_CONFECCION = "fechaConfeccion";
     public static final String FIELD_FECHA_RETIRO = "fechaRetiro";
     public static final String FIELD_ESTADO = "estado";
+    public static final String FIELD_ESTADOS = "estados";
+    public static final String FIELD_ESTADO_ANTERIOR = "estadoAnterior";
+    public static final String FIELD_FECHA_CAMBIO = "fechaCambio";
+    public static final String FIELD_CAMBIOS = "cambios";
     public static final String FIELD_MEDICO_ID = "medicoId";
+    public static final String FIELD_FARMACEUTA_ID = "farmaceutaId";
     public static final String FIELD_DETALLES = "detalles";
     
     public static final String FIELD_CANTIDAD = "cantidad";
@@ -106,6 +164,28 @@ public class Protocol {
     public static final String FIELD_TEXTO = "texto";
     public static final String FIELD_MENSAJE_ID = "mensajeId";
     
+    public static final String FIELD_DESDE = "desde";
+    public static final String FIELD_HASTA = "hasta";
+    public static final String FIELD_AGRUPACION = "agrupacion";
+    
+    // Paginación por keyset de las acciones LISTAR_*: sin limit ni after se
+    // devuelve la lista completa (clientes anteriores); nextCursor falta en la última página
+    public static final String FIELD_LIMIT = "limit";
+    public static final String FIELD_AFTER = "after";
+    public static final String FIELD_NEXT_CURSOR = "nextCursor";
+    
+    // LISTAR_RECETAS y LISTAR_RECETAS_ESTADO con "stream": true responden en fragmentos
+    public static final String FIELD_STREAM = "stream";
+    public static final String FIELD_TOTAL = "total";
+    
+    // Sincronización por deltas de LISTAR_RECETAS / LISTAR_RECETAS_ESTADO: con
+    // sinceVersion se devuelven solo las recetas cambiadas después de esa
+    // versión, los ids que salieron del estado pedido ("removidas") y la nueva
+    // marca ("version"). sinceVersion 0 devuelve la lista completa con su marca
+    public static final String FIELD_SINCE_VERSION = "sinceVersion";
+    public static final String FIELD_VERSION = "version";
+    public static final String FIELD_REMOVIDAS = "removidas";
+    
     // ==================== ESTADOS DE RECETA ====================
     public static final String ESTADO_CONFECCIONADA = "confeccionada";
     public static final String ESTADO_PROCESO = "proceso";
@@ -117,6 +197,7 @@ public class Protocol {
      * Formato JSON de REQUEST:
      * {
      *   "type": "REQUEST",
+     *   "requestId": "id opcional elegido por el cliente",
      *   "action": "ACTION_NAME",
      *   "data": {
      *     // datos específicos según la acción
@@ -126,6 +207,7 @@ public class Protocol {
      * Formato JSON de RESPONSE:
      * {
      *   "type": "RESPONSE",
+     *   "requestId": "el mismo de la solicitud (solo si vino)",
      *   "status": "SUCCESS" o "ERROR",
      *   "message": "mensaje descriptivo",
      *   "data": {
@@ -133,6 +215,25 @@ public class Protocol {
      *   }
      * }
      * 
+     * Las solicitudes sin requestId se responden en el orden en que llegan.
+     * Las que traen requestId se atienden en paralelo (hasta un límite por
+     * conexión) y su respuesta puede llegar antes que la de otras anteriores
+     * 
+     * Respuesta en fragmentos ("stream": true en data): cero o más
+     * {
+     *   "type": "RESPONSE_CHUNK",
+     *   "requestId": "...",
+     *   "data": { "recetas": [ ... ] }
+     * }
+     * seguidos de un único cierre, con el status de toda la respuesta:
+     * {
+     *   "type": "RESPONSE_END",
+     *   "requestId": "...",
+     *   "status": "SUCCESS" o "ERROR",
+     *   "message": "mensaje descriptivo",
+     *   "data": { "total": cantidad de recetas enviadas }
+     * }
+     * 
      * Formato JSON de NOTIFICATION:
      * {
      *   "type": "NOTIFICATION",
@@ -141,6 +242,29 @@ public class Protocol {
      *     // datos de la notificación
      *   }
      * }
+     * 
+     * RECETA_CREATED y RECETA_STATE_CHANGED llegan solo a las conexiones
+     * suscritas (SUBSCRIBE) al estado de la receta; RECETA_STATE_CHANGED
+     * también a las suscritas al estado anterior. Su data es el delta: los
+     * datos de la lista y los detalles (código y cantidad) al crearla; en los
+     * cambios, "cambios" es un arreglo con recetaId, estado, estadoAnterior,
+     * fechaCambio y farmaceutaId de cada receta de la transición (una sola
+     * notificación por lote y par de estados)
+     * 
+     * Encuadre: por defecto cada mensaje es una línea JSON terminada en '\n'.
+     * Si el primer mensaje es NEGOCIAR_ENCUADRE con "encuadre": "msgpack", la
+     * respuesta llega todavía como línea y, a partir de ella, en ambos sentidos
+     * cada mensaje es una trama:
+     *   [int32 big-endian: largo del payload][1 byte de flags, 0][payload]
+     * donde el payload es el mismo sobre codificado en MessagePack (mapas con
+     * claves de texto). El cliente puede enviar tramas justo después de la
+     * línea de negociación, sin esperar la respuesta
+     * 
+     * Con "compresion": "deflate" las tramas del servidor de al menos umbral
+     * bytes llevan el flag 0x01 y el payload comprimido con un deflate raw
+     * por conexión (diccionario DICCIONARIO_COMPRESION, SYNC_FLUSH al final
+     * de cada trama); se inflan en orden con un solo Inflater. Las tramas
+     * del cliente van sin comprimir
      */
     
     // ==================== MÉTODOS AUXILIARES ====================
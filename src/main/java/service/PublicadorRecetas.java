@@ -0,0 +1,135 @@
+package service;
+
+import dao.RecetaListener;
+import model.CambioEstado;
+import model.DetalleReceta;
+import model.Receta;
+import server.ClientRegistry;
+import server.Conexion;
+import server.NotificationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Publica las recetas creadas y los cambios de estado a las conexiones
+ * suscritas (SUBSCRIBE), para que los terminales no tengan que consultar
+ * LISTAR_RECETAS_ESTADO periódicamente
+ *
+ * Escucha a RecetaDao, así cubre también los despachos en lote y RECLAMAR_RECETAS.
+ * Cada notificación lleva solo los deltas; se serializa una vez y se encola
+ * en la ColaSalida de cada suscrito. Los cambios de un lote van juntos en una
+ * notificación por par de estados (en la práctica una por lote): un lote de
+ * mil recetas no llena la cola de salida de los suscritos
+ */
+public class PublicadorRecetas implements RecetaListener {
+
+    private volatile ClientRegistry registro;
+    private volatile NotificationManager notificationManager;
+
+    /**
+     * Conecta el publicador al registro de clientes del servidor
+     * Hasta entonces los eventos se descartan (no hay a quién entregarlos)
+     */
+    public void conectar(ClientRegistry registro, NotificationManager notificationManager) {
+        this.notificationManager = notificationManager;
+        this.registro = registro;
+    }
+
+    @Override
+    public void recetaCreada(Receta receta) {
+        ClientRegistry registro = this.registro;
+        if (registro == null) {
+            return;
+        }
+        Set<Conexion> suscritos = registro.getSuscritos(receta.getEstado());
+        if (suscritos.isEmpty()) {
+            return;
+        }
+
+        MensajeSalida notificacion = notificationManager.crearNotificacion(
+            Protocol.NOTIFICATION_RECETA_CREATED, json -> deltaCreada(json, receta));
+        for (Conexion conexion : suscritos) {
+            conexion.enviarNotificacion(notificacion);
+        }
+    }
+
+    @Override
+    public void estadoCambiado(List<CambioEstado> cambios) {
+        ClientRegistry registro = this.registro;
+        if (registro == null) {
+            return;
+        }
+        
+        // Los suscritos dependen solo del par (anterior, nuevo)
+        Map<String, List<CambioEstado>> porPar = new LinkedHashMap<>();
+        for (CambioEstado cambio : cambios) {
+            porPar.computeIfAbsent(cambio.getEstadoAnterior() + "->" + cambio.getEstadoNuevo(),
+                                   par -> new ArrayList<>()).add(cambio);
+        }
+        
+        for (List<CambioEstado> delPar : porPar.values()) {
+            CambioEstado primero = delPar.get(0);
+            // Interesa a quien sigue el estado de destino y a quien sigue el de origen
+            Set<Conexion> alNuevo = registro.getSuscritos(primero.getEstadoNuevo());
+            Set<Conexion> alAnterior = registro.getSuscritos(primero.getEstadoAnterior());
+            if (alNuevo.isEmpty() && alAnterior.isEmpty()) {
+                continue;
+            }
+
+            MensajeSalida notificacion = notificationManager.crearNotificacion(
+                Protocol.NOTIFICATION_RECETA_STATE_CHANGED, json -> deltasCambio(json, delPar));
+            for (Conexion conexion : alNuevo) {
+                conexion.enviarNotificacion(notificacion);
+            }
+            for (Conexion conexion : alAnterior) {
+                if (!alNuevo.contains(conexion)) {
+                    conexion.enviarNotificacion(notificacion);
+                }
+            }
+        }
+    }
+
+    // ==================== MÉTODOS AUXILIARES ====================
+
+    /**
+     * Datos mínimos para agregar la receta a una lista: sin datos del
+     * paciente salvo su nombre, y los detalles como código y cantidad
+     */
+    private static void deltaCreada(JsonWriter json, Receta receta) {
+        json.objeto()
+            .campo(Protocol.FIELD_RECETA_ID, receta.getId())
+            .campo(Protocol.FIELD_ESTADO, receta.getEstado())
+            .campo(Protocol.FIELD_FECHA_CONFECCION, Service.formatearFecha(receta.getFechaConfeccion()))
+            .campo(Protocol.FIELD_FECHA_RETIRO, Service.formatearFecha(receta.getFechaRetiro()))
+            .campo(Protocol.FIELD_MEDICO_ID, receta.getMedicoId())
+            .campo(Protocol.FIELD_PACIENTE_ID, receta.getPaciente().getId())
+            .campo(Protocol.FIELD_NOMBRE, receta.getPaciente().getNombre());
+
+        json.campo(Protocol.FIELD_DETALLES).arreglo();
+        for (DetalleReceta detalle : receta.getDetalles()) {
+            json.objeto()
+                .campo(Protocol.FIELD_MEDICAMENTO_CODIGO, detalle.getMedicamento().getCodigo())
+                .campo(Protocol.FIELD_CANTIDAD, detalle.getCantidad())
+                .finObjeto();
+        }
+        json.finArreglo().finObjeto();
+    }
+
+    private static void deltasCambio(JsonWriter json, List<CambioEstado> cambios) {
+        json.objeto().campo(Protocol.FIELD_CAMBIOS).arreglo();
+        for (CambioEstado cambio : cambios) {
+            json.objeto()
+                .campo(Protocol.FIELD_RECETA_ID, cambio.getRecetaId())
+                .campo(Protocol.FIELD_ESTADO_ANTERIOR, cambio.getEstadoAnterior())
+                .campo(Protocol.FIELD_ESTADO, cambio.getEstadoNuevo())
+                .campo(Protocol.FIELD_FECHA_CAMBIO, Service.formatearFecha(cambio.getFecha()))
+                .campo(Protocol.FIELD_FARMACEUTA_ID, cambio.getFarmaceutaId())
+                .finObjeto();
+        }
+        json.finArreglo().finObjeto();
+    }
+}
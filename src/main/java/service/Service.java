@@ -2,104 +2,330 @@ package service;
 
 import dao.*;
 import model.*;
-import server.ClientHandler;
+import server.ClientRegistry;
+import server.Conexion;
+import server.Fragmentos;
+import server.MetricasCompresion;
+import server.NotificationManager;
+import server.Sesion;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.text.SimpleDateFormat;
+import java.sql.Timestamp;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 /**
  * Servicio principal que contiene la lógica de negocio
  * Procesa las solicitudes del Frontend y usa los DAOs para acceder a datos
+ * 
+ * Una sola instancia es compartida por todas las conexiones: no guarda estado
+ * propio de un cliente (eso vive en la Sesion de cada ClientHandler) y todos
+ * sus campos son inmutables o thread-safe
  */
 public class Service {
     
-    // DAOs
-    private UsuarioDao usuarioDao;
-    private MedicoDao medicoDao;
-    private FarmaceutaDao farmaceutaDao;
-    private PacienteDao pacienteDao;
-    private MedicamentoDao medicamentoDao;
-    private RecetaDao recetaDao;
-    private MensajeDao mensajeDao;
-    private UsuarioActivoDao usuarioActivoDao;
+    // Formato de fecha (DateTimeFormatter es inmutable y thread-safe)
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ZoneId ZONA = ZoneId.systemDefault();
     
-    // Formato de fecha
-    private SimpleDateFormat dateFormat;
+    // Estados de receta en el orden del circuito de despacho
+    private static final List<String> ESTADOS_RECETA = List.of(
+        Protocol.ESTADO_CONFECCIONADA, Protocol.ESTADO_PROCESO, Protocol.ESTADO_LISTA, Protocol.ESTADO_ENTREGADA);
+    
+    // Máximo de recetas en una transición por lote (*_LOTE)
+    private static final int MAX_RECETAS_POR_LOTE = 1000;
+    
+    // Máximo de recetas que un farmaceuta reclama de una vez (RECLAMAR_RECETAS)
+    private static final int MAX_RECETAS_RECLAMADAS = 100;
+    
+    // Intentos de sembrar las estadísticas al iniciar, y pausa entre ellos
+    private static final int INTENTOS_SIEMBRA = Integer.getInteger("estadisticas.intentos", 3);
+    private static final long PAUSA_SIEMBRA_MS = Long.getLong("estadisticas.pausaMs", 2000);
+    
+    // Recetas por RESPONSE_CHUNK en los listados en fragmentos
+    private static final int RECETAS_POR_FRAGMENTO = Integer.getInteger("server.stream.recetasPorFragmento", 100);
+    
+    // DAOs (sin estado, compartidos entre threads)
+    private final UsuarioDao usuarioDao;
+    private final MedicoDao medicoDao;
+    private final FarmaceutaDao farmaceutaDao;
+    private final PacienteDao pacienteDao;
+    private final CatalogoMedicamentos catalogoMedicamentos;
+    private final RecetaDao recetaDao;
+    private final MensajeDao mensajeDao;
+    private final UsuarioActivoDao usuarioActivoDao;
+    private final EstadisticasDao estadisticasDao;
+    private final HistoricoDao historicoDao;
+    
+    // Estado en memoria derivado de las tablas
+    private final EstadisticasRecetas estadisticas;
+    private final HistoricoRecetas historico;
+    private final ColasTrabajo colas;
+    private final ArchivadorRecetas archivador;
+    private final PublicadorRecetas publicador;
+    
+    // Solicitudes, errores y latencias por acción (OBTENER_METRICAS y JMX)
+    private final MetricasAcciones metricas = new MetricasAcciones();
+    
+    // Solicitud que procesa cada thread: crearRespuesta escribe primero su
+    // requestId y responde en su encuadre
+    private final ThreadLocal<Solicitud> solicitudEnCurso = new ThreadLocal<>();
     
     public Service() {
         usuarioDao = new UsuarioDao();
         medicoDao = new MedicoDao();
         farmaceutaDao = new FarmaceutaDao();
         pacienteDao = new PacienteDao();
-        medicamentoDao = new MedicamentoDao();
+        catalogoMedicamentos = new CatalogoMedicamentos(new MedicamentoDao());
         recetaDao = new RecetaDao();
         mensajeDao = new MensajeDao();
         usuarioActivoDao = new UsuarioActivoDao();
+        estadisticasDao = new EstadisticasDao();
+        
+        estadisticas = new EstadisticasRecetas();
+        recetaDao.agregarListener(estadisticas);
+        
+        historicoDao = new HistoricoDao();
+        historico = new HistoricoRecetas(historicoDao);
+        recetaDao.agregarListener(historico);
         
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        colas = new ColasTrabajo(recetaDao, catalogoMedicamentos);
+        recetaDao.agregarListener(colas);
+        
+        archivador = new ArchivadorRecetas(new ArchivoRecetasDao());
+        
+        publicador = new PublicadorRecetas();
+        recetaDao.agregarListener(publicador);
     }
     
     /**
-     * Procesa una solicitud recibida del cliente
+     * Carga el estado en memoria desde la base de datos
+     * Se llama una vez al arrancar, antes de aceptar clientes
      */
-    public String procesarSolicitud(String mensajeJson, ClientHandler clientHandler) {
+    public void iniciar() {
+        sembrarEstadisticas();
+        
+        // Primera ejecución con las tablas de histórico vacías: se calculan completas
         try {
-            JSONObject mensaje = new JSONObject(mensajeJson);
-            String tipo = mensaje.getString("type");
-            
-            if (!tipo.equals(Protocol.TYPE_REQUEST)) {
-                return crearRespuestaError("Tipo de mensaje inválido");
+            if (historicoDao.estaVacio()) {
+                int meses = historico.recalcularTodo();
+                System.out.println("Histórico de recetas calculado: " + meses + " meses");
             }
-            
-            String action = mensaje.getString("action");
-            JSONObject data = mensaje.optJSONObject("data");
-            if (data == null) {
-                data = new JSONObject();
+        } catch (Exception e) {
+            System.err.println("Error al calcular histórico: " + e.getMessage());
+        }
+        
+        // Si la carga falla, LISTAR_RECETAS_ESTADO sigue consultando la base de datos
+        try {
+            colas.cargar();
+            System.out.println("Colas de trabajo cargadas: " + colas.getTotal() + " recetas activas");
+        } catch (Exception e) {
+            System.err.println("Error al cargar colas de trabajo: " + e.getMessage());
+        }
+        
+        historico.iniciar();
+        archivador.iniciar();
+        catalogoMedicamentos.iniciar();
+        
+        metricas.registrarJmx();
+    }
+    
+    /**
+     * Siembra las estadísticas, reintentando si MySQL no responde
+     * Solo se reintenta aquí, antes de aceptar clientes: con clientes conectados
+     * la siembra perdería o duplicaría las recetas confirmadas mientras corre
+     */
+    private void sembrarEstadisticas() {
+        for (int intento = 1; intento <= INTENTOS_SIEMBRA; intento++) {
+            try {
+                estadisticas.sembrar(estadisticasDao);
+                System.out.println("Estadísticas de recetas cargadas: " + estadisticas.getTotal() + " recetas");
+                return;
+            } catch (Exception e) {
+                System.err.println("Error al cargar estadísticas (intento " + intento + " de " + INTENTOS_SIEMBRA
+                                   + "): " + e.getMessage());
             }
-            
-            // Procesar según la acción
-            return procesarAccion(action, data, clientHandler);
-            
+            if (intento < INTENTOS_SIEMBRA) {
+                try {
+                    Thread.sleep(PAUSA_SIEMBRA_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Detiene las tareas de fondo iniciadas por iniciar() y el histórico
+     */
+    public void detener() {
+        archivador.detener();
+        catalogoMedicamentos.detener();
+        historico.detener();
+    }
+    
+    public MetricasAcciones getMetricas() {
+        return metricas;
+    }
+    
+    /**
+     * Entrega los eventos de recetas a las conexiones suscritas del servidor
+     */
+    public void conectar(ClientRegistry registro, NotificationManager notificationManager) {
+        publicador.conectar(registro, notificationManager);
+    }
+    
+    /**
+     * Procesa una solicitud recibida del cliente
+     */
+    public MensajeSalida procesarSolicitud(String mensajeJson, Conexion conexion) {
+        return procesarSolicitud(decodificar(mensajeJson), conexion);
+    }
+    
+    /**
+     * Decodifica el sobre REQUEST de un mensaje JSON sin parsear su data
+     * Nunca lanza excepción: si el mensaje no es válido devuelve una solicitud inválida
+     */
+    public Solicitud decodificar(String mensajeJson) {
+        long inicio = System.nanoTime();
+        Solicitud solicitud;
+        try {
+            solicitud = Solicitud.decodificar(mensajeJson);
         } catch (Exception e) {
             e.printStackTrace();
-            return crearRespuestaError("Error al procesar solicitud: " + e.getMessage());
+            solicitud = Solicitud.invalida("Error al procesar solicitud: " + e.getMessage(), null);
         }
+        solicitud.setNanosDecodificacion(System.nanoTime() - inicio);
+        return solicitud;
     }
     
     /**
-     * Procesa una acción específica
+     * Decodifica el sobre REQUEST de una trama MessagePack sin parsear su data
+     * Nunca lanza excepción: si la trama no es válida devuelve una solicitud inválida
      */
-    private String procesarAccion(String action, JSONObject data, ClientHandler clientHandler) {
+    public Solicitud decodificar(byte[] trama) {
+        long inicio = System.nanoTime();
+        Solicitud solicitud;
         try {
-            switch (action) {
-                // AUTENTICACIÓN
-                case Protocol.ACTION_LOGIN:
-                    return procesarLogin(data, clientHandler);
-                case Protocol.ACTION_LOGOUT:
-                    return procesarLogout(data, clientHandler);
-                case Protocol.ACTION_CAMBIAR_CLAVE:
-                    return procesarCambiarClave(data);
-                
+            solicitud = Solicitud.decodificar(trama);
+        } catch (Exception e) {
+            e.printStackTrace();
+            solicitud = Solicitud.invalida("Error al procesar solicitud: " + e.getMessage(), null, true);
+        }
+        solicitud.setNanosDecodificacion(System.nanoTime() - inicio);
+        return solicitud;
+    }
+    
+    /**
+     * Procesa una solicitud ya decodificada; la respuesta repite su requestId
+     */
+    public MensajeSalida procesarSolicitud(Solicitud solicitud, Conexion conexion) {
+        metricas.iniciar();
+        solicitudEnCurso.set(solicitud);
+        MensajeSalida respuesta;
+        try {
+            if (!solicitud.isValida()) {
+                respuesta = crearRespuestaError(solicitud.getError());
+            } else {
+                respuesta = procesarAccion(solicitud, conexion);
+            }
+        } finally {
+            solicitudEnCurso.remove();
+            metricas.terminar(solicitud);
+        }
+        return respuesta;
+    }
+    
+    /**
+     * Procesa las acciones frecuentes leyendo sus datos tipados (DatosSolicitud)
+     * directamente del mensaje; las demás reciben la data como JSONObject
+     */
+    private MensajeSalida procesarAccion(Solicitud solicitud, Conexion conexion) {
+        try {
+            switch (solicitud.getAction()) {
                 // PRESCRIPCIÓN
                 case Protocol.ACTION_CREAR_RECETA:
-                    return procesarCrearReceta(data);
+                    return procesarCrearReceta(solicitud);
                 case Protocol.ACTION_BUSCAR_RECETA:
-                    return procesarBuscarReceta(data);
+                    return procesarBuscarReceta(solicitud);
                 case Protocol.ACTION_LISTAR_RECETAS:
-                    return procesarListarRecetas();
+                    return procesarListarRecetas(solicitud, conexion);
                 
                 // DESPACHO
                 case Protocol.ACTION_INICIAR_DESPACHO:
-                    return procesarIniciarDespacho(data);
+                    return procesarIniciarDespacho(solicitud, conexion);
                 case Protocol.ACTION_MARCAR_LISTA:
-                    return procesarMarcarLista(data);
+                    return procesarMarcarLista(solicitud);
                 case Protocol.ACTION_ENTREGAR_RECETA:
-                    return procesarEntregarReceta(data);
+                    return procesarEntregarReceta(solicitud);
                 case Protocol.ACTION_LISTAR_RECETAS_ESTADO:
-                    return procesarListarRecetasEstado(data);
+                    return procesarListarRecetasEstado(solicitud, conexion);
+                
+                // MENSAJERÍA
+                case Protocol.ACTION_RECIBIR_MENSAJES:
+                    return procesarRecibirMensajes(solicitud);
+                case Protocol.ACTION_CONTAR_MENSAJES_NO_LEIDOS:
+                    return procesarContarMensajesNoLeidos(solicitud);
+                
+                default:
+                    return procesarAccion(solicitud.getAction(), solicitud.getData(), conexion);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return crearRespuestaError("Error al procesar acción: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Procesa una acción específica
+     */
+    private MensajeSalida procesarAccion(String action, JSONObject data, Conexion conexion) {
+        try {
+            switch (action) {
+                // AUTENTICACIÓN
+                case Protocol.ACTION_LOGIN:
+                    return procesarLogin(data, conexion);
+                case Protocol.ACTION_LOGOUT:
+                    return procesarLogout(data, conexion);
+                case Protocol.ACTION_CAMBIAR_CLAVE:
+                    return procesarCambiarClave(data);
+                
+                // DESPACHO
+                case Protocol.ACTION_INICIAR_DESPACHO_LOTE:
+                    return procesarTransicionLote(data, Protocol.ESTADO_CONFECCIONADA, Protocol.ESTADO_PROCESO,
+                                                  farmaceutaDe(data.optString(Protocol.FIELD_FARMACEUTA_ID, null),
+                                                               conexion));
+                case Protocol.ACTION_MARCAR_LISTA_LOTE:
+                    return procesarTransicionLote(data, Protocol.ESTADO_PROCESO, Protocol.ESTADO_LISTA, null);
+                case Protocol.ACTION_ENTREGAR_RECETA_LOTE:
+                    return procesarTransicionLote(data, Protocol.ESTADO_LISTA, Protocol.ESTADO_ENTREGADA, null);
+                case Protocol.ACTION_RECLAMAR_RECETAS:
+                    return procesarReclamarRecetas(data, conexion);
+                
+                // ENCUADRE (solo como primer mensaje, lo atiende la conexión)
+                case Protocol.ACTION_NEGOCIAR_ENCUADRE:
+                    return crearRespuestaError("El encuadre solo se negocia en el primer mensaje de la conexión");
+                
+                // SUSCRIPCIONES
+                case Protocol.ACTION_SUBSCRIBE:
+                    return procesarSuscribir(data, conexion);
+                case Protocol.ACTION_UNSUBSCRIBE:
+                    return procesarDesuscribir(conexion);
                 
                 // LISTAS
                 case Protocol.ACTION_LISTAR_MEDICOS:
@@ -107,9 +333,9 @@ public class Service {
                 case Protocol.ACTION_LISTAR_FARMACEUTAS:
                     return procesarListarFarmaceutas();
                 case Protocol.ACTION_LISTAR_PACIENTES:
-                    return procesarListarPacientes();
+                    return procesarListarPacientes(data);
                 case Protocol.ACTION_LISTAR_MEDICAMENTOS:
-                    return procesarListarMedicamentos();
+                    return procesarListarMedicamentos(data);
                 
                 // CATÁLOGO
                 case Protocol.ACTION_AGREGAR_MEDICAMENTO:
@@ -131,9 +357,17 @@ public class Service {
                 case Protocol.ACTION_ELIMINAR_PACIENTE:
                     return procesarEliminarPaciente(data);
                 
+                // REPORTES
+                case Protocol.ACTION_OBTENER_ESTADISTICAS:
+                    return procesarObtenerEstadisticas();
+                case Protocol.ACTION_OBTENER_HISTORICO:
+                    return procesarObtenerHistorico(data);
+                case Protocol.ACTION_OBTENER_METRICAS:
+                    return procesarObtenerMetricas(conexion);
+                
                 // USUARIOS
                 case Protocol.ACTION_LISTAR_USUARIOS:
-                    return procesarListarUsuarios();
+                    return procesarListarUsuarios(data);
                 case Protocol.ACTION_AGREGAR_USUARIO:
                     return procesarAgregarUsuario(data);
                 case Protocol.ACTION_LISTAR_USUARIOS_ACTIVOS:
@@ -143,13 +377,9 @@ public class Service {
                 
                 // MENSAJERÍA
                 case Protocol.ACTION_ENVIAR_MENSAJE:
-                    return procesarEnviarMensaje(data, clientHandler);
-                case Protocol.ACTION_RECIBIR_MENSAJES:
-                    return procesarRecibirMensajes(data);
+                    return procesarEnviarMensaje(data, conexion);
                 case Protocol.ACTION_MARCAR_MENSAJE_LEIDO:
                     return procesarMarcarMensajeLeido(data);
-                case Protocol.ACTION_CONTAR_MENSAJES_NO_LEIDOS:
-                    return procesarContarMensajesNoLeidos(data);
                 
                 default:
                     return crearRespuestaError("Acción no reconocida: " + action);
@@ -162,7 +392,7 @@ public class Service {
     
     // ==================== AUTENTICACIÓN ====================
     
-    private String procesarLogin(JSONObject data, ClientHandler clientHandler) {
+    private MensajeSalida procesarLogin(JSONObject data, Conexion conexion) {
         try {
             String usuarioId = data.getString(Protocol.FIELD_USUARIO_ID);
             String clave = data.getString(Protocol.FIELD_CLAVE);
@@ -171,31 +401,38 @@ public class Service {
             
             if (usuario != null) {
                 // Registrar usuario como activo
-                String ipAddress = clientHandler.getSocket().getInetAddress().getHostAddress();
+                Sesion sesion = conexion.getSesion();
                 UsuarioActivo usuarioActivo = new UsuarioActivo(
-                    usuarioId, usuario.getNombre(), usuario.getRol(), new Date(), ipAddress
+                    usuarioId, usuario.getNombre(), usuario.getRol(), new Date(), sesion.getIpAddress()
                 );
                 usuarioActivoDao.registrarLogin(usuarioActivo);
                 
-                // Guardar el usuario en el ClientHandler
-                clientHandler.setUsuarioId(usuarioId);
-                
-                // Crear respuesta con datos del usuario
-                JSONObject respData = new JSONObject();
-                respData.put(Protocol.FIELD_USUARIO_ID, usuario.getId());
-                respData.put(Protocol.FIELD_NOMBRE, usuario.getNombre());
-                respData.put(Protocol.FIELD_ROL, usuario.getRol());
-                
-                if (usuario instanceof Medico) {
-                    respData.put(Protocol.FIELD_ESPECIALIDAD, ((Medico) usuario).getEspecialidad());
+                // Si la conexión ya tenía otro usuario, se desasocia antes de reemplazarlo
+                ClientRegistry registro = conexion.getServer().getRegistro();
+                if (sesion.isAutenticada()) {
+                    registro.desasociarUsuario(conexion, sesion.getUsuarioId(), sesion.getRol());
                 }
                 
+                // Guardar el usuario en la sesión de la conexión e indexarla en el registro
+                sesion.iniciar(usuarioId, usuario.getNombre(), usuario.getRol());
+                registro.asociarUsuario(conexion, usuarioId, usuario.getRol());
+                
                 // Notificar a otros clientes del login
-                String notificacion = clientHandler.getServer().getNotificationManager()
+                MensajeSalida notificacion = conexion.getServer().getNotificationManager()
                     .crearNotificacionLogin(usuarioId, usuario.getNombre(), usuario.getRol());
-                clientHandler.getServer().notificarATodosExcepto(notificacion, clientHandler);
+                conexion.getServer().notificarPresencia(notificacion, conexion);
                 
-                return crearRespuestaExito("Login exitoso", respData);
+                // Crear respuesta con datos del usuario
+                return crearRespuestaExito("Login exitoso", json -> {
+                    json.objeto()
+                        .campo(Protocol.FIELD_USUARIO_ID, usuario.getId())
+                        .campo(Protocol.FIELD_NOMBRE, usuario.getNombre())
+                        .campo(Protocol.FIELD_ROL, usuario.getRol());
+                    if (usuario instanceof Medico) {
+                        json.campo(Protocol.FIELD_ESPECIALIDAD, ((Medico) usuario).getEspecialidad());
+                    }
+                    json.finObjeto();
+                });
             } else {
                 return crearRespuestaError("Usuario o contraseña incorrectos");
             }
@@ -205,15 +442,24 @@ public class Service {
         }
     }
     
-    private String procesarLogout(JSONObject data, ClientHandler clientHandler) {
+    private MensajeSalida procesarLogout(JSONObject data, Conexion conexion) {
         try {
             String usuarioId = data.getString(Protocol.FIELD_USUARIO_ID);
-            registrarLogout(usuarioId);
-            
-            // Notificar a otros clientes del logout
-            String notificacion = clientHandler.getServer().getNotificationManager()
-                .crearNotificacionLogout(usuarioId);
-            clientHandler.getServer().notificarATodosExcepto(notificacion, clientHandler);
+            Sesion sesion = conexion.getSesion();
+            boolean propia = usuarioId.equals(sesion.getUsuarioId());
+            boolean ultimaSesion = conexion.getServer().getRegistro()
+                .desasociarUsuario(conexion, sesion.getUsuarioId(), sesion.getRol());
+            sesion.terminar();
+            
+            // El usuario sigue activo mientras le queden otras sesiones abiertas
+            if (ultimaSesion || !propia) {
+                registrarLogout(usuarioId);
+                
+                // Notificar a otros clientes del logout
+                MensajeSalida notificacion = conexion.getServer().getNotificationManager()
+                    .crearNotificacionLogout(usuarioId);
+                conexion.getServer().notificarPresencia(notificacion, conexion);
+            }
             
             return crearRespuestaExito("Logout exitoso");
         } catch (Exception e) {
@@ -229,7 +475,7 @@ public class Service {
         }
     }
     
-    private String procesarCambiarClave(JSONObject data) {
+    private MensajeSalida procesarCambiarClave(JSONObject data) {
         try {
             String usuarioId = data.getString(Protocol.FIELD_USUARIO_ID);
             String nuevaClave = data.getString(Protocol.FIELD_CLAVE);
@@ -248,96 +494,120 @@ public class Service {
     
     // ==================== LISTAS ====================
     
-    private String procesarListarMedicos() {
+    private MensajeSalida procesarListarMedicos() {
         try {
             List<Medico> medicos = medicoDao.listarTodos();
             
-            JSONArray medicosArray = new JSONArray();
-            for (Medico medico : medicos) {
-                JSONObject medicoJson = new JSONObject();
-                medicoJson.put(Protocol.FIELD_USUARIO_ID, medico.getId());
-                medicoJson.put(Protocol.FIELD_NOMBRE, medico.getNombre());
-                medicoJson.put(Protocol.FIELD_ESPECIALIDAD, medico.getEspecialidad());
-                medicosArray.put(medicoJson);
-            }
-            
-            JSONObject respData = new JSONObject();
-            respData.put("medicos", medicosArray);
-            
-            return crearRespuestaExito("Lista de médicos obtenida", respData);
+            return crearRespuestaExito("Lista de médicos obtenida", json -> {
+                json.objeto().campo("medicos").arreglo();
+                for (Medico medico : medicos) {
+                    json.objeto()
+                        .campo(Protocol.FIELD_USUARIO_ID, medico.getId())
+                        .campo(Protocol.FIELD_NOMBRE, medico.getNombre())
+                        .campo(Protocol.FIELD_ESPECIALIDAD, medico.getEspecialidad())
+                        .finObjeto();
+                }
+                json.finArreglo().finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al listar médicos: " + e.getMessage());
         }
     }
     
-    private String procesarListarFarmaceutas() {
+    private MensajeSalida procesarListarFarmaceutas() {
         try {
             List<Farmaceuta> farmaceutas = farmaceutaDao.listarTodos();
             
-            JSONArray farmaceutasArray = new JSONArray();
-            for (Farmaceuta farm : farmaceutas) {
-                JSONObject farmJson = new JSONObject();
-                farmJson.put(Protocol.FIELD_USUARIO_ID, farm.getId());
-                farmJson.put(Protocol.FIELD_NOMBRE, farm.getNombre());
-                farmaceutasArray.put(farmJson);
-            }
-            
-            JSONObject respData = new JSONObject();
-            respData.put("farmaceutas", farmaceutasArray);
-            
-            return crearRespuestaExito("Lista de farmaceutas obtenida", respData);
+            return crearRespuestaExito("Lista de farmaceutas obtenida", json -> {
+                json.objeto().campo("farmaceutas").arreglo();
+                for (Farmaceuta farm : farmaceutas) {
+                    json.objeto()
+                        .campo(Protocol.FIELD_USUARIO_ID, farm.getId())
+                        .campo(Protocol.FIELD_NOMBRE, farm.getNombre())
+                        .finObjeto();
+                }
+                json.finArreglo().finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al listar farmaceutas: " + e.getMessage());
         }
     }
     
-    private String procesarListarPacientes() {
+    private MensajeSalida procesarListarPacientes(JSONObject data) {
         try {
-            List<Paciente> pacientes = pacienteDao.listarTodos();
-            
-            JSONArray pacientesArray = new JSONArray();
-            for (Paciente pac : pacientes) {
-                JSONObject pacJson = pacienteToJson(pac);
-                pacientesArray.put(pacJson);
+            List<Paciente> pacientes;
+            Pagina pagina = Pagina.desde(data);
+            if (pagina == null) {
+                pacientes = pacienteDao.listarTodos();
+            } else {
+                String despuesId = pagina.after == null ? null : pagina.after[0];
+                pacientes = pacienteDao.listarPagina(despuesId, pagina.limite + 1);
             }
             
-            JSONObject respData = new JSONObject();
-            respData.put("pacientes", pacientesArray);
+            boolean hayMas = pagina != null && pacientes.size() > pagina.limite;
+            if (hayMas) {
+                pacientes = pacientes.subList(0, pagina.limite);
+            }
             
-            return crearRespuestaExito("Lista de pacientes obtenida", respData);
+            List<Paciente> lista = pacientes;
+            return crearRespuestaExito("Lista de pacientes obtenida", json -> {
+                json.objeto().campo("pacientes").arreglo();
+                for (Paciente pac : lista) {
+                    JsonModelo.paciente(json, pac);
+                }
+                json.finArreglo();
+                if (hayMas) {
+                    json.campo(Protocol.FIELD_NEXT_CURSOR, Pagina.cursor(lista.get(lista.size() - 1).getId()));
+                }
+                json.finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al listar pacientes: " + e.getMessage());
         }
     }
     
-    private String procesarListarMedicamentos() {
+    private MensajeSalida procesarListarMedicamentos(JSONObject data) {
         try {
-            List<Medicamento> medicamentos = medicamentoDao.listarTodos();
-            
-            JSONArray medicamentosArray = new JSONArray();
-            for (Medicamento med : medicamentos) {
-                JSONObject medJson = medicamentoToJson(med);
-                medicamentosArray.put(medJson);
+            List<Medicamento> medicamentos;
+            Pagina pagina = Pagina.desde(data);
+            if (pagina == null) {
+                medicamentos = catalogoMedicamentos.listar();
+            } else {
+                String despuesCodigo = pagina.after == null ? null : pagina.after[0];
+                medicamentos = catalogoMedicamentos.listarPagina(despuesCodigo, pagina.limite + 1);
             }
             
-            JSONObject respData = new JSONObject();
-            respData.put("medicamentos", medicamentosArray);
+            boolean hayMas = pagina != null && medicamentos.size() > pagina.limite;
+            if (hayMas) {
+                medicamentos = medicamentos.subList(0, pagina.limite);
+            }
             
-            return crearRespuestaExito("Lista de medicamentos obtenida", respData);
+            List<Medicamento> lista = medicamentos;
+            return crearRespuestaExito("Lista de medicamentos obtenida", json -> {
+                json.objeto().campo("medicamentos").arreglo();
+                for (Medicamento med : lista) {
+                    JsonModelo.medicamento(json, med);
+                }
+                json.finArreglo();
+                if (hayMas) {
+                    json.campo(Protocol.FIELD_NEXT_CURSOR, Pagina.cursor(lista.get(lista.size() - 1).getCodigo()));
+                }
+                json.finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al listar medicamentos: " + e.getMessage());
         }
     }
     
      
-    private String procesarAgregarMedicamento(JSONObject data) {
+    private MensajeSalida procesarAgregarMedicamento(JSONObject data) {
         try {
             String codigo = data.getString(Protocol.FIELD_MEDICAMENTO_CODIGO);
             String nombre = data.getString(Protocol.FIELD_NOMBRE);
             String presentacion = data.getString(Protocol.FIELD_PRESENTACION);
             
             Medicamento medicamento = new Medicamento(codigo, nombre, presentacion);
-            boolean exito = medicamentoDao.insertar(medicamento);
+            boolean exito = catalogoMedicamentos.agregar(medicamento);
             
             if (exito) {
                 return crearRespuestaExito("Medicamento agregado exitosamente");
@@ -349,14 +619,14 @@ public class Service {
         }
     }
     
-    private String procesarActualizarMedicamento(JSONObject data) {
+    private MensajeSalida procesarActualizarMedicamento(JSONObject data) {
         try {
             String codigo = data.getString(Protocol.FIELD_MEDICAMENTO_CODIGO);
             String nombre = data.getString(Protocol.FIELD_NOMBRE);
             String presentacion = data.getString(Protocol.FIELD_PRESENTACION);
             
             Medicamento medicamento = new Medicamento(codigo, nombre, presentacion);
-            boolean exito = medicamentoDao.actualizar(medicamento);
+            boolean exito = catalogoMedicamentos.actualizar(medicamento);
             
             if (exito) {
                 return crearRespuestaExito("Medicamento actualizado exitosamente");
@@ -368,11 +638,11 @@ public class Service {
         }
     }
     
-    private String procesarEliminarMedicamento(JSONObject data) {
+    private MensajeSalida procesarEliminarMedicamento(JSONObject data) {
     try {
         String codigo = data.getString(Protocol.FIELD_MEDICAMENTO_CODIGO);
         
-        boolean exito = medicamentoDao.eliminar(codigo);
+        boolean exito = catalogoMedicamentos.eliminar(codigo);
         
         if (exito) {
             return crearRespuestaExito("Medicamento desactivado exitosamente");
@@ -385,15 +655,14 @@ public class Service {
     }
 }
     
-    private String procesarBuscarMedicamento(JSONObject data) {
+    private MensajeSalida procesarBuscarMedicamento(JSONObject data) {
         try {
             String codigo = data.getString(Protocol.FIELD_MEDICAMENTO_CODIGO);
             
-            Medicamento medicamento = medicamentoDao.buscarPorCodigo(codigo);
+            Medicamento medicamento = catalogoMedicamentos.buscar(codigo);
             
             if (medicamento != null) {
-                JSONObject respData = medicamentoToJson(medicamento);
-                return crearRespuestaExito("Medicamento encontrado", respData);
+                return crearRespuestaExito("Medicamento encontrado", json -> JsonModelo.medicamento(json, medicamento));
             } else {
                 return crearRespuestaError("Medicamento no encontrado");
             }
@@ -404,14 +673,14 @@ public class Service {
     
     // ==================== PACIENTES ====================
     
-    private String procesarAgregarPaciente(JSONObject data) {
+    private MensajeSalida procesarAgregarPaciente(JSONObject data) {
         try {
             String id = data.getString(Protocol.FIELD_PACIENTE_ID);
             String nombre = data.getString(Protocol.FIELD_NOMBRE);
             String telefono = data.getString(Protocol.FIELD_TELEFONO);
             String fechaNacStr = data.getString(Protocol.FIELD_FECHA_NACIMIENTO);
             
-            Date fechaNacimiento = dateFormat.parse(fechaNacStr);
+            Date fechaNacimiento = parsearFecha(fechaNacStr);
             
             Paciente paciente = new Paciente(id, nombre, fechaNacimiento, telefono);
             boolean exito = pacienteDao.insertar(paciente);
@@ -426,19 +695,20 @@ public class Service {
         }
     }
     
-    private String procesarActualizarPaciente(JSONObject data) {
+    private MensajeSalida procesarActualizarPaciente(JSONObject data) {
         try {
             String id = data.getString(Protocol.FIELD_PACIENTE_ID);
             String nombre = data.getString(Protocol.FIELD_NOMBRE);
             String telefono = data.getString(Protocol.FIELD_TELEFONO);
             String fechaNacStr = data.getString(Protocol.FIELD_FECHA_NACIMIENTO);
             
-            Date fechaNacimiento = dateFormat.parse(fechaNacStr);
+            Date fechaNacimiento = parsearFecha(fechaNacStr);
             
             Paciente paciente = new Paciente(id, nombre, fechaNacimiento, telefono);
             boolean exito = pacienteDao.actualizar(paciente);
             
             if (exito) {
+                colas.pacienteActualizado(paciente);
                 return crearRespuestaExito("Paciente actualizado exitosamente");
             } else {
                 return crearRespuestaError("No se pudo actualizar el paciente");
@@ -448,15 +718,14 @@ public class Service {
         }
     }
     
-    private String procesarBuscarPaciente(JSONObject data) {
+    private MensajeSalida procesarBuscarPaciente(JSONObject data) {
         try {
             String id = data.getString(Protocol.FIELD_PACIENTE_ID);
             
             Paciente paciente = pacienteDao.buscarPorId(id);
             
             if (paciente != null) {
-                JSONObject respData = pacienteToJson(paciente);
-                return crearRespuestaExito("Paciente encontrado", respData);
+                return crearRespuestaExito("Paciente encontrado", json -> JsonModelo.paciente(json, paciente));
             } else {
                 return crearRespuestaError("Paciente no encontrado");
             }
@@ -465,7 +734,7 @@ public class Service {
         }
     }
     
-    private String procesarEliminarPaciente(JSONObject data) {
+    private MensajeSalida procesarEliminarPaciente(JSONObject data) {
         try {
             String id = data.getString(Protocol.FIELD_PACIENTE_ID);
             
@@ -483,37 +752,31 @@ public class Service {
 
     // ==================== PRESCRIPCIÓN Y DESPACHO ====================
     
-    private String procesarCrearReceta(JSONObject data) {
+    private MensajeSalida procesarCrearReceta(Solicitud solicitud) {
         try {
-            String recetaId = data.getString(Protocol.FIELD_RECETA_ID);
-            String fechaConfStr = data.getString(Protocol.FIELD_FECHA_CONFECCION);
-            String fechaRetiroStr = data.getString(Protocol.FIELD_FECHA_RETIRO);
-            String pacienteId = data.getString(Protocol.FIELD_PACIENTE_ID);
-            String medicoId = data.getString(Protocol.FIELD_MEDICO_ID);
-            JSONArray detallesArray = data.getJSONArray(Protocol.FIELD_DETALLES);
+            DatosSolicitud.CrearReceta data = DatosSolicitud.CrearReceta.leer(solicitud);
             
-            Date fechaConfeccion = dateFormat.parse(fechaConfStr);
-            Date fechaRetiro = dateFormat.parse(fechaRetiroStr);
+            Date fechaConfeccion = parsearFecha(data.fechaConfeccion());
+            Date fechaRetiro = parsearFecha(data.fechaRetiro());
             
-            Paciente paciente = pacienteDao.buscarPorId(pacienteId);
+            Paciente paciente = pacienteDao.buscarPorId(data.pacienteId());
             if (paciente == null) {
                 return crearRespuestaError("Paciente no encontrado");
             }
             
-            Receta receta = new Receta(recetaId, fechaConfeccion, fechaRetiro, paciente);
-            receta.setMedicoId(medicoId);
+            Receta receta = new Receta(data.recetaId(), fechaConfeccion, fechaRetiro, paciente);
+            receta.setMedicoId(data.medicoId());
             receta.setEstado(Protocol.ESTADO_CONFECCIONADA);
             
             // Agregar detalles
-            for (int i = 0; i < detallesArray.length(); i++) {
-                JSONObject detalleJson = detallesArray.getJSONObject(i);
+            DatosSolicitud.Detalles detalles = data.detalles();
+            for (int i = 0; i < detalles.cantidad(); i++) {
+                String medCodigo = detalles.codigo(i);
+                int cantidad = detalles.cantidad(i);
+                String indicaciones = detalles.indicaciones(i);
+                int duracionDias = detalles.duracionDias(i);
                 
-                String medCodigo = detalleJson.getString(Protocol.FIELD_MEDICAMENTO_CODIGO);
-                int cantidad = detalleJson.getInt(Protocol.FIELD_CANTIDAD);
-                String indicaciones = detalleJson.getString(Protocol.FIELD_INDICACIONES);
-                int duracionDias = detalleJson.getInt(Protocol.FIELD_DURACION_DIAS);
-                
-                Medicamento medicamento = medicamentoDao.buscarPorCodigo(medCodigo);
+                Medicamento medicamento = catalogoMedicamentos.buscar(medCodigo);
                 if (medicamento == null) {
                     return crearRespuestaError("Medicamento no encontrado: " + medCodigo);
                 }
@@ -535,15 +798,14 @@ public class Service {
         }
     }
     
-    private String procesarBuscarReceta(JSONObject data) {
+    private MensajeSalida procesarBuscarReceta(Solicitud solicitud) {
         try {
-            String recetaId = data.getString(Protocol.FIELD_RECETA_ID);
+            String recetaId = DatosSolicitud.PorReceta.leer(solicitud).recetaId();
             
             Receta receta = recetaDao.buscarPorId(recetaId);
             
             if (receta != null) {
-                JSONObject respData = recetaToJson(receta);
-                return crearRespuestaExito("Receta encontrada", respData);
+                return crearRespuestaExito("Receta encontrada", json -> JsonModelo.receta(json, receta));
             } else {
                 return crearRespuestaError("Receta no encontrada");
             }
@@ -552,124 +814,540 @@ public class Service {
         }
     }
     
-    private String procesarListarRecetas() {
+    private MensajeSalida procesarListarRecetas(Solicitud solicitud, Conexion conexion) {
         try {
-            List<Receta> recetas = recetaDao.listarTodas();
+            DatosSolicitud.ListarRecetas data = DatosSolicitud.ListarRecetas.leer(solicitud);
             
-            JSONArray recetasArray = new JSONArray();
-            for (Receta receta : recetas) {
-                JSONObject recetaJson = recetaToJson(receta);
-                recetasArray.put(recetaJson);
+            if (data.stream()) {
+                return procesarListarRecetasEnFragmentos(solicitud, null, conexion);
             }
             
-            JSONObject respData = new JSONObject();
-            respData.put("recetas", recetasArray);
+            if (data.conVersion()) {
+                return crearDeltaRecetas(null, data.sinceVersion());
+            }
+            
+            if (data.paginada()) {
+                return crearPaginaRecetas(null, Pagina.de(data.limite(), data.after()));
+            }
             
-            return crearRespuestaExito("Lista de recetas obtenida", respData);
+            List<Receta> recetas = recetaDao.listarTodas();
+            
+            return crearRespuestaRecetas("Lista de recetas obtenida", recetas);
         } catch (Exception e) {
             return crearRespuestaError("Error al listar recetas: " + e.getMessage());
         }
     }
     
-    private String procesarListarRecetasEstado(JSONObject data) {
+    private MensajeSalida procesarListarRecetasEstado(Solicitud solicitud, Conexion conexion) {
         try {
-            String estado = data.getString(Protocol.FIELD_ESTADO);
+            DatosSolicitud.ListarRecetas data = DatosSolicitud.ListarRecetas.leer(solicitud);
+            String estado = data.estado();
+            if (estado == null) {
+                return crearRespuestaError("Error al listar recetas: falta el campo " + Protocol.FIELD_ESTADO);
+            }
+            
+            if (data.stream()) {
+                return procesarListarRecetasEnFragmentos(solicitud, estado, conexion);
+            }
             
-            List<Receta> recetas = recetaDao.listarPorEstado(estado);
+            if (data.conVersion()) {
+                return crearDeltaRecetas(estado, data.sinceVersion());
+            }
             
-            JSONArray recetasArray = new JSONArray();
-            for (Receta receta : recetas) {
-                JSONObject recetaJson = recetaToJson(receta);
-                recetasArray.put(recetaJson);
+            if (data.paginada()) {
+                return crearPaginaRecetas(estado, Pagina.de(data.limite(), data.after()));
             }
             
-            JSONObject respData = new JSONObject();
-            respData.put("recetas", recetasArray);
+            // Las recetas activas se listan desde las colas de trabajo, sin ir a MySQL
+            List<Receta> recetas = colas.atiende(estado)
+                ? colas.listar(estado, null, null, Integer.MAX_VALUE)
+                : recetaDao.listarPorEstado(estado);
             
-            return crearRespuestaExito("Lista de recetas obtenida", respData);
+            return crearRespuestaRecetas("Lista de recetas obtenida", recetas);
         } catch (Exception e) {
             return crearRespuestaError("Error al listar recetas: " + e.getMessage());
         }
     }
     
-    private String procesarIniciarDespacho(JSONObject data) {
+    /**
+     * Respuesta con una página de recetas; el cursor es (fecha_confeccion, id) de la última
+     */
+    private MensajeSalida crearPaginaRecetas(String estado, Pagina pagina) throws Exception {
+        Long despuesFecha = null;
+        String despuesId = null;
+        if (pagina.after != null) {
+            despuesFecha = Long.parseLong(pagina.after[0]);
+            despuesId = pagina.after[1];
+        }
+        
+        List<Receta> recetas;
+        if (estado != null && colas.atiende(estado)) {
+            recetas = colas.listar(estado, despuesFecha, despuesId, pagina.limite + 1);
+        } else {
+            recetas = recetaDao.listarPagina(estado, despuesFecha == null ? null : new Timestamp(despuesFecha),
+                                             despuesId, pagina.limite + 1);
+        }
+        boolean hayMas = recetas.size() > pagina.limite;
+        if (hayMas) {
+            recetas = recetas.subList(0, pagina.limite);
+        }
+        
+        List<Receta> listado = recetas;
+        return crearRespuestaExito("Lista de recetas obtenida", json -> {
+            json.objeto().campo("recetas");
+            JsonModelo.recetas(json, listado);
+            if (hayMas) {
+                Receta ultima = listado.get(listado.size() - 1);
+                json.campo(Protocol.FIELD_NEXT_CURSOR,
+                    Pagina.cursor(String.valueOf(ultima.getFechaConfeccion().getTime()), ultima.getId()));
+            }
+            json.finObjeto();
+        });
+    }
+    
+    /**
+     * Respuesta de sincronización por deltas: las recetas cambiadas después de
+     * sinceVersion, los ids que salieron del estado pedido y la nueva marca
+     */
+    private MensajeSalida crearDeltaRecetas(String estado, long desdeVersion) throws Exception {
+        RecetaDao.Cambios cambios = recetaDao.listarCambios(estado, desdeVersion);
+        
+        return crearRespuestaExito(cambios.recetas().size() + " recetas cambiadas", json -> {
+            json.objeto().campo("recetas");
+            JsonModelo.recetas(json, cambios.recetas());
+            json.campo(Protocol.FIELD_REMOVIDAS).arreglo();
+            for (String id : cambios.removidas()) {
+                json.valor(id);
+            }
+            json.finArreglo()
+                .campo(Protocol.FIELD_VERSION, cambios.version())
+                .finObjeto();
+        });
+    }
+    
+    /**
+     * Lista recetas en fragmentos; la conexión escribe todos los mensajes,
+     * incluido el RESPONSE_END, así que no hay respuesta que devolver
+     */
+    private MensajeSalida procesarListarRecetasEnFragmentos(Solicitud solicitud, String estado, Conexion conexion) {
+        conexion.transmitir(solicitud, new RecorridoRecetas(solicitud, estado));
+        return null;
+    }
+    
+    /**
+     * Recetas ordenadas por (fecha_confeccion, id) descendente, un
+     * RESPONSE_CHUNK por página de keyset (RecetaDao.listarPagina) y al final
+     * un RESPONSE_END con el total. Cada página se lee con una conexión del
+     * pool que se devuelve antes de enviarla y la siguiente se pide recién
+     * cuando hay lugar en la salida: un cliente que no lee no retiene
+     * conexiones, threads ni más de una página en memoria
+     * Las páginas no comparten instantánea: una receta que cambia de estado
+     * durante el recorrido puede aparecer en una página posterior o no aparecer
+     */
+    private final class RecorridoRecetas implements Fragmentos {
+        
+        private final Solicitud solicitud;
+        private final String estado;
+        private Timestamp despuesFecha;
+        private String despuesId;
+        private int total;
+        // La última página vino incompleta: no hay más recetas
+        private boolean sinMas;
+        private boolean terminada;
+        
+        RecorridoRecetas(Solicitud solicitud, String estado) {
+            this.solicitud = solicitud;
+            this.estado = estado;
+        }
+        
+        @Override
+        public MensajeSalida siguiente() {
+            try {
+                if (!sinMas) {
+                    List<Receta> pagina = recetaDao.listarPagina(estado, despuesFecha, despuesId, RECETAS_POR_FRAGMENTO);
+                    if (!pagina.isEmpty()) {
+                        total += pagina.size();
+                        sinMas = pagina.size() < RECETAS_POR_FRAGMENTO;
+                        Receta ultima = pagina.get(pagina.size() - 1);
+                        despuesFecha = new Timestamp(ultima.getFechaConfeccion().getTime());
+                        despuesId = ultima.getId();
+                        return crearFragmento(pagina);
+                    }
+                }
+                terminada = true;
+                int enviadas = total;
+                return crearRespuesta(solicitud, Protocol.TYPE_RESPONSE_END, Protocol.STATUS_SUCCESS,
+                                      "Lista de recetas enviada",
+                                      json -> json.objeto().campo(Protocol.FIELD_TOTAL, enviadas).finObjeto());
+            } catch (Exception e) {
+                terminada = true;
+                return crearRespuesta(solicitud, Protocol.TYPE_RESPONSE_END, Protocol.STATUS_ERROR,
+                                      "Error al listar recetas: " + e.getMessage(), null);
+            }
+        }
+        
+        @Override
+        public boolean terminada() {
+            return terminada;
+        }
+        
+        private MensajeSalida crearFragmento(List<Receta> recetas) {
+            JsonWriter json = JsonWriter.obtener(solicitud.isBinaria());
+            json.objeto()
+                .campo(Protocol.FIELD_REQUEST_ID, solicitud.getRequestId())
+                .campo("type", Protocol.TYPE_RESPONSE_CHUNK)
+                .campo("data").objeto().campo("recetas");
+            JsonModelo.recetas(json, recetas);
+            return json.finObjeto().finObjeto().terminarMensaje();
+        }
+    }
+    
+    private MensajeSalida procesarIniciarDespacho(Solicitud solicitud, Conexion conexion) {
         try {
-            String recetaId = data.getString(Protocol.FIELD_RECETA_ID);
+            DatosSolicitud.PorReceta data = DatosSolicitud.PorReceta.leer(solicitud);
             
-            boolean exito = recetaDao.actualizarEstado(recetaId, Protocol.ESTADO_PROCESO);
+            String error = transicionar(data.recetaId(), Protocol.ESTADO_CONFECCIONADA, Protocol.ESTADO_PROCESO,
+                                        farmaceutaDe(data.farmaceutaId(), conexion));
             
-            if (exito) {
+            if (error == null) {
                 return crearRespuestaExito("Despacho iniciado");
             } else {
-                return crearRespuestaError("No se pudo iniciar el despacho");
+                return crearRespuestaError("No se pudo iniciar el despacho: " + error);
             }
         } catch (Exception e) {
             return crearRespuestaError("Error al iniciar despacho: " + e.getMessage());
         }
     }
     
-    private String procesarMarcarLista(JSONObject data) {
+    private MensajeSalida procesarMarcarLista(Solicitud solicitud) {
         try {
-            String recetaId = data.getString(Protocol.FIELD_RECETA_ID);
+            String recetaId = DatosSolicitud.PorReceta.leer(solicitud).recetaId();
             
-            boolean exito = recetaDao.actualizarEstado(recetaId, Protocol.ESTADO_LISTA);
+            String error = transicionar(recetaId, Protocol.ESTADO_PROCESO, Protocol.ESTADO_LISTA, null);
             
-            if (exito) {
+            if (error == null) {
                 return crearRespuestaExito("Receta marcada como lista");
             } else {
-                return crearRespuestaError("No se pudo marcar la receta como lista");
+                return crearRespuestaError("No se pudo marcar la receta como lista: " + error);
             }
         } catch (Exception e) {
             return crearRespuestaError("Error al marcar receta lista: " + e.getMessage());
         }
     }
     
-    private String procesarEntregarReceta(JSONObject data) {
+    private MensajeSalida procesarEntregarReceta(Solicitud solicitud) {
         try {
-            String recetaId = data.getString(Protocol.FIELD_RECETA_ID);
+            String recetaId = DatosSolicitud.PorReceta.leer(solicitud).recetaId();
             
-            boolean exito = recetaDao.actualizarEstado(recetaId, Protocol.ESTADO_ENTREGADA);
+            String error = transicionar(recetaId, Protocol.ESTADO_LISTA, Protocol.ESTADO_ENTREGADA, null);
             
-            if (exito) {
+            if (error == null) {
                 return crearRespuestaExito("Receta entregada");
             } else {
-                return crearRespuestaError("No se pudo entregar la receta");
+                return crearRespuestaError("No se pudo entregar la receta: " + error);
             }
         } catch (Exception e) {
             return crearRespuestaError("Error al entregar receta: " + e.getMessage());
         }
     }
     
-    // ==================== USUARIOS ====================
+    /**
+     * Transición compare-and-set de una receta
+     * @return null si se aplicó, o el motivo por el que no (no existe o ya cambió de estado)
+     */
+    private String transicionar(String recetaId, String estadoEsperado, String nuevoEstado,
+                                String farmaceutaId) throws Exception {
+        List<String> ids = List.of(recetaId);
+        if (!recetaDao.transicionar(ids, estadoEsperado, nuevoEstado, farmaceutaId).isEmpty()) {
+            return null;
+        }
+        return motivoSinTransicion(recetaDao.leerEstados(ids).get(recetaId), estadoEsperado);
+    }
+    
+    private static String motivoSinTransicion(String estadoActual, String estadoEsperado) {
+        if (estadoActual == null) {
+            return "receta no encontrada";
+        }
+        return "la receta está en estado " + estadoActual + ", se esperaba " + estadoEsperado;
+    }
+    
+    /**
+     * Farmaceuta que reclama un despacho: el indicado en la solicitud o,
+     * si no viene, el usuario con sesión iniciada en la conexión
+     */
+    private static String farmaceutaDe(String farmaceutaId, Conexion conexion) {
+        if (farmaceutaId == null && conexion != null && conexion.getSesion().isAutenticada()) {
+            farmaceutaId = conexion.getSesion().getUsuarioId();
+        }
+        return farmaceutaId;
+    }
     
-    private String procesarListarUsuarios() {
+    /**
+     * Aplica una transición compare-and-set a varias recetas en un solo batch
+     * Responde SUCCESS con el resultado de cada id: las que no existen o ya no
+     * están en el estado esperado (otro farmaceuta ganó la carrera) fallan sin
+     * impedir que se actualicen las demás
+     */
+    private MensajeSalida procesarTransicionLote(JSONObject data, String estadoEsperado, String nuevoEstado,
+                                          String farmaceutaId) {
         try {
-            List<Usuario> usuarios = usuarioDao.listarTodos();
+            JSONArray idsArray = data.getJSONArray(Protocol.FIELD_RECETA_IDS);
+            if (idsArray.length() > MAX_RECETAS_POR_LOTE) {
+                return crearRespuestaError("Demasiadas recetas en el lote (máximo " + MAX_RECETAS_POR_LOTE + ")");
+            }
             
-            JSONArray usuariosArray = new JSONArray();
-            for (Usuario usuario : usuarios) {
-                JSONObject usuarioJson = new JSONObject();
-                usuarioJson.put(Protocol.FIELD_USUARIO_ID, usuario.getId());
-                usuarioJson.put(Protocol.FIELD_NOMBRE, usuario.getNombre());
-                usuarioJson.put(Protocol.FIELD_ROL, usuario.getRol());
-                
-                if (usuario instanceof Medico) {
-                    usuarioJson.put(Protocol.FIELD_ESPECIALIDAD, ((Medico) usuario).getEspecialidad());
+            Set<String> ids = new LinkedHashSet<>();
+            for (int i = 0; i < idsArray.length(); i++) {
+                ids.add(idsArray.getString(i));
+            }
+            
+            Set<String> ganadas = new HashSet<>(
+                recetaDao.transicionar(new ArrayList<>(ids), estadoEsperado, nuevoEstado, farmaceutaId));
+            
+            // Solo se consulta el estado actual de las que no se pudieron actualizar
+            List<String> perdidas = new ArrayList<>();
+            for (String id : ids) {
+                if (!ganadas.contains(id)) {
+                    perdidas.add(id);
                 }
-                
-                usuariosArray.put(usuarioJson);
+            }
+            Map<String, String> actuales = recetaDao.leerEstados(perdidas);
+            
+            return crearRespuestaExito(ganadas.size() + " de " + ids.size() + " recetas actualizadas", json -> {
+                json.objeto()
+                    .campo(Protocol.FIELD_ESTADO, nuevoEstado)
+                    .campo("actualizadas", ganadas.size())
+                    .campo("resultados").arreglo();
+                for (String id : ids) {
+                    boolean exito = ganadas.contains(id);
+                    json.objeto()
+                        .campo(Protocol.FIELD_RECETA_ID, id)
+                        .campo("exito", exito);
+                    if (!exito) {
+                        json.campo("message", motivoSinTransicion(actuales.get(id), estadoEsperado))
+                            .campo("estadoActual", actuales.get(id));
+                    }
+                    json.finObjeto();
+                }
+                json.finArreglo().finObjeto();
+            });
+        } catch (Exception e) {
+            return crearRespuestaError("Error al actualizar recetas: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Reclama para un farmaceuta las recetas confeccionadas más antiguas
+     * (data.cantidad, por defecto 10) y las pasa a proceso. Farmaceutas
+     * concurrentes reciben lotes disjuntos sin esperarse entre sí
+     */
+    private MensajeSalida procesarReclamarRecetas(JSONObject data, Conexion conexion) {
+        try {
+            String farmaceutaId = farmaceutaDe(data.optString(Protocol.FIELD_FARMACEUTA_ID, null), conexion);
+            if (farmaceutaId == null) {
+                return crearRespuestaError("Debe indicar el farmaceuta que reclama las recetas");
+            }
+            int cantidad = Math.max(1, Math.min(data.optInt(Protocol.FIELD_CANTIDAD, 10), MAX_RECETAS_RECLAMADAS));
+            
+            List<Receta> recetas = recetaDao.reclamarSiguientes(farmaceutaId, cantidad);
+            
+            return crearRespuestaRecetas(recetas.size() + " recetas reclamadas", recetas);
+        } catch (Exception e) {
+            return crearRespuestaError("Error al reclamar recetas: " + e.getMessage());
+        }
+    }
+    
+    // ==================== SUSCRIPCIONES ====================
+    
+    /**
+     * Suscribe la conexión a los eventos de recetas de los estados pedidos
+     * Sin "estados", un farmaceuta sigue sus colas de trabajo (confeccionada,
+     * proceso y lista) y los demás roles todos los estados
+     */
+    private MensajeSalida procesarSuscribir(JSONObject data, Conexion conexion) {
+        try {
+            Sesion sesion = conexion.getSesion();
+            if (!sesion.isAutenticada()) {
+                return crearRespuestaError("Debe iniciar sesión para suscribirse");
+            }
+            
+            Set<String> estados = new LinkedHashSet<>();
+            JSONArray estadosArray = data.optJSONArray(Protocol.FIELD_ESTADOS);
+            if (estadosArray != null) {
+                for (int i = 0; i < estadosArray.length(); i++) {
+                    String estado = estadosArray.getString(i);
+                    if (!ESTADOS_RECETA.contains(estado)) {
+                        return crearRespuestaError("Estado de receta inválido: " + estado);
+                    }
+                    estados.add(estado);
+                }
+            } else if ("FAR".equals(sesion.getRol())) {
+                estados.addAll(List.of(Protocol.ESTADO_CONFECCIONADA, Protocol.ESTADO_PROCESO, Protocol.ESTADO_LISTA));
+            } else {
+                estados.addAll(ESTADOS_RECETA);
+            }
+            
+            conexion.getServer().getRegistro().suscribir(conexion, estados);
+            
+            return crearRespuestaExito("Suscripción registrada", json -> {
+                json.objeto().campo(Protocol.FIELD_ESTADOS).arreglo();
+                for (String estado : estados) {
+                    json.valor(estado);
+                }
+                json.finArreglo().finObjeto();
+            });
+        } catch (Exception e) {
+            return crearRespuestaError("Error al suscribir: " + e.getMessage());
+        }
+    }
+    
+    private MensajeSalida procesarDesuscribir(Conexion conexion) {
+        conexion.getServer().getRegistro().desuscribir(conexion);
+        return crearRespuestaExito("Suscripción cancelada");
+    }
+    
+    // ==================== REPORTES ====================
+    
+    private MensajeSalida procesarObtenerEstadisticas() {
+        try {
+            // Sembrarlas ahora, con clientes conectados, daría conteos inconsistentes
+            if (!estadisticas.isSembradas()) {
+                return crearRespuestaError("Estadísticas no disponibles: no se pudieron cargar al iniciar el servidor");
             }
             
-            JSONObject respData = new JSONObject();
-            respData.put("usuarios", usuariosArray);
+            return crearRespuestaExito("Estadísticas obtenidas", json -> {
+                json.objeto().campo("totalRecetas", estadisticas.getTotal()).campo("porEstado");
+                JsonModelo.conteos(json, estadisticas.getPorEstado());
+                json.campo("porMedico");
+                JsonModelo.conteos(json, estadisticas.getPorMedico());
+                json.campo("porMedicamento");
+                JsonModelo.conteos(json, estadisticas.getPorMedicamento());
+                json.campo("porDia");
+                JsonModelo.conteos(json, estadisticas.getPorDia());
+                json.finObjeto();
+            });
+        } catch (Exception e) {
+            return crearRespuestaError("Error al obtener estadísticas: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Métricas del servidor: por acción, solicitudes, errores y latencias por
+     * fase en µs (ver MetricasAcciones); con conexión, también la compresión
+     */
+    private MensajeSalida procesarObtenerMetricas(Conexion conexion) {
+        return crearRespuestaExito("Métricas obtenidas", json -> {
+            json.objeto();
+            metricas.escribirCampos(json);
+            if (conexion != null) {
+                MetricasCompresion compresion = conexion.getServer().getMetricasCompresion();
+                json.campo("compresion").objeto()
+                    .campo("tramasComprimidas", compresion.getMensajesComprimidos())
+                    .campo("tramasBajoUmbral", compresion.getMensajesBajoUmbral())
+                    .campo("bytesOriginales", compresion.getBytesOriginales())
+                    .campo("bytesComprimidos", compresion.getBytesComprimidos())
+                    .campo("nanosCompresion", compresion.getNanosCompresion())
+                    .finObjeto();
+            }
+            json.finObjeto();
+        });
+    }
+    
+    /**
+     * Histórico por rango de fechas, agrupado por día, mes, trimestre o año
+     * Datos opcionales: desde y hasta (yyyy-MM-dd, por defecto el último año),
+     * agrupacion (por defecto "mes"), medicamentoCodigo y medicoId
+     */
+    private MensajeSalida procesarObtenerHistorico(JSONObject data) {
+        try {
+            LocalDate hasta = data.has(Protocol.FIELD_HASTA)
+                ? LocalDate.parse(data.getString(Protocol.FIELD_HASTA)) : LocalDate.now(ZONA);
+            LocalDate desde = data.has(Protocol.FIELD_DESDE)
+                ? LocalDate.parse(data.getString(Protocol.FIELD_DESDE)) : hasta.minusYears(1).plusDays(1);
+            HistoricoDao.Agrupacion agrupacion = HistoricoDao.Agrupacion.desde(
+                data.optString(Protocol.FIELD_AGRUPACION, "mes"));
+            String medicamentoCodigo = data.optString(Protocol.FIELD_MEDICAMENTO_CODIGO, null);
+            String medicoId = data.optString(Protocol.FIELD_MEDICO_ID, null);
+            
+            if (desde.isAfter(hasta)) {
+                return crearRespuestaError("Rango de fechas inválido");
+            }
             
-            return crearRespuestaExito("Lista de usuarios obtenida", respData);
+            Map<String, Map<String, Long>> estados = historicoDao.consultarEstados(desde, hasta, agrupacion);
+            Map<String, Map<String, Long>> medicamentos =
+                historicoDao.consultarMedicamentos(desde, hasta, agrupacion, medicamentoCodigo);
+            Map<String, Map<String, Long>> medicos =
+                historicoDao.consultarMedicos(desde, hasta, agrupacion, medicoId);
+            
+            Set<String> periodos = new TreeSet<>(estados.keySet());
+            periodos.addAll(medicamentos.keySet());
+            periodos.addAll(medicos.keySet());
+            
+            return crearRespuestaExito("Histórico obtenido", json -> {
+                json.objeto()
+                    .campo(Protocol.FIELD_DESDE, desde.toString())
+                    .campo(Protocol.FIELD_HASTA, hasta.toString())
+                    .campo(Protocol.FIELD_AGRUPACION, agrupacion.name().toLowerCase())
+                    .campo("periodos").arreglo();
+                for (String periodo : periodos) {
+                    json.objeto().campo("periodo", periodo).campo("porEstado");
+                    JsonModelo.conteos(json, estados.getOrDefault(periodo, Map.of()));
+                    json.campo("unidadesPorMedicamento");
+                    JsonModelo.conteos(json, medicamentos.getOrDefault(periodo, Map.of()));
+                    json.campo("recetasPorMedico");
+                    JsonModelo.conteos(json, medicos.getOrDefault(periodo, Map.of()));
+                    json.finObjeto();
+                }
+                json.finArreglo().finObjeto();
+            });
+        } catch (Exception e) {
+            return crearRespuestaError("Error al obtener histórico: " + e.getMessage());
+        }
+    }
+    
+    // ==================== USUARIOS ====================
+    
+    private MensajeSalida procesarListarUsuarios(JSONObject data) {
+        try {
+            List<Usuario> usuarios;
+            Pagina pagina = Pagina.desde(data);
+            if (pagina == null) {
+                usuarios = usuarioDao.listarTodos();
+            } else {
+                String despuesId = pagina.after == null ? null : pagina.after[0];
+                usuarios = usuarioDao.listarPagina(despuesId, pagina.limite + 1);
+            }
+            
+            boolean hayMas = pagina != null && usuarios.size() > pagina.limite;
+            if (hayMas) {
+                usuarios = usuarios.subList(0, pagina.limite);
+            }
+            
+            List<Usuario> lista = usuarios;
+            return crearRespuestaExito("Lista de usuarios obtenida", json -> {
+                json.objeto().campo("usuarios").arreglo();
+                for (Usuario usuario : lista) {
+                    json.objeto()
+                        .campo(Protocol.FIELD_USUARIO_ID, usuario.getId())
+                        .campo(Protocol.FIELD_NOMBRE, usuario.getNombre())
+                        .campo(Protocol.FIELD_ROL, usuario.getRol());
+                    if (usuario instanceof Medico) {
+                        json.campo(Protocol.FIELD_ESPECIALIDAD, ((Medico) usuario).getEspecialidad());
+                    }
+                    json.finObjeto();
+                }
+                json.finArreglo();
+                if (hayMas) {
+                    json.campo(Protocol.FIELD_NEXT_CURSOR, Pagina.cursor(lista.get(lista.size() - 1).getId()));
+                }
+                json.finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al listar usuarios: " + e.getMessage());
         }
     }
     
-    private String procesarAgregarUsuario(JSONObject data) {
+    private MensajeSalida procesarAgregarUsuario(JSONObject data) {
         try {
             String id = data.getString(Protocol.FIELD_USUARIO_ID);
             String clave = data.getString(Protocol.FIELD_CLAVE);
@@ -705,29 +1383,27 @@ public class Service {
         }
     }
     
-    private String procesarListarUsuariosActivos() {
+    private MensajeSalida procesarListarUsuariosActivos() {
         try {
             List<UsuarioActivo> usuariosActivos = usuarioActivoDao.listarActivos();
             
-            JSONArray usuariosArray = new JSONArray();
-            for (UsuarioActivo ua : usuariosActivos) {
-                JSONObject uaJson = new JSONObject();
-                uaJson.put(Protocol.FIELD_USUARIO_ID, ua.getUsuarioId());
-                uaJson.put(Protocol.FIELD_NOMBRE, ua.getNombre());
-                uaJson.put(Protocol.FIELD_ROL, ua.getRol());
-                usuariosArray.put(uaJson);
-            }
-            
-            JSONObject respData = new JSONObject();
-            respData.put("usuariosActivos", usuariosArray);
-            
-            return crearRespuestaExito("Lista de usuarios activos obtenida", respData);
+            return crearRespuestaExito("Lista de usuarios activos obtenida", json -> {
+                json.objeto().campo("usuariosActivos").arreglo();
+                for (UsuarioActivo ua : usuariosActivos) {
+                    json.objeto()
+                        .campo(Protocol.FIELD_USUARIO_ID, ua.getUsuarioId())
+                        .campo(Protocol.FIELD_NOMBRE, ua.getNombre())
+                        .campo(Protocol.FIELD_ROL, ua.getRol())
+                        .finObjeto();
+                }
+                json.finArreglo().finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al listar usuarios activos: " + e.getMessage());
         }
     }
 
-    private String procesarEliminarUsuario(JSONObject data) {
+    private MensajeSalida procesarEliminarUsuario(JSONObject data) {
         try {
             String id = data.getString(Protocol.FIELD_USUARIO_ID);
             
@@ -745,7 +1421,7 @@ public class Service {
     
     // ==================== MENSAJERÍA ====================
     
-    private String procesarEnviarMensaje(JSONObject data, ClientHandler clientHandler) {
+    private MensajeSalida procesarEnviarMensaje(JSONObject data, Conexion conexion) {
         try {
             String remitenteId = data.getString(Protocol.FIELD_REMITENTE_ID);
             String remitenteNombre = data.getString(Protocol.FIELD_REMITENTE_NOMBRE);
@@ -760,9 +1436,9 @@ public class Service {
             
             if (exito) {
                 // Notificar al destinatario si está conectado
-                String notificacion = clientHandler.getServer().getNotificationManager()
+                MensajeSalida notificacion = conexion.getServer().getNotificationManager()
                     .crearNotificacionMensaje(remitenteId, remitenteNombre, destinatarioId, texto);
-                clientHandler.getServer().notificarACliente(destinatarioId, notificacion);
+                conexion.getServer().notificarACliente(destinatarioId, notificacion);
                 
                 return crearRespuestaExito("Mensaje enviado");
             } else {
@@ -773,33 +1449,31 @@ public class Service {
         }
     }
     
-    private String procesarRecibirMensajes(JSONObject data) {
+    private MensajeSalida procesarRecibirMensajes(Solicitud solicitud) {
         try {
-            String usuarioId = data.getString(Protocol.FIELD_USUARIO_ID);
+            String usuarioId = DatosSolicitud.PorUsuario.leer(solicitud).usuarioId();
             
             List<Mensaje> mensajes = mensajeDao.buscarMensajesNoLeidos(usuarioId);
             
-            JSONArray mensajesArray = new JSONArray();
-            for (Mensaje msg : mensajes) {
-                JSONObject msgJson = new JSONObject();
-                msgJson.put(Protocol.FIELD_MENSAJE_ID, msg.getId());
-                msgJson.put(Protocol.FIELD_REMITENTE_ID, msg.getRemitenteId());
-                msgJson.put(Protocol.FIELD_REMITENTE_NOMBRE, msg.getRemitenteNombre());
-                msgJson.put(Protocol.FIELD_TEXTO, msg.getTexto());
-                msgJson.put("fechaEnvio", dateFormat.format(msg.getFechaEnvio()));
-                mensajesArray.put(msgJson);
-            }
-            
-            JSONObject respData = new JSONObject();
-            respData.put("mensajes", mensajesArray);
-            
-            return crearRespuestaExito("Mensajes obtenidos", respData);
+            return crearRespuestaExito("Mensajes obtenidos", json -> {
+                json.objeto().campo("mensajes").arreglo();
+                for (Mensaje msg : mensajes) {
+                    json.objeto()
+                        .campo(Protocol.FIELD_MENSAJE_ID, msg.getId())
+                        .campo(Protocol.FIELD_REMITENTE_ID, msg.getRemitenteId())
+                        .campo(Protocol.FIELD_REMITENTE_NOMBRE, msg.getRemitenteNombre())
+                        .campo(Protocol.FIELD_TEXTO, msg.getTexto())
+                        .campo("fechaEnvio", formatearFecha(msg.getFechaEnvio()))
+                        .finObjeto();
+                }
+                json.finArreglo().finObjeto();
+            });
         } catch (Exception e) {
             return crearRespuestaError("Error al recibir mensajes: " + e.getMessage());
         }
     }
     
-    private String procesarMarcarMensajeLeido(JSONObject data) {
+    private MensajeSalida procesarMarcarMensajeLeido(JSONObject data) {
         try {
             int mensajeId = data.getInt(Protocol.FIELD_MENSAJE_ID);
             
@@ -815,16 +1489,13 @@ public class Service {
         }
     }
     
-    private String procesarContarMensajesNoLeidos(JSONObject data) {
+    private MensajeSalida procesarContarMensajesNoLeidos(Solicitud solicitud) {
         try {
-            String usuarioId = data.getString(Protocol.FIELD_USUARIO_ID);
+            String usuarioId = DatosSolicitud.PorUsuario.leer(solicitud).usuarioId();
             
             int count = mensajeDao.contarNoLeidos(usuarioId);
             
-            JSONObject respData = new JSONObject();
-            respData.put("count", count);
-            
-            return crearRespuestaExito("Conteo obtenido", respData);
+            return crearRespuestaExito("Conteo obtenido", json -> json.objeto().campo("count", count).finObjeto());
         } catch (Exception e) {
             return crearRespuestaError("Error al contar mensajes: " + e.getMessage());
         }
@@ -832,82 +1503,82 @@ public class Service {
     
     // ==================== MÉTODOS AUXILIARES ====================
     
-    private JSONObject pacienteToJson(Paciente pac) {
-        JSONObject json = new JSONObject();
-        json.put(Protocol.FIELD_PACIENTE_ID, pac.getId());
-        json.put(Protocol.FIELD_NOMBRE, pac.getNombre());
-        json.put(Protocol.FIELD_FECHA_NACIMIENTO, dateFormat.format(pac.getFechaNacimiento()));
-        json.put(Protocol.FIELD_TELEFONO, pac.getTelefono());
-        return json;
-    }
-    
-    private JSONObject medicamentoToJson(Medicamento med) {
-        JSONObject json = new JSONObject();
-        json.put(Protocol.FIELD_MEDICAMENTO_CODIGO, med.getCodigo());
-        json.put(Protocol.FIELD_NOMBRE, med.getNombre());
-        json.put(Protocol.FIELD_PRESENTACION, med.getPresentacion());
-        return json;
-    }
-    
-    private JSONObject recetaToJson(Receta receta) {
-        JSONObject json = new JSONObject();
-        json.put(Protocol.FIELD_RECETA_ID, receta.getId());
-        json.put(Protocol.FIELD_FECHA_CONFECCION, dateFormat.format(receta.getFechaConfeccion()));
-        json.put(Protocol.FIELD_FECHA_RETIRO, dateFormat.format(receta.getFechaRetiro()));
-        json.put(Protocol.FIELD_ESTADO, receta.getEstado());
-        json.put(Protocol.FIELD_MEDICO_ID, receta.getMedicoId());
-        json.put("paciente", pacienteToJson(receta.getPaciente()));
-        
-        // Fechas opcionales
-        if (receta.getFechaProceso() != null) {
-            json.put("fechaProceso", dateFormat.format(receta.getFechaProceso()));
-        }
-        if (receta.getFechaLista() != null) {
-            json.put("fechaLista", dateFormat.format(receta.getFechaLista()));
-        }
-        if (receta.getFechaEntrega() != null) {
-            json.put("fechaEntrega", dateFormat.format(receta.getFechaEntrega()));
+    static String formatearFecha(Date fecha) {
+        return FORMATO_FECHA.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(fecha.getTime()), ZONA));
+    }
+    
+    /**
+     * Parsea una fecha "yyyy-MM-dd HH:mm:ss"; como SimpleDateFormat, ignora texto sobrante al final
+     */
+    private static Date parsearFecha(String texto) {
+        LocalDateTime fecha = LocalDateTime.from(FORMATO_FECHA.parse(texto, new ParsePosition(0)));
+        return Date.from(fecha.atZone(ZONA).toInstant());
+    }
+    
+    private MensajeSalida crearRespuestaExito(String mensaje) {
+        return crearRespuesta(Protocol.TYPE_RESPONSE, Protocol.STATUS_SUCCESS, mensaje, null);
+    }
+    
+    /**
+     * Respuesta exitosa cuya data se escribe directamente en el JsonWriter
+     */
+    private MensajeSalida crearRespuestaExito(String mensaje, Consumer<JsonWriter> data) {
+        return crearRespuesta(Protocol.TYPE_RESPONSE, Protocol.STATUS_SUCCESS, mensaje, data);
+    }
+    
+    /**
+     * Respuesta exitosa con data {"recetas": [...]}
+     */
+    private MensajeSalida crearRespuestaRecetas(String mensaje, List<Receta> recetas) {
+        return crearRespuestaExito(mensaje, json -> {
+            json.objeto().campo("recetas");
+            JsonModelo.recetas(json, recetas);
+            json.finObjeto();
+        });
+    }
+    
+    private MensajeSalida crearRespuestaError(String mensaje) {
+        return crearRespuesta(Protocol.TYPE_RESPONSE, Protocol.STATUS_ERROR, mensaje, null);
+    }
+    
+    /**
+     * Respuesta de error a una solicitud cuyo procesamiento falló fuera de
+     * procesarSolicitud; lleva el mismo sobre, con su requestId
+     */
+    public MensajeSalida crearRespuestaError(Solicitud solicitud, String mensaje) {
+        return crearRespuesta(solicitud, Protocol.TYPE_RESPONSE, Protocol.STATUS_ERROR, mensaje, null);
+    }
+    
+    /**
+     * Escribe el sobre de la respuesta en el encuadre de la solicitud en curso
+     * (JSON o MessagePack), con su requestId como primer campo si lo trae;
+     * data null escribe un objeto vacío
+     */
+    private MensajeSalida crearRespuesta(String tipo, String status, String mensaje, Consumer<JsonWriter> data) {
+        return crearRespuesta(solicitudEnCurso.get(), tipo, status, mensaje, data);
+    }
+    
+    /**
+     * Como crearRespuesta, para una solicitud que se sigue respondiendo fuera
+     * de procesarSolicitud (respuestas en fragmentos retomadas)
+     */
+    private MensajeSalida crearRespuesta(Solicitud solicitud, String tipo, String status, String mensaje,
+                                         Consumer<JsonWriter> data) {
+        long inicio = System.nanoTime();
+        JsonWriter json = JsonWriter.obtener(solicitud != null && solicitud.isBinaria());
+        json.objeto()
+            .campo(Protocol.FIELD_REQUEST_ID, solicitud == null ? null : solicitud.getRequestId())
+            .campo("type", tipo)
+            .campo("status", status)
+            .campo("message", mensaje)
+            .campo("data");
+        if (data == null) {
+            json.objeto().finObjeto();
+        } else {
+            data.accept(json);
         }
-        
-        // Detalles
-        JSONArray detallesArray = new JSONArray();
-        for (DetalleReceta detalle : receta.getDetalles()) {
-            JSONObject detalleJson = new JSONObject();
-            detalleJson.put("medicamento", medicamentoToJson(detalle.getMedicamento()));
-            detalleJson.put(Protocol.FIELD_CANTIDAD, detalle.getCantidad());
-            detalleJson.put(Protocol.FIELD_INDICACIONES, detalle.getIndicaciones());
-            detalleJson.put(Protocol.FIELD_DURACION_DIAS, detalle.getDuracionDias());
-            detallesArray.put(detalleJson);
-        }
-        json.put(Protocol.FIELD_DETALLES, detallesArray);
-        
-        return json;
-    }
-    
-    private String crearRespuestaExito(String mensaje) {
-        JSONObject response = new JSONObject();
-        response.put("type", Protocol.TYPE_RESPONSE);
-        response.put("status", Protocol.STATUS_SUCCESS);
-        response.put("message", mensaje);
-        response.put("data", new JSONObject());
-        return response.toString();
-    }
-    
-    private String crearRespuestaExito(String mensaje, JSONObject data) {
-        JSONObject response = new JSONObject();
-        response.put("type", Protocol.TYPE_RESPONSE);
-        response.put("status", Protocol.STATUS_SUCCESS);
-        response.put("message", mensaje);
-        response.put("data", data);
-        return response.toString();
-    }
-    
-    private String crearRespuestaError(String mensaje) {
-        JSONObject response = new JSONObject();
-        response.put("type", Protocol.TYPE_RESPONSE);
-        response.put("status", Protocol.STATUS_ERROR);
-        response.put("message", mensaje);
-        response.put("data", new JSONObject());
-        return response.toString();
+        MensajeSalida respuesta = json.finObjeto().terminarMensaje();
+        metricas.sumarSerializacion(System.nanoTime() - inicio, Protocol.STATUS_ERROR.equals(status));
+        return respuesta;
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package service;
+
+import org.json.JSONObject;
+
+/**
+ * Solicitud ya decodificada del sobre REQUEST
+ * Si el mensaje no era válido, la solicitud lleva el error a responder
+ *
+ * El campo data no se parsea al decodificar: se guarda dónde está en el
+ * mensaje. Las acciones frecuentes lo leen tipado con leerData() y el resto
+ * lo pide como JSONObject con getData(), que se arma la primera vez
+ *
+ * Una solicitud llega como línea JSON o como trama MessagePack (encuadre
+ * binario); se lee con JsonReader o MsgPackReader y se responde en el mismo
+ * encuadre (isBinaria)
+ */
+public class Solicitud {
+
+    private final String action;
+    // El mensaje recibido: texto JSON o, en el encuadre binario, los bytes de la trama
+    private final String mensaje;
+    private final byte[] trama;
+    private final boolean binaria;
+    // Tramo [dataInicio, dataFin) del mensaje con el objeto data; -1 si no vino
+    private final int dataInicio;
+    private final int dataFin;
+    private final String requestId;
+    private final String error;
+    private JSONObject data;
+    // Lo que tardó decodificar el sobre (MetricasAcciones)
+    private long nanosDecodificacion;
+
+    public Solicitud(String action, String mensaje, int dataInicio, int dataFin, String requestId) {
+        this(action, mensaje, null, false, dataInicio, dataFin, requestId, null);
+    }
+
+    private Solicitud(String action, String mensaje, byte[] trama, boolean binaria, int dataInicio, int dataFin,
+                      String requestId, String error) {
+        this.action = action;
+        this.mensaje = mensaje;
+        this.trama = trama;
+        this.binaria = binaria;
+        this.dataInicio = dataInicio;
+        this.dataFin = dataFin;
+        this.requestId = requestId;
+        this.error = error;
+    }
+
+    /**
+     * Crea una solicitud inválida que solo se responde con el error indicado
+     */
+    public static Solicitud invalida(String error, String requestId) {
+        return invalida(error, requestId, false);
+    }
+
+    /**
+     * Como invalida(error, requestId), para una solicitud del encuadre indicado
+     */
+    public static Solicitud invalida(String error, String requestId, boolean binaria) {
+        return new Solicitud(null, null, null, binaria, -1, -1, requestId, error);
+    }
+
+    /**
+     * Decodifica el sobre REQUEST de una línea JSON recorriéndola una sola vez
+     * @throws IllegalArgumentException si el mensaje no es un sobre válido
+     */
+    static Solicitud decodificar(String mensajeJson) {
+        return decodificar(new JsonReader(mensajeJson), mensajeJson, null);
+    }
+
+    /**
+     * Decodifica el sobre REQUEST de una trama MessagePack leyendo sus bytes
+     * una sola vez; la solicitud se queda con la trama para leer la data
+     * @throws IllegalArgumentException si la trama no es un sobre válido
+     */
+    static Solicitud decodificar(byte[] trama) {
+        return decodificar(new MsgPackReader(trama, 0, trama.length), null, trama);
+    }
+
+    private static Solicitud decodificar(LectorMensaje lector, String mensajeJson, byte[] trama) {
+        boolean binaria = trama != null;
+        String tipo = null;
+        String action = null;
+        String requestId = null;
+        int dataInicio = -1;
+        int dataFin = -1;
+
+        lector.inicioObjeto();
+        String campo;
+        while ((campo = lector.siguienteCampo()) != null) {
+            switch (campo) {
+                case "type":
+                    tipo = lector.leerTexto();
+                    break;
+                case "action":
+                    action = lector.leerTexto();
+                    break;
+                case Protocol.FIELD_REQUEST_ID:
+                    requestId = lector.leerComoTexto();
+                    break;
+                case "data":
+                    // Como optJSONObject: si data no es un objeto se toma como vacío
+                    boolean esObjeto = lector.esObjeto();
+                    int inicio = lector.posicion();
+                    lector.saltar();
+                    if (esObjeto) {
+                        dataInicio = inicio;
+                        dataFin = lector.posicion();
+                    }
+                    break;
+                default:
+                    lector.saltar();
+            }
+        }
+
+        if (tipo == null) {
+            return invalida("Error al procesar solicitud: falta el campo type", requestId, binaria);
+        }
+        if (!tipo.equals(Protocol.TYPE_REQUEST)) {
+            return invalida("Tipo de mensaje inválido", requestId, binaria);
+        }
+        if (action == null) {
+            return invalida("Error al procesar solicitud: falta el campo action", requestId, binaria);
+        }
+        return new Solicitud(action, mensajeJson, trama, binaria, dataInicio, dataFin, requestId, null);
+    }
+
+    public boolean isValida() {
+        return error == null;
+    }
+
+    /**
+     * true si llegó en una trama MessagePack: la respuesta va en el mismo encuadre
+     */
+    public boolean isBinaria() {
+        return binaria;
+    }
+
+    /**
+     * Lector posicionado al inicio del objeto data, o null si la solicitud no trae data
+     */
+    LectorMensaje leerData() {
+        if (dataInicio < 0) {
+            return null;
+        }
+        if (trama != null) {
+            return new MsgPackReader(trama, dataInicio, dataFin);
+        }
+        return new JsonReader(mensaje, dataInicio, dataFin);
+    }
+
+    // Getters
+    public String getAction() {
+        return action;
+    }
+    public JSONObject getData() {
+        if (data == null) {
+            if (dataInicio < 0) {
+                data = new JSONObject();
+            } else if (trama != null) {
+                data = (JSONObject) new MsgPackReader(trama, dataInicio, dataFin).leerValor();
+            } else {
+                data = new JSONObject(mensaje.substring(dataInicio, dataFin));
+            }
+        }
+        return data;
+    }
+    public String getRequestId() {
+        return requestId;
+    }
+    public String getError() {
+        return error;
+    }
+    public long getNanosDecodificacion() {
+        return nanosDecodificacion;
+    }
+    void setNanosDecodificacion(long nanosDecodificacion) {
+        this.nanosDecodificacion = nanosDecodificacion;
+    }
+}